@@ -0,0 +1,113 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.PartitionedTransferEngine;
+import com.db.awmd.challenge.repository.StripedLockTransferEngine;
+import com.db.awmd.challenge.repository.TransferEngine;
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * AccountsWorkload is the shared benchmark state, a populated repository and the parameters describing how transfers
+ * pick their accounts.
+ */
+@State(Scope.Benchmark)
+public class AccountsWorkload {
+
+  /**
+   * UNIFORM picks both accounts at random. HOT sends most credits to a single merchant account, the skewed case where
+   * one account lock serialises the transfers.
+   */
+  @Param({"UNIFORM", "HOT"})
+  public String contention;
+
+  @Param({"1000", "1000000"})
+  public int accounts;
+
+  /**
+   * Scale of the balances and amounts, 0 keeps whole units while 2 exercises amounts with minor units.
+   */
+  @Param({"0", "2"})
+  public int balanceScale;
+
+  /**
+   * STRIPED locks the accounts of each transfer, PARTITIONED hands it to the single threaded partition owning them.
+   */
+  @Param({"STRIPED", "PARTITIONED"})
+  public String engine;
+
+  @Param({"4096"})
+  public int lockStripes;
+
+  /**
+   * Compares the hot paths with and without the transfer metrics recording.
+   */
+  @Param({"true", "false"})
+  public boolean metricsEnabled;
+
+  public TransferMetrics metrics;
+
+  public TransferEngine transferEngine;
+
+  public AccountsRepositoryInMemory repository;
+
+  public String[] accountIds;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.metrics = new TransferMetrics(this.metricsEnabled);
+    this.transferEngine = "PARTITIONED".equals(this.engine) ? new PartitionedTransferEngine(0)
+      : new StripedLockTransferEngine(this.lockStripes, this.metrics);
+    this.repository = new AccountsRepositoryInMemory(this.transferEngine, Optional.empty(), Optional.empty(),
+      this.metrics);
+    this.accountIds = new String[this.accounts];
+    // large enough that no transfer of the run fails for insufficient funds
+    BigDecimal balance = BigDecimal.valueOf(Long.MAX_VALUE / 4, this.balanceScale);
+    for (int i = 0; i < this.accounts; i++) {
+      this.accountIds[i] = "Id-" + i;
+      this.repository.createAccount(new Account(this.accountIds[i], balance));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (this.transferEngine instanceof PartitionedTransferEngine) {
+      ((PartitionedTransferEngine) this.transferEngine).shutdown();
+    }
+  }
+
+  /**
+   * Picker is the per-thread random source choosing the accounts of the next transfer.
+   */
+  @State(Scope.Thread)
+  public static class Picker {
+
+    private final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+
+    public int from;
+
+    public int to;
+
+    public void next(AccountsWorkload workload) {
+      int size = workload.accounts;
+      this.from = this.random.nextInt(size);
+      if ("HOT".equals(workload.contention) && this.random.nextInt(10) != 0) {
+        this.to = 0;
+      } else {
+        this.to = this.random.nextInt(size);
+      }
+      if (this.to == this.from) {
+        this.from = (this.from + 1) % size;
+      }
+    }
+  }
+}
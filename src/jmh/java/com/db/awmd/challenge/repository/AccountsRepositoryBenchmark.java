@@ -0,0 +1,30 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.AccountsWorkload;
+import com.db.awmd.challenge.domain.Account;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ * AccountsRepositoryBenchmark measures the repository hot paths without the service layer.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AccountsRepositoryBenchmark {
+
+  @Benchmark
+  public Boolean moneyTransfer(AccountsWorkload workload, AccountsWorkload.Picker picker) {
+    picker.next(workload);
+    return workload.repository.moneyTransfer(workload.accountIds[picker.from], workload.accountIds[picker.to], 1L,
+      workload.balanceScale);
+  }
+
+  @Benchmark
+  public Account getAccount(AccountsWorkload workload, AccountsWorkload.Picker picker) {
+    picker.next(workload);
+    return workload.repository.getAccount(workload.accountIds[picker.to]);
+  }
+}
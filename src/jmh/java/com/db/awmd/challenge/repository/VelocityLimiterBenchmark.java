@@ -0,0 +1,56 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * VelocityLimiterBenchmark measures one velocity check against two rules on accounts picked at random, every account
+ * carrying its counters. The rules have no limits, so every check goes as far as the compare and set.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class VelocityLimiterBenchmark {
+
+  @Param({"1000", "10000000"})
+  public int accounts;
+
+  private VelocityLimiter limiter;
+
+  private Account[] accountArray;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.limiter = new VelocityLimiter(new String[] {"60:0:0", "86400:0:0"}, 2);
+    this.accountArray = new Account[this.accounts];
+    for (int i = 0; i < this.accounts; i++) {
+      this.accountArray[i] = new Account("Id-" + i);
+      this.accountArray[i].velocityCounters(2 * VelocityLimiter.BUCKETS);
+    }
+  }
+
+  @Benchmark
+  public boolean tryRecord(Picker picker) {
+    Account account = this.accountArray[picker.random.nextInt(this.accounts)];
+    return this.limiter.tryRecord(account, 1L, 0, System.currentTimeMillis());
+  }
+
+  /**
+   * Picker is the per-thread random source choosing the account of the next check.
+   */
+  @State(Scope.Thread)
+  public static class Picker {
+
+    private final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+  }
+}
@@ -0,0 +1,55 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.AccountsWorkload;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * TransactionServiceBenchmark measures a transfer through TransactionService, including validation and queueing the
+ * notifications. Notifications are dropped when the queue is full so delivery does not throttle the measurement.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransactionServiceBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Service {
+
+    public TransactionService transactionService;
+
+    public NotificationDispatcher notificationDispatcher;
+
+    public BigDecimal amount;
+
+    @Setup(Level.Trial)
+    public void setUp(AccountsWorkload workload) {
+      this.notificationDispatcher = new NotificationDispatcher((account, description) -> { }, 65536, 1, 256,
+        NotificationDispatcher.OverflowPolicy.DROP_NEWEST, 0L);
+      this.transactionService = new TransactionService(workload.repository, this.notificationDispatcher,
+        workload.metrics, new IdempotencyCache(1024, 60L));
+      this.amount = BigDecimal.valueOf(1L, workload.balanceScale);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+      this.notificationDispatcher.shutdown();
+    }
+  }
+
+  @Benchmark
+  public void transferAmount(AccountsWorkload workload, AccountsWorkload.Picker picker, Service service)
+    throws Exception {
+    picker.next(workload);
+    service.transactionService.transferAmount(workload.accountIds[picker.from], workload.accountIds[picker.to],
+      service.amount);
+  }
+}
@@ -1,34 +1,381 @@
 package com.db.awmd.challenge.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import lombok.AccessLevel;
 import lombok.Data;
-import org.hibernate.validator.constraints.NotBlank;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
 import org.hibernate.validator.constraints.NotEmpty;
 
+/**
+ * Account holds the balance of one account. The balance is changed by a single writer at a time, the transfer engine
+ * serialises the writers of an account, and is read without any lock in the manner of a seqlock: every change is
+ * wrapped in two increments of balanceVersion, which is odd while the change is in progress. getBalance reads the
+ * version before and after the balance and retries if it was odd or has moved, so a reader never sees the units of
+ * one change with the scale of another and never delays a writer. The fields are written with ordered stores, on
+ * x86 plain moves without a fence.
+ */
 @Data
+@EqualsAndHashCode(exclude = {"history", "balanceVersion", "velocityCounters"})
+@JsonPropertyOrder({"accountId", "balance"})
 public class Account {
 
+  private static final AtomicIntegerFieldUpdater<Account> BALANCE_VERSION =
+    AtomicIntegerFieldUpdater.newUpdater(Account.class, "balanceVersion");
+
+  private static final AtomicLongFieldUpdater<Account> BALANCE_UNITS =
+    AtomicLongFieldUpdater.newUpdater(Account.class, "balanceUnits");
+
+  private static final AtomicIntegerFieldUpdater<Account> BALANCE_SCALE =
+    AtomicIntegerFieldUpdater.newUpdater(Account.class, "balanceScale");
+
+  private static final AtomicLongFieldUpdater<Account> HELD_UNITS =
+    AtomicLongFieldUpdater.newUpdater(Account.class, "heldUnits");
+
+  private static final AtomicIntegerFieldUpdater<Account> HELD_SCALE =
+    AtomicIntegerFieldUpdater.newUpdater(Account.class, "heldScale");
+
+  private static final AtomicReferenceFieldUpdater<Account, AtomicLongArray> VELOCITY_COUNTERS =
+    AtomicReferenceFieldUpdater.newUpdater(Account.class, AtomicLongArray.class, "velocityCounters");
+
   @NotNull
   @NotEmpty
   private final String accountId;
 
-  @NotNull
-  @Min(value = 0, message = "Initial balance must be positive.")
-  private BigDecimal balance;
+  /**
+   * Balance in minor units of balanceScale. Both fields are only changed through setBalance, debit and credit, the
+   * latter two must be called while the account is locked by the transfer engine.
+   */
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private volatile long balanceUnits;
+
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private volatile int balanceScale;
+
+  /**
+   * Sum of the holds on the balance in minor units of heldScale, part of the balance that transfers may not spend.
+   * Changed like the balance and covered by the same version.
+   */
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private volatile long heldUnits;
+
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private volatile int heldScale;
+
+  /**
+   * Incremented before and after every change of the balance or the holds, odd while a change is in progress.
+   */
+  @JsonIgnore
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private volatile int balanceVersion;
+
+  /**
+   * Journal position of the last logged change applied to this account, 0 when the journal is disabled. Updated
+   * together with the balance while the account is locked.
+   */
+  @JsonIgnore
+  private long journalPosition;
+
+  /**
+   * Credits collected without locking the account, null unless the account is hot. See enableCreditAggregation.
+   */
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private volatile CreditAccumulator creditAccumulator;
+
+  /**
+   * Credits applied while the account lock was held by another thread, counted to detect hot accounts.
+   */
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private int contendedCredits;
+
+  /**
+   * Sliding window counters of the velocity rules, null until the first debit they checked. See velocityCounters.
+   */
+  @JsonIgnore
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private volatile AtomicLongArray velocityCounters;
+
+  /**
+   * Transfers booked on this account, kept in memory only.
+   */
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private final StatementHistory history = new StatementHistory();
 
   public Account(String accountId) {
     this.accountId = accountId;
-    this.balance = BigDecimal.ZERO;
   }
 
   @JsonCreator
   public Account(@JsonProperty("accountId") String accountId,
     @JsonProperty("balance") BigDecimal balance) {
     this.accountId = accountId;
-    this.balance = balance;
+    if (balance == null) {
+      throw new IllegalArgumentException("Balance must be provided.");
+    }
+    setBalance(balance);
+  }
+
+  /**
+   * getBalance returns the balance including credits not folded yet. It takes no lock, a read racing with a change
+   * is retried, so the result is always a balance the account had.
+   */
+  @Min(value = 0, message = "Initial balance must be positive.")
+  public BigDecimal getBalance() {
+    while (true) {
+      int version = this.balanceVersion;
+      if ((version & 1) == 0) {
+        long units = this.balanceUnits;
+        int scale = this.balanceScale;
+        CreditAccumulator accumulator = this.creditAccumulator;
+        // folding moves credits from the accumulator into the balance under a version change as well
+        BigDecimal pending = accumulator == null ? null : accumulator.pending();
+        if (this.balanceVersion == version) {
+          BigDecimal balance = MinorUnits.toBigDecimal(units, scale);
+          return pending == null || pending.signum() == 0 ? balance : balance.add(pending);
+        }
+      }
+      // a change is in progress, it only spans a few stores unless its thread was descheduled
+      Thread.yield();
+    }
+  }
+
+  /**
+   * @return the balance transfers may spend, the balance less the holds on it.
+   */
+  @JsonIgnore
+  public BigDecimal getAvailableBalance() {
+    return getBalances().getAvailableBalance();
+  }
+
+  /**
+   * getBalances reads the balance and the holds at once, without a lock like getBalance.
+   */
+  @JsonIgnore
+  public AccountBalances getBalances() {
+    while (true) {
+      int version = this.balanceVersion;
+      if ((version & 1) == 0) {
+        long units = this.balanceUnits;
+        int scale = this.balanceScale;
+        long held = this.heldUnits;
+        int heldScale = this.heldScale;
+        CreditAccumulator accumulator = this.creditAccumulator;
+        BigDecimal pending = accumulator == null ? null : accumulator.pending();
+        if (this.balanceVersion == version) {
+          BigDecimal balance = MinorUnits.toBigDecimal(units, scale);
+          if (pending != null && pending.signum() != 0) {
+            balance = balance.add(pending);
+          }
+          BigDecimal heldBalance = MinorUnits.toBigDecimal(held, heldScale);
+          return new AccountBalances(this.accountId, balance, heldBalance,
+            held == 0L ? balance : balance.subtract(heldBalance));
+        }
+      }
+      Thread.yield();
+    }
+  }
+
+  public void setBalance(BigDecimal balance) {
+    int scale = MinorUnits.scaleOf(balance);
+    storeBalance(MinorUnits.unitsOf(balance, scale), scale);
+  }
+
+  /**
+   * hasBalance checks if the available balance, the balance less the holds, covers the amount given in minor units.
+   * @param units
+   * @param scale
+   * @return
+   */
+  public boolean hasBalance(long units, int scale) {
+    long held = this.heldUnits;
+    if (held == 0L) {
+      return MinorUnits.compare(this.balanceUnits, this.balanceScale, units, scale) >= 0;
+    }
+    int common = Math.max(this.balanceScale, this.heldScale);
+    try {
+      long available = MinorUnits.rescale(this.balanceUnits, this.balanceScale, common)
+        - MinorUnits.rescale(held, this.heldScale, common);
+      return MinorUnits.compare(available, common, units, scale) >= 0;
+    } catch (ArithmeticException ex) {
+      // too large for the minor units of the common scale, rare enough to compare as BigDecimal
+      return MinorUnits.toBigDecimal(this.balanceUnits, this.balanceScale)
+        .subtract(MinorUnits.toBigDecimal(held, this.heldScale))
+        .compareTo(MinorUnits.toBigDecimal(units, scale)) >= 0;
+    }
+  }
+
+  /**
+   * hold reserves the amount given in minor units if the available balance covers it. Must be called while the
+   * account is locked.
+   * @return false if the available balance is not sufficient.
+   * @throws ArithmeticException if the holds would overflow the minor units.
+   */
+  public boolean hold(long units, int scale) {
+    if (!hasBalance(units, scale)) {
+      return false;
+    }
+    int heldScale = Math.max(scale, this.heldScale);
+    storeHeld(Math.addExact(MinorUnits.rescale(this.heldUnits, this.heldScale, heldScale),
+      MinorUnits.rescale(units, scale, heldScale)), heldScale);
+    return true;
+  }
+
+  /**
+   * releaseHold makes an amount held before available again. Must be called while the account is locked.
+   * @param units
+   * @param scale
+   */
+  public void releaseHold(long units, int scale) {
+    int heldScale = Math.max(scale, this.heldScale);
+    long held = MinorUnits.rescale(this.heldUnits, this.heldScale, heldScale) - MinorUnits.rescale(units, scale,
+      heldScale);
+    // a hold placed before the accounts were cleared may exceed what is held now
+    storeHeld(Math.max(0L, held), held > 0L ? heldScale : 0);
+  }
+
+  /**
+   * debit subtracts the amount given in minor units, the balance scale is raised if the amount is more precise.
+   * @param units
+   * @param scale
+   */
+  public void debit(long units, int scale) {
+    int balanceScale = Math.max(scale, this.balanceScale);
+    storeBalance(Math.subtractExact(MinorUnits.rescale(this.balanceUnits, this.balanceScale, balanceScale),
+      MinorUnits.rescale(units, scale, balanceScale)), balanceScale);
+  }
+
+  /**
+   * credit adds the amount given in minor units, the balance scale is raised if the amount is more precise.
+   * @param units
+   * @param scale
+   */
+  public void credit(long units, int scale) {
+    int balanceScale = Math.max(scale, this.balanceScale);
+    storeBalance(Math.addExact(MinorUnits.rescale(this.balanceUnits, this.balanceScale, balanceScale),
+      MinorUnits.rescale(units, scale, balanceScale)), balanceScale);
+  }
+
+  /**
+   * restoreBalance puts back a balance read earlier through getBalanceUnits and getBalanceScale, used to undo
+   * debits and credits of an aborted atomic operation without rounding the scale.
+   * @param units
+   * @param scale
+   */
+  public void restoreBalance(long units, int scale) {
+    storeBalance(units, scale);
+  }
+
+  /**
+   * enableCreditAggregation makes the account hot, credits may then be collected in an accumulator instead of the
+   * balance. Must be called while the account is locked.
+   * @param cellCount number of accumulator cells, at least the number of crediting threads to avoid contention.
+   */
+  public void enableCreditAggregation(int cellCount) {
+    if (this.creditAccumulator == null) {
+      this.creditAccumulator = new CreditAccumulator(cellCount, this.balanceScale);
+    }
+  }
+
+  /**
+   * velocityCounters returns the counters the velocity rules keep for this account, created on first use. Unlike
+   * the balance they are changed without the account lock, every counter is updated by compare and set.
+   * @param length number of counters, the same on every call.
+   */
+  public AtomicLongArray velocityCounters(int length) {
+    AtomicLongArray counters = this.velocityCounters;
+    if (counters == null) {
+      VELOCITY_COUNTERS.compareAndSet(this, null, new AtomicLongArray(length));
+      counters = this.velocityCounters;
+    }
+    return counters;
+  }
+
+  /**
+   * recordContendedCredit counts a credit that had to wait for the account lock. Must be called while the account
+   * is locked.
+   * @return the number of contended credits so far.
+   */
+  public int recordContendedCredit() {
+    return ++this.contendedCredits;
+  }
+
+  /**
+   * foldCredits moves the credits collected by the accumulator into the balance, so that a balance check sees the
+   * true balance. Must be called while the account is locked.
+   */
+  public void foldCredits() {
+    CreditAccumulator accumulator = this.creditAccumulator;
+    if (accumulator == null) {
+      return;
+    }
+    // a reader summing the balance and the cells retries rather than miss the units in between
+    int version = this.balanceVersion;
+    BALANCE_VERSION.lazySet(this, version + 1);
+    try {
+      for (int cell = 0; cell < accumulator.getCellCount(); cell++) {
+        long units = accumulator.take(cell);
+        if (units != 0L) {
+          try {
+            credit(units, accumulator.getScale());
+          } catch (ArithmeticException ex) {
+            accumulator.putBack(cell, units);
+            throw ex;
+          }
+        }
+      }
+    } finally {
+      BALANCE_VERSION.lazySet(this, version + 2);
+    }
+  }
+
+  /**
+   * storeBalance publishes a new balance to the readers of getBalance. Each store is ordered after the ones before
+   * it, so a reader seeing the new units or scale sees the odd version as well. Inside a change already in progress,
+   * such as a fold, the version is left to it.
+   */
+  private void storeBalance(long units, int scale) {
+    int version = this.balanceVersion;
+    boolean outer = (version & 1) == 0;
+    if (outer) {
+      BALANCE_VERSION.lazySet(this, version + 1);
+    }
+    BALANCE_UNITS.lazySet(this, units);
+    BALANCE_SCALE.lazySet(this, scale);
+    if (outer) {
+      BALANCE_VERSION.lazySet(this, version + 2);
+    }
+  }
+
+  private void storeHeld(long units, int scale) {
+    int version = this.balanceVersion;
+    BALANCE_VERSION.lazySet(this, version + 1);
+    HELD_UNITS.lazySet(this, units);
+    HELD_SCALE.lazySet(this, scale);
+    BALANCE_VERSION.lazySet(this, version + 2);
+  }
+
+  @Override
+  public String toString() {
+    return "Account(accountId=" + this.accountId + ", balance=" + getBalance() + ")";
   }
 }
@@ -0,0 +1,20 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import lombok.Data;
+
+/**
+ * AccountBalances is a consistent read of the balances of an account. The ledger balance holds every applied
+ * transfer, the available balance is what is left of it after the holds and what transfers may spend.
+ */
+@Data
+public class AccountBalances {
+
+  private final String accountId;
+
+  private final BigDecimal ledgerBalance;
+
+  private final BigDecimal heldBalance;
+
+  private final BigDecimal availableBalance;
+}
@@ -0,0 +1,15 @@
+package com.db.awmd.challenge.domain;
+
+/**
+ * BatchMode selects how a batch of transfers is applied.
+ */
+public enum BatchMode {
+  /**
+   * Either every transfer of the batch is applied or none of them.
+   */
+  ATOMIC,
+  /**
+   * Every transfer is applied on its own, failed transfers do not affect the others.
+   */
+  BEST_EFFORT
+}
@@ -0,0 +1,26 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.List;
+import lombok.Data;
+
+/**
+ * BulkCreateResult summarises a bulk account creation. Errors are listed by line number, at most the configured
+ * number of them, failed counts all.
+ */
+@Data
+public class BulkCreateResult {
+
+  private final long created;
+
+  private final long failed;
+
+  private final List<LineError> errors;
+
+  @Data
+  public static class LineError {
+
+    private final long line;
+
+    private final String error;
+  }
+}
@@ -0,0 +1,110 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLongArray;
+import lombok.Getter;
+
+/**
+ * CreditAccumulator collects credits to a hot account without locking it, in the manner of a LongAdder. Every thread
+ * adds to its own cell and the cells are folded into the balance when the account is debited. Each cell sits on its
+ * own cache line so that threads crediting the same account do not contend.
+ *
+ * <p>All cells hold minor units of one scale, the balance scale at the time the account became hot. Credits with a
+ * finer scale, or credits that would overflow a cell, are refused and have to be applied to the balance directly.
+ */
+public final class CreditAccumulator {
+
+  /**
+   * Longs per cell, 128 bytes cover a cache line and the adjacent line prefetcher.
+   */
+  private static final int STRIDE = 16;
+
+  private final AtomicLongArray cells;
+
+  private final int mask;
+
+  @Getter
+  private final int scale;
+
+  /**
+   * @param cellCount number of cells, rounded up to a power of two.
+   * @param scale scale of the accumulated minor units.
+   */
+  public CreditAccumulator(int cellCount, int scale) {
+    int size = 1;
+    while (size < cellCount) {
+      size <<= 1;
+    }
+    this.cells = new AtomicLongArray(size * STRIDE);
+    this.mask = size - 1;
+    this.scale = scale;
+  }
+
+  public int getCellCount() {
+    return this.mask + 1;
+  }
+
+  /**
+   * add credits the amount to the cell of the current thread.
+   * @param units
+   * @param unitsScale
+   * @return false if the amount cannot be accumulated and must be credited to the balance.
+   */
+  public boolean add(long units, int unitsScale) {
+    if (unitsScale > this.scale) {
+      return false;
+    }
+    long value;
+    try {
+      value = MinorUnits.rescale(units, unitsScale, this.scale);
+    } catch (ArithmeticException ex) {
+      return false;
+    }
+    int index = cellOf(Thread.currentThread()) * STRIDE;
+    while (true) {
+      long current = this.cells.get(index);
+      long next = current + value;
+      if (((current ^ next) & (value ^ next)) < 0) {
+        // overflow, the caller credits the balance instead
+        return false;
+      }
+      if (this.cells.compareAndSet(index, current, next)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * take removes and returns the units of one cell.
+   */
+  public long take(int cell) {
+    return this.cells.getAndSet(cell * STRIDE, 0L);
+  }
+
+  /**
+   * putBack returns units taken from a cell that could not be folded.
+   */
+  public void putBack(int cell, long units) {
+    this.cells.getAndAdd(cell * STRIDE, units);
+  }
+
+  /**
+   * pending returns the credits not folded into the balance yet, without removing them.
+   */
+  public BigDecimal pending() {
+    BigDecimal sum = BigDecimal.ZERO;
+    for (int cell = 0; cell <= this.mask; cell++) {
+      long units = this.cells.get(cell * STRIDE);
+      if (units != 0L) {
+        sum = sum.add(MinorUnits.toBigDecimal(units, this.scale));
+      }
+    }
+    return sum;
+  }
+
+  private int cellOf(Thread thread) {
+    long id = thread.getId();
+    // fibonacci hashing spreads consecutive thread ids over the cells
+    return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & this.mask;
+  }
+}
@@ -0,0 +1,41 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import lombok.Data;
+import org.hibernate.validator.constraints.NotEmpty;
+
+/**
+ * Hold reserves part of the balance of an account until it is captured, released or expires, as in a card
+ * authorisation.
+ */
+@Data
+public class Hold {
+
+  /**
+   * Assigned when the hold is placed.
+   */
+  private Long id;
+
+  @NotNull
+  @NotEmpty(message = "Account cannot be empty")
+  private String accountId;
+
+  @NotNull
+  @Min(value = 1, message = "Amount cannot be 0 or less...")
+  private BigDecimal amount;
+
+  /**
+   * Seconds until the hold is released unless captured, the configured default if not set.
+   */
+  @Min(value = 1, message = "Time to live must be at least one second")
+  @Max(value = 31536000L, message = "Time to live cannot be longer than a year")
+  private Long ttlSeconds;
+
+  /**
+   * Epoch millis the hold expires at, assigned when the hold is placed.
+   */
+  private long expiresAt;
+}
@@ -0,0 +1,25 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import lombok.Data;
+import org.hibernate.validator.constraints.NotEmpty;
+
+/**
+ * HoldCapture settles a hold by transferring the held amount, or a part of it, to another account. The rest of the
+ * hold is released.
+ */
+@Data
+public class HoldCapture {
+
+  @NotNull
+  @NotEmpty(message = "To account cannot be empty")
+  private String accountTo;
+
+  /**
+   * Amount transferred, at most the held amount. The whole held amount if not set.
+   */
+  @Min(value = 1, message = "Amount cannot be 0 or less...")
+  private BigDecimal amount;
+}
@@ -0,0 +1,92 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * MinorUnits holds the fixed-point arithmetic used for balances. An amount is kept as a long count of minor units
+ * together with its scale, so 123.45 is 12345 units at scale 2. Scales only ever grow the way BigDecimal add and
+ * subtract grow them, so amounts read back through the JSON boundary look exactly as before.
+ */
+public final class MinorUnits {
+
+  public static final int MAX_SCALE = 18;
+
+  private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+
+  static {
+    POWERS_OF_TEN[0] = 1L;
+    for (int i = 1; i <= MAX_SCALE; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10L;
+    }
+  }
+
+  private MinorUnits() {
+  }
+
+  /**
+   * scaleOf returns the scale an amount is stored with, negative scales are stored as whole units.
+   * @param value
+   * @return
+   * @throws ArithmeticException if the amount needs more than MAX_SCALE decimal places.
+   */
+  public static int scaleOf(BigDecimal value) {
+    int scale = value.scale();
+    if (scale > MAX_SCALE) {
+      scale = Math.max(0, value.stripTrailingZeros().scale());
+      if (scale > MAX_SCALE) {
+        throw new ArithmeticException("Amount " + value + " has more than " + MAX_SCALE + " decimal places");
+      }
+    }
+    return Math.max(0, scale);
+  }
+
+  /**
+   * unitsOf converts an amount to minor units of the given scale.
+   * @param value
+   * @param scale
+   * @return
+   * @throws ArithmeticException if the amount does not fit into a long at that scale.
+   */
+  public static long unitsOf(BigDecimal value, int scale) {
+    return value.setScale(scale).unscaledValue().longValueExact();
+  }
+
+  public static BigDecimal toBigDecimal(long units, int scale) {
+    return BigDecimal.valueOf(units, scale);
+  }
+
+  /**
+   * rescale raises the scale of an amount, fromScale must not be greater than toScale.
+   * @param units
+   * @param fromScale
+   * @param toScale
+   * @return
+   * @throws ArithmeticException on overflow.
+   */
+  public static long rescale(long units, int fromScale, int toScale) {
+    return fromScale == toScale ? units : Math.multiplyExact(units, POWERS_OF_TEN[toScale - fromScale]);
+  }
+
+  /**
+   * compare compares two amounts of possibly different scales without allocating.
+   * @return a negative number, zero or a positive number as the first amount is less than, equal to or greater than
+   * the second.
+   */
+  public static int compare(long units, int scale, long otherUnits, int otherScale) {
+    if (scale == otherScale) {
+      return Long.compare(units, otherUnits);
+    }
+    if (scale < otherScale) {
+      return -compare(otherUnits, otherScale, units, scale);
+    }
+    // the other amount has the smaller scale, raising it can only overflow if it is out of range of this one
+    long factor = POWERS_OF_TEN[scale - otherScale];
+    if (otherUnits > Long.MAX_VALUE / factor) {
+      return -1;
+    }
+    if (otherUnits < Long.MIN_VALUE / factor) {
+      return 1;
+    }
+    return Long.compare(units, otherUnits * factor);
+  }
+}
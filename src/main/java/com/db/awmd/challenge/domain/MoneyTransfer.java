@@ -1,15 +1,21 @@
 package com.db.awmd.challenge.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Setter;
+import lombok.ToString;
 import org.hibernate.validator.constraints.NotEmpty;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
 import java.math.BigDecimal;
 
 @Data
+@ToString(exclude = {"amountUnits", "amountScale"})
 public class MoneyTransfer {
 
     @NotNull
@@ -24,12 +30,40 @@ public class MoneyTransfer {
     @Min(value = 1, message = "Amount cannot be 0 or less...")
     private BigDecimal amount;
 
+    /**
+     * Optional idempotency key, a retried request with the same id is answered with the original outcome instead of
+     * being transferred again.
+     */
+    @Size(max = 128, message = "Request id cannot be longer than 128 characters")
+    private String requestId;
+
+    /**
+     * Amount in minor units of amountScale, converted once when the amount is set.
+     */
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    private long amountUnits;
+
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    private int amountScale;
+
     @JsonCreator
     public MoneyTransfer(@JsonProperty("accountFrom") String accountFrom, @JsonProperty("accountTo") String accountTo, @JsonProperty("amount") BigDecimal amount) {
         this.accountFrom = accountFrom;
         this.accountTo = accountTo;
-        this.amount = amount;
+        setAmount(amount);
     }
 
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+        if (amount != null) {
+            this.amountScale = MinorUnits.scaleOf(amount);
+            this.amountUnits = MinorUnits.unitsOf(amount, this.amountScale);
+        } else {
+            this.amountScale = 0;
+            this.amountUnits = 0L;
+        }
+    }
 
 }
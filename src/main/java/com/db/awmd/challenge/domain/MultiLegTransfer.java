@@ -0,0 +1,44 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import java.util.List;
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import lombok.Data;
+import org.hibernate.validator.constraints.NotEmpty;
+
+/**
+ * MultiLegTransfer debits one account once and credits its legs, such as a payroll or a split payment. It is applied
+ * in full or not at all.
+ */
+@Data
+public class MultiLegTransfer {
+
+  public static final int MAX_LEGS = 10000;
+
+  @NotNull
+  @NotEmpty(message = "From account cannot be empty")
+  private String accountFrom;
+
+  @NotNull
+  @Size(min = 1, max = MAX_LEGS, message = "A transfer needs between 1 and " + MAX_LEGS + " legs")
+  @Valid
+  private List<Leg> legs;
+
+  /**
+   * Leg is one credit of a multi-leg transfer.
+   */
+  @Data
+  public static class Leg {
+
+    @NotNull
+    @NotEmpty(message = "To account cannot be empty")
+    private String accountTo;
+
+    @NotNull
+    @Min(value = 1, message = "Amount cannot be 0 or less...")
+    private BigDecimal amount;
+  }
+}
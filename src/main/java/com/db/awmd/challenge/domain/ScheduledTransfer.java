@@ -0,0 +1,49 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import lombok.Data;
+import org.hibernate.validator.constraints.NotEmpty;
+
+/**
+ * ScheduledTransfer is a transfer to be applied at a later time, once or repeatedly.
+ */
+@Data
+public class ScheduledTransfer {
+
+  /**
+   * Assigned when the transfer is scheduled.
+   */
+  private Long id;
+
+  @NotNull
+  @NotEmpty(message = "From account cannot be empty")
+  @Size(max = 1024, message = "From account cannot be longer than 1024 characters")
+  private String accountFrom;
+
+  @NotNull
+  @NotEmpty(message = "To account cannot be empty")
+  @Size(max = 1024, message = "To account cannot be longer than 1024 characters")
+  private String accountTo;
+
+  @NotNull
+  @Min(value = 1, message = "Amount cannot be 0 or less...")
+  private BigDecimal amount;
+
+  /**
+   * Epoch millis of the first execution, a time in the past executes with the next tick.
+   */
+  @Min(value = 0, message = "Execution time cannot be negative")
+  @Max(value = 253402300799999L, message = "Execution time must be before the year 10000")
+  private long executeAt;
+
+  /**
+   * Seconds between executions, 0 to execute once.
+   */
+  @Min(value = 0, message = "Interval cannot be negative")
+  @Max(value = 3153600000L, message = "Interval cannot be longer than 100 years")
+  private long intervalSeconds;
+}
@@ -0,0 +1,18 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.List;
+import lombok.Data;
+
+/**
+ * Statement is one page of the bookings of an account, oldest first. nextCursor is passed back as cursor to read
+ * the following page, it is null on the last page of the requested range.
+ */
+@Data
+public class Statement {
+
+  private final String accountId;
+
+  private final List<StatementEntry> entries;
+
+  private final Long nextCursor;
+}
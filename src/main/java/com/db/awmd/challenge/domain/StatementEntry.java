@@ -0,0 +1,19 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import lombok.Data;
+
+/**
+ * StatementEntry is one booking of an account statement, the amount is negative for a debit.
+ */
+@Data
+public class StatementEntry {
+
+  private final long sequence;
+
+  private final long timestamp;
+
+  private final String counterparty;
+
+  private final BigDecimal amount;
+}
@@ -0,0 +1,140 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.Arrays;
+
+/**
+ * StatementHistory is the append-only list of the transfers booked on one account. Entries are kept in chunks of
+ * primitive arrays, a timestamp, the signed amount in minor units, its scale and a reference to the counterparty id,
+ * about 21 bytes an entry. A full chunk is never copied, growing only allocates the next one. Most accounts book
+ * only a few transfers, so the chunks start small and double up to CHUNK_SIZE: the first two hold 8 entries, the
+ * next 16, 32, 64 and 128, and all chunks after those 256 entries hold CHUNK_SIZE.
+ *
+ * <p>Appends are serialised on the history, reads take no lock. An entry is written before the size is published,
+ * so a reader only ever sees complete entries. Timestamps never decrease, an entry is found by binary search on
+ * them or directly by its sequence number.
+ */
+public final class StatementHistory {
+
+  private static final int CHUNK_BITS = 8;
+
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private static final int FIRST_CHUNK_BITS = 3;
+
+  /**
+   * Number of chunks smaller than CHUNK_SIZE, together they hold the first CHUNK_SIZE entries.
+   */
+  private static final int SMALL_CHUNKS = CHUNK_BITS - FIRST_CHUNK_BITS + 1;
+
+  private static final Chunk[] NO_CHUNKS = new Chunk[0];
+
+  private volatile Chunk[] chunks = NO_CHUNKS;
+
+  private volatile int size;
+
+  private long lastTimestamp;
+
+  /**
+   * append adds a booking at the end of the history.
+   * @param timestamp epoch millis, raised to the previous timestamp if the clock went back.
+   * @param amountUnits minor units, negative for a debit.
+   * @param amountScale
+   * @param counterparty id of the other account of the transfer.
+   */
+  public synchronized void append(long timestamp, long amountUnits, int amountScale, String counterparty) {
+    int index = this.size;
+    int chunkIndex = chunkOf(index);
+    Chunk[] current = this.chunks;
+    if (chunkIndex == current.length) {
+      current = Arrays.copyOf(current, Math.max(4, current.length * 2));
+      this.chunks = current;
+    }
+    Chunk chunk = current[chunkIndex];
+    if (chunk == null) {
+      chunk = new Chunk(chunkIndex >= SMALL_CHUNKS ? CHUNK_SIZE : 1 << Math.max(FIRST_CHUNK_BITS,
+        FIRST_CHUNK_BITS + chunkIndex - 1));
+      current[chunkIndex] = chunk;
+    }
+    long time = Math.max(timestamp, this.lastTimestamp);
+    this.lastTimestamp = time;
+    int offset = offsetOf(index);
+    chunk.timestamps[offset] = time;
+    chunk.amountUnits[offset] = amountUnits;
+    chunk.amountScales[offset] = (byte) amountScale;
+    chunk.counterparties[offset] = counterparty;
+    // publishes the entry, readers read the size before any entry
+    this.size = index + 1;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * firstAtOrAfter finds the first entry not older than the timestamp.
+   * @param timestamp epoch millis.
+   * @return its sequence number, size() if all entries are older.
+   */
+  public int firstAtOrAfter(long timestamp) {
+    int low = 0;
+    int high = this.size;
+    Chunk[] current = this.chunks;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (current[chunkOf(middle)].timestamps[offsetOf(middle)] < timestamp) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * get returns the entry with the given sequence number, which must be less than a size read before.
+   */
+  public StatementEntry get(int sequence) {
+    Chunk chunk = this.chunks[chunkOf(sequence)];
+    int offset = offsetOf(sequence);
+    return new StatementEntry(sequence, chunk.timestamps[offset], chunk.counterparties[offset],
+      MinorUnits.toBigDecimal(chunk.amountUnits[offset], chunk.amountScales[offset]));
+  }
+
+  /**
+   * chunkOf returns the chunk holding the entry. A small chunk other than the first starts at a power of two, its
+   * index follows from the highest bit of the sequence number.
+   */
+  private static int chunkOf(int sequence) {
+    if (sequence >= CHUNK_SIZE) {
+      return (sequence >>> CHUNK_BITS) + SMALL_CHUNKS - 1;
+    }
+    return Math.max(0, 31 - Integer.numberOfLeadingZeros(sequence) - FIRST_CHUNK_BITS + 1);
+  }
+
+  private static int offsetOf(int sequence) {
+    if (sequence >= CHUNK_SIZE) {
+      return sequence & CHUNK_MASK;
+    }
+    return sequence < 1 << FIRST_CHUNK_BITS ? sequence : sequence - Integer.highestOneBit(sequence);
+  }
+
+  private static final class Chunk {
+
+    private final long[] timestamps;
+
+    private final long[] amountUnits;
+
+    private final byte[] amountScales;
+
+    private final String[] counterparties;
+
+    private Chunk(int capacity) {
+      this.timestamps = new long[capacity];
+      this.amountUnits = new long[capacity];
+      this.amountScales = new byte[capacity];
+      this.counterparties = new String[capacity];
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package com.db.awmd.challenge.domain;
+
+/**
+ * TransferStatus is the outcome of a single transfer, used where results are reported per item instead of through
+ * an exception.
+ */
+public enum TransferStatus {
+  OK,
+  INVALID_REQUEST,
+  ACCOUNT_NOT_FOUND,
+  SAME_ACCOUNT,
+  INSUFFICIENT_FUNDS,
+  /**
+   * The request id was used before for a different transfer.
+   */
+  REQUEST_ID_REUSED,
+  /**
+   * The transfer itself was valid but was not applied because another transfer of the same atomic batch failed.
+   */
+  ABORTED,
+  /**
+   * The hold does not exist, it was captured, released or has expired.
+   */
+  HOLD_NOT_FOUND,
+  /**
+   * The debited account has reached a limit on the number or the total of its transfers within a time window.
+   */
+  VELOCITY_LIMIT_EXCEEDED,
+  /**
+   * Too many transfers are in progress, the transfer was turned away by admission control before it was tried.
+   */
+  OVERLOADED
+}
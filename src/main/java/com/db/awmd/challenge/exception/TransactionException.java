@@ -1,7 +1,22 @@
 package com.db.awmd.challenge.exception;
 
+import com.db.awmd.challenge.domain.TransferStatus;
+import lombok.Getter;
+
 public class TransactionException extends RuntimeException{
+
+    @Getter
+    private final TransferStatus status;
+
     public TransactionException(String message) {
-        super(message);
+        this(message, TransferStatus.INVALID_REQUEST);
+    }
+
+    /**
+     * A TransactionException reports a rejected transfer, not a fault, it is created without a stack trace.
+     */
+    public TransactionException(String message, TransferStatus status) {
+        super(message, null, false, false);
+        this.status = status;
     }
 }
@@ -0,0 +1,97 @@
+package com.db.awmd.challenge.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts durations in log-linear buckets, in the manner of an HDR histogram. Every power of two is
+ * split into 32 linear sub-buckets, so a reported percentile is within about 3% of the recorded value. The buckets
+ * are allocated up front, recording only increments counters and never allocates.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Values up to Long.MAX_VALUE have at most 63 significant bits, the lowest SUB_BUCKET_BITS magnitudes share the
+   * first row of buckets.
+   */
+  private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+  private final LongAdder sum = new LongAdder();
+
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+  /**
+   * record adds one duration, negative values are counted as 0.
+   * @param value duration in nanoseconds.
+   */
+  public void record(long value) {
+    long clamped = Math.max(0L, value);
+    this.counts.incrementAndGet(indexOf(clamped));
+    this.sum.add(clamped);
+    this.max.accumulate(clamped);
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int shift = magnitude - SUB_BUCKET_BITS;
+    // the top SUB_BUCKET_BITS + 1 bits select the sub-bucket within the magnitude
+    return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+  }
+
+  /**
+   * highestValueOf returns the largest value counted in the bucket.
+   */
+  static long highestValueOf(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    long lowest = (long) (index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /**
+   * snapshot summarises the recorded values. Recording continues while the snapshot is taken, so the figures of a
+   * busy histogram may be off by the values recorded meanwhile.
+   * @return count, mean, percentiles and max, durations in nanoseconds.
+   */
+  public Map<String, Object> snapshot() {
+    long[] copy = new long[BUCKET_COUNT];
+    long count = 0L;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      copy[i] = this.counts.get(i);
+      count += copy[i];
+    }
+    Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("count", count);
+    snapshot.put("mean", count == 0 ? 0L : this.sum.sum() / count);
+    long max = this.max.get();
+    int bucket = 0;
+    long seen = copy[0];
+    for (int p = 0; p < PERCENTILES.length; p++) {
+      long rank = (long) Math.ceil(PERCENTILES[p] / 100.0 * count);
+      while (seen < rank && bucket < BUCKET_COUNT - 1) {
+        seen += copy[++bucket];
+      }
+      snapshot.put(PERCENTILE_NAMES[p], count == 0 ? 0L : Math.min(highestValueOf(bucket), max));
+    }
+    snapshot.put("max", max);
+    return snapshot;
+  }
+}
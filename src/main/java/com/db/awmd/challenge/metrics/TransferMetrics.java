@@ -0,0 +1,159 @@
+package com.db.awmd.challenge.metrics;
+
+import com.db.awmd.challenge.domain.TransferStatus;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * TransferMetrics collects counters and latency histograms of the transfer and account hot paths. Recording is
+ * allocation free and lock free, when disabled every record method returns immediately and the clock is not read.
+ */
+@Component
+public class TransferMetrics {
+
+  @Getter
+  private final boolean enabled;
+
+  private final LatencyHistogram transferLatency = new LatencyHistogram();
+
+  private final LongAdder[] transferOutcomes = new LongAdder[TransferStatus.values().length];
+
+  private final LatencyHistogram repositoryTransferLatency = new LatencyHistogram();
+
+  private final LongAdder repositoryTransfersRejected = new LongAdder();
+
+  private final LatencyHistogram createAccountLatency = new LatencyHistogram();
+
+  private final LongAdder duplicateAccounts = new LongAdder();
+
+  private final LatencyHistogram lockWait = new LatencyHistogram();
+
+  private final LongAdder lockAcquisitions = new LongAdder();
+
+  private final LongAdder lockRetries = new LongAdder();
+
+  @Autowired
+  public TransferMetrics(@Value("${accounts.metrics.enabled:true}") boolean enabled) {
+    this.enabled = enabled;
+    for (int i = 0; i < this.transferOutcomes.length; i++) {
+      this.transferOutcomes[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * disabled returns metrics that record nothing, for components built outside the application context.
+   * @return
+   */
+  public static TransferMetrics disabled() {
+    return new TransferMetrics(false);
+  }
+
+  /**
+   * startTimer reads the clock for a measurement finished by one of the record methods.
+   * @return start time in nanoseconds, 0 when disabled.
+   */
+  public long startTimer() {
+    return this.enabled ? System.nanoTime() : 0L;
+  }
+
+  /**
+   * transferCompleted records a transfer through the service, successful or rejected.
+   * @param startTime value of startTimer when the transfer began.
+   * @param status
+   */
+  public void transferCompleted(long startTime, TransferStatus status) {
+    if (this.enabled) {
+      this.transferLatency.record(System.nanoTime() - startTime);
+      this.transferOutcomes[status.ordinal()].increment();
+    }
+  }
+
+  /**
+   * repositoryTransferCompleted records a transfer applied by the repository.
+   * @param startTime value of startTimer when the transfer began.
+   * @param transferred false if an account was missing or the balance was not sufficient.
+   */
+  public void repositoryTransferCompleted(long startTime, boolean transferred) {
+    if (this.enabled) {
+      this.repositoryTransferLatency.record(System.nanoTime() - startTime);
+      if (!transferred) {
+        this.repositoryTransfersRejected.increment();
+      }
+    }
+  }
+
+  /**
+   * accountCreated records an account creation.
+   * @param startTime value of startTimer when the creation began.
+   * @param duplicate true if the id already existed.
+   */
+  public void accountCreated(long startTime, boolean duplicate) {
+    if (this.enabled) {
+      this.createAccountLatency.record(System.nanoTime() - startTime);
+      if (duplicate) {
+        this.duplicateAccounts.increment();
+      }
+    }
+  }
+
+  /**
+   * lockAcquired records a lock taken without waiting.
+   */
+  public void lockAcquired() {
+    if (this.enabled) {
+      this.lockAcquisitions.increment();
+    }
+  }
+
+  /**
+   * lockAcquiredAfterWait records a lock that was held by another thread on the first attempt.
+   * @param waitNanos time spent waiting for the lock.
+   */
+  public void lockAcquiredAfterWait(long waitNanos) {
+    if (this.enabled) {
+      this.lockAcquisitions.increment();
+      this.lockRetries.increment();
+      this.lockWait.record(waitNanos);
+    }
+  }
+
+  /**
+   * snapshot returns the current figures, latencies are in nanoseconds.
+   * @return
+   */
+  public Map<String, Object> snapshot() {
+    Map<String, Object> outcomes = new LinkedHashMap<>();
+    for (TransferStatus status : TransferStatus.values()) {
+      outcomes.put(status.name(), this.transferOutcomes[status.ordinal()].sum());
+    }
+    Map<String, Object> transfers = new LinkedHashMap<>();
+    transfers.put("outcomes", outcomes);
+    transfers.put("latencyNanos", this.transferLatency.snapshot());
+
+    Map<String, Object> repositoryTransfers = new LinkedHashMap<>();
+    repositoryTransfers.put("rejected", this.repositoryTransfersRejected.sum());
+    repositoryTransfers.put("latencyNanos", this.repositoryTransferLatency.snapshot());
+
+    Map<String, Object> accountCreations = new LinkedHashMap<>();
+    accountCreations.put("duplicates", this.duplicateAccounts.sum());
+    accountCreations.put("latencyNanos", this.createAccountLatency.snapshot());
+
+    Map<String, Object> locks = new LinkedHashMap<>();
+    locks.put("acquisitions", this.lockAcquisitions.sum());
+    locks.put("retries", this.lockRetries.sum());
+    locks.put("waitNanos", this.lockWait.snapshot());
+
+    Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("enabled", this.enabled);
+    snapshot.put("transfers", transfers);
+    snapshot.put("repositoryTransfers", repositoryTransfers);
+    snapshot.put("accountCreations", accountCreations);
+    snapshot.put("locks", locks);
+    return snapshot;
+  }
+}
@@ -0,0 +1,239 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * AccountIndex maps account ids to accounts without a node object per entry. Every account gets a dense int slot in
+ * an array of accounts, the ids are found through an open addressing table of longs holding the id hash in the high
+ * and the slot in the low word. An entry costs 8 bytes in the table and a reference in the slot array, instead of the
+ * 32 byte node and table reference of a ConcurrentHashMap.
+ *
+ * <p>Lookups take no lock, a slot is filled before its entry is published and a table is only replaced once it is
+ * complete. Inserts, removals and clear are serialised on the index. A removed entry is marked and its slot left
+ * empty, removals only undo failed creations so they are rare.
+ */
+public final class AccountIndex implements Iterable<Account> {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private static final long EMPTY = 0L;
+
+  /**
+   * Low word of a removed entry, probing goes on past it.
+   */
+  private static final int REMOVED = -1;
+
+  private volatile Table table = new Table(INITIAL_CAPACITY);
+
+  private volatile AtomicReferenceArray<Account> slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+  /**
+   * Slots handed out so far, guarded by this.
+   */
+  private int slotCount;
+
+  /**
+   * Table entries in use including removed ones, guarded by this.
+   */
+  private int occupied;
+
+  private int size;
+
+  public Account get(String accountId) {
+    int hash = hash(accountId);
+    Table current = this.table;
+    for (int i = hash & current.mask; ; i = (i + 1) & current.mask) {
+      long entry = current.entries.get(i);
+      if (entry == EMPTY) {
+        return null;
+      }
+      Account account = accountOf(entry, hash);
+      if (account != null && account.getAccountId().equals(accountId)) {
+        return account;
+      }
+    }
+  }
+
+  /**
+   * putIfAbsent adds the account unless its id is present.
+   * @param account
+   * @return the account present before, null if the account was added.
+   */
+  public synchronized Account putIfAbsent(Account account) {
+    String accountId = account.getAccountId();
+    int hash = hash(accountId);
+    Table current = this.table;
+    int free = -1;
+    int i = hash & current.mask;
+    for (; ; i = (i + 1) & current.mask) {
+      long entry = current.entries.get(i);
+      if (entry == EMPTY) {
+        break;
+      }
+      if ((int) entry == REMOVED) {
+        if (free < 0) {
+          free = i;
+        }
+        continue;
+      }
+      Account present = accountOf(entry, hash);
+      if (present != null && present.getAccountId().equals(accountId)) {
+        return present;
+      }
+    }
+    int slot = this.slotCount++;
+    AtomicReferenceArray<Account> currentSlots = this.slots;
+    if (slot == currentSlots.length()) {
+      currentSlots = copyOf(currentSlots, slot * 2);
+      this.slots = currentSlots;
+    }
+    currentSlots.set(slot, account);
+    if (free < 0) {
+      free = i;
+      this.occupied++;
+    }
+    // the slot is filled first, so a reader finding the entry finds the account
+    current.entries.set(free, entryOf(hash, slot));
+    this.size++;
+    if (this.occupied * 4L > current.entries.length() * 3L) {
+      rehash(current);
+    }
+    return null;
+  }
+
+  /**
+   * remove drops the account with the given id, its slot is not reused.
+   * @return the removed account, null if the id was not present.
+   */
+  public synchronized Account remove(String accountId) {
+    int hash = hash(accountId);
+    Table current = this.table;
+    for (int i = hash & current.mask; ; i = (i + 1) & current.mask) {
+      long entry = current.entries.get(i);
+      if (entry == EMPTY) {
+        return null;
+      }
+      Account account = accountOf(entry, hash);
+      if (account != null && account.getAccountId().equals(accountId)) {
+        current.entries.set(i, ((long) hash << 32) | (REMOVED & 0xFFFFFFFFL));
+        this.slots.set((int) entry - 1, null);
+        this.size--;
+        return account;
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    this.table = new Table(INITIAL_CAPACITY);
+    this.slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    this.slotCount = 0;
+    this.occupied = 0;
+    this.size = 0;
+  }
+
+  public synchronized int size() {
+    return this.size;
+  }
+
+  /**
+   * iterator walks the slots in creation order, accounts added during the walk may or may not be seen.
+   */
+  @Override
+  public Iterator<Account> iterator() {
+    AtomicReferenceArray<Account> current = this.slots;
+    return new Iterator<Account>() {
+
+      private int slot = advance(0);
+
+      private int advance(int from) {
+        int next = from;
+        while (next < current.length() && current.get(next) == null) {
+          next++;
+        }
+        return next;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return this.slot < current.length();
+      }
+
+      @Override
+      public Account next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Account account = current.get(this.slot);
+        this.slot = advance(this.slot + 1);
+        return account;
+      }
+    };
+  }
+
+  private Account accountOf(long entry, int hash) {
+    int slot = (int) entry - 1;
+    if ((int) (entry >>> 32) != hash || slot < 0) {
+      return null;
+    }
+    // a reader racing with clear may hold an entry of the old table
+    AtomicReferenceArray<Account> current = this.slots;
+    return slot < current.length() ? current.get(slot) : null;
+  }
+
+  /**
+   * rehash moves the live entries to a new table, doubled unless most entries were removed ones.
+   */
+  private void rehash(Table current) {
+    int capacity = current.entries.length();
+    if (this.size * 2L > capacity) {
+      capacity *= 2;
+    }
+    Table next = new Table(capacity);
+    for (int i = 0; i < current.entries.length(); i++) {
+      long entry = current.entries.get(i);
+      if (entry != EMPTY && (int) entry != REMOVED) {
+        int j = (int) (entry >>> 32) & next.mask;
+        while (next.entries.get(j) != EMPTY) {
+          j = (j + 1) & next.mask;
+        }
+        next.entries.set(j, entry);
+      }
+    }
+    this.occupied = this.size;
+    this.table = next;
+  }
+
+  private static AtomicReferenceArray<Account> copyOf(AtomicReferenceArray<Account> source, int length) {
+    AtomicReferenceArray<Account> copy = new AtomicReferenceArray<>(length);
+    for (int i = 0; i < source.length(); i++) {
+      copy.set(i, source.get(i));
+    }
+    return copy;
+  }
+
+  private static long entryOf(int hash, int slot) {
+    // slots are stored plus one so that an entry is never EMPTY
+    return ((long) hash << 32) | ((slot + 1) & 0xFFFFFFFFL);
+  }
+
+  private static int hash(String accountId) {
+    int h = accountId.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static final class Table {
+
+    private final AtomicLongArray entries;
+
+    private final int mask;
+
+    private Table(int capacity) {
+      this.entries = new AtomicLongArray(capacity);
+      this.mask = capacity - 1;
+    }
+  }
+}
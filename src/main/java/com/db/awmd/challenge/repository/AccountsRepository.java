@@ -1,15 +1,76 @@
 package com.db.awmd.challenge.repository;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
 
-import java.math.BigDecimal;
+import java.util.List;
+import java.util.function.BiConsumer;
 
 public interface AccountsRepository {
 
   void createAccount(Account account) throws DuplicateAccountIdException;
 
   Account getAccount(String accountId);
-  Boolean moneyTransfer(String fromAccountId, String toAccountId, BigDecimal amount) throws Exception;
+  Boolean moneyTransfer(String fromAccountId, String toAccountId, long amountUnits, int amountScale) throws Exception;
+
+  /**
+   * transfer checks that both accounts exist and differ and that the balance is sufficient, and applies the transfer,
+   * looking each account up once.
+   * @param fromAccountId
+   * @param toAccountId
+   * @param amountUnits amount in minor units of amountScale
+   * @param amountScale
+   * @param onTransferred called with both accounts after the transfer was applied, may be null.
+   * @return OK, ACCOUNT_NOT_FOUND, SAME_ACCOUNT or INSUFFICIENT_FUNDS.
+   */
+  TransferStatus transfer(String fromAccountId, String toAccountId, long amountUnits, int amountScale,
+    BiConsumer<Account, Account> onTransferred);
+
+  List<TransferStatus> moneyTransferAll(List<MoneyTransfer> transfers);
+
+  /**
+   * moneyTransferLegs debits the sum of the legs from one account and credits each leg to its account, all of them or
+   * none. The accounts are locked in one pass whatever the number of legs.
+   * @param fromAccountId
+   * @param toAccountIds credited account of each leg.
+   * @param amountUnits amount of each leg in minor units of its scale.
+   * @param amountScales
+   * @return status of each leg, in leg order. A leg that failed gets its reason, the others ABORTED. If the debited
+   * account is missing or its balance does not cover the sum, every leg gets ACCOUNT_NOT_FOUND or INSUFFICIENT_FUNDS.
+   */
+  List<TransferStatus> moneyTransferLegs(String fromAccountId, String[] toAccountIds, long[] amountUnits,
+    int[] amountScales);
+
+  /**
+   * hold reserves an amount of the available balance of an account, transfers can no longer spend it. The amount
+   * stays part of the balance until the hold is captured.
+   * @param accountId
+   * @param amountUnits amount in minor units of amountScale
+   * @param amountScale
+   * @return OK, ACCOUNT_NOT_FOUND, INSUFFICIENT_FUNDS or INVALID_REQUEST if the holds would overflow.
+   */
+  TransferStatus hold(String accountId, long amountUnits, int amountScale);
+
+  /**
+   * releaseHold makes a held amount available again. An account that no longer exists is ignored.
+   */
+  void releaseHold(String accountId, long heldUnits, int heldScale);
+
+  /**
+   * captureHold releases a hold and transfers an amount up to the held one to another account in the same step, so
+   * the held funds never become available in between. If the transfer fails the hold is kept.
+   * @param fromAccountId
+   * @param heldUnits the held amount in minor units of heldScale
+   * @param heldScale
+   * @param toAccountId
+   * @param amountUnits the transferred amount in minor units of amountScale
+   * @param amountScale
+   * @return OK, ACCOUNT_NOT_FOUND, SAME_ACCOUNT, INSUFFICIENT_FUNDS or INVALID_REQUEST if the credit would overflow.
+   */
+  TransferStatus captureHold(String fromAccountId, long heldUnits, int heldScale, String toAccountId,
+    long amountUnits, int amountScale);
+
   void clearAccounts();
 }
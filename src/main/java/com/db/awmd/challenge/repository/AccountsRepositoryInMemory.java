@@ -1,73 +1,704 @@
 package com.db.awmd.challenge.repository;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MinorUnits;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
-import java.math.BigDecimal;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Optional;
+import java.util.function.BiConsumer;
 
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public class AccountsRepositoryInMemory implements AccountsRepository {
 
-  private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+  private static final int SNAPSHOT_CHUNK_SIZE = 256;
+
+  private final AccountIndex accounts = new AccountIndex();
+
+  private final TransferEngine transferEngine;
+
+  /**
+   * Journal of all changes, null when durability is disabled.
+   */
+  private final TransferJournal journal;
+
+  private final TransferEngine.TransferListener journalListener;
+
+  /**
+   * Store of periodic snapshots, null when snapshots are disabled.
+   */
+  private final SnapshotStore snapshotStore;
+
+  private final TransferMetrics metrics;
+
+  /**
+   * Limits on the transfers per account and time window, null when velocity checks are disabled.
+   */
+  private final VelocityLimiter velocityLimiter;
+
+  /**
+   * Journal position of the last transfer appended by the current thread.
+   */
+  private final ThreadLocal<long[]> journalPosition = ThreadLocal.withInitial(() -> new long[1]);
+
+  public AccountsRepositoryInMemory(TransferEngine transferEngine) {
+    this(transferEngine, Optional.empty(), Optional.empty(), TransferMetrics.disabled());
+  }
+
+  public AccountsRepositoryInMemory(TransferEngine transferEngine, Optional<TransferJournal> journal,
+    Optional<SnapshotStore> snapshotStore, TransferMetrics metrics) {
+    this(transferEngine, journal, snapshotStore, metrics, Optional.empty());
+  }
+
+  @Autowired
+  public AccountsRepositoryInMemory(TransferEngine transferEngine, Optional<TransferJournal> journal,
+    Optional<SnapshotStore> snapshotStore, TransferMetrics metrics, Optional<VelocityLimiter> velocityLimiter) {
+    this.transferEngine = transferEngine;
+    this.metrics = metrics;
+    this.velocityLimiter = velocityLimiter.orElse(null);
+    this.journal = journal.orElse(null);
+    this.snapshotStore = snapshotStore.orElse(null);
+    this.journalListener = this.journal == null ? null : (fromAccount, toAccount, amountUnits, amountScale) -> {
+      long position = this.journal.appendTransfer(fromAccount.getAccountId(), toAccount.getAccountId(),
+        amountUnits, amountScale);
+      fromAccount.setJournalPosition(position);
+      toAccount.setJournalPosition(position);
+      journalPosition.get()[0] = position;
+    };
+  }
+
+  /**
+   * recover rebuilds the accounts from the latest snapshot and the journal written after it, if they are enabled.
+   */
+  @PostConstruct
+  public void recover() {
+    if (snapshotStore != null && journal == null) {
+      throw new IllegalStateException("Snapshots need the journal, set accounts.journal.enabled");
+    }
+    if (journal == null) {
+      return;
+    }
+    long startPosition = 0L;
+    if (snapshotStore != null) {
+      startPosition = snapshotStore.loadLatest((accountId, balanceUnits, balanceScale, position) -> {
+        Account account = new Account(accountId);
+        account.restoreBalance(balanceUnits, balanceScale);
+        account.setJournalPosition(position);
+        accounts.putIfAbsent(account);
+      });
+    }
+    journal.recover(startPosition, new JournalReplay());
+  }
+
+  /**
+   * snapshot writes all accounts to the snapshot store while transfers keep running, then drops the journal
+   * segments the snapshot made obsolete. Accounts are read in small chunks, each chunk is locked only while its
+   * balances are copied.
+   *
+   * <p>The snapshot starts at the journal position read before the first account. A record before that position was
+   * appended while its accounts were locked, so its changes are visible once the snapshot locks those accounts.
+   * Records after it may or may not be contained, recovery tells them apart by the journal position of each entry.
+   * @return the journal position recovery will replay from.
+   */
+  public synchronized long snapshot() {
+    if (snapshotStore == null) {
+      throw new IllegalStateException("Snapshots are not enabled");
+    }
+    long startPosition = journal.getWrittenPosition();
+    try (SnapshotStore.Writer writer = snapshotStore.open(startPosition)) {
+      List<Account> chunk = new ArrayList<>(SNAPSHOT_CHUNK_SIZE);
+      long[] balanceUnits = new long[SNAPSHOT_CHUNK_SIZE];
+      int[] balanceScales = new int[SNAPSHOT_CHUNK_SIZE];
+      long[] positions = new long[SNAPSHOT_CHUNK_SIZE];
+      for (Account account : accounts) {
+        chunk.add(account);
+        if (chunk.size() == SNAPSHOT_CHUNK_SIZE) {
+          writeChunk(writer, chunk, balanceUnits, balanceScales, positions);
+        }
+      }
+      writeChunk(writer, chunk, balanceUnits, balanceScales, positions);
+      writer.commit();
+    }
+    journal.deleteSegmentsBefore(startPosition);
+    return startPosition;
+  }
+
+  private void writeChunk(SnapshotStore.Writer writer, List<Account> chunk, long[] balanceUnits, int[] balanceScales,
+    long[] positions) {
+    transferEngine.executeLocked(chunk, () -> {
+      for (int i = 0; i < chunk.size(); i++) {
+        Account account = chunk.get(i);
+        balanceUnits[i] = account.getBalanceUnits();
+        balanceScales[i] = account.getBalanceScale();
+        positions[i] = account.getJournalPosition();
+      }
+      return null;
+    });
+    for (int i = 0; i < chunk.size(); i++) {
+      writer.add(chunk.get(i).getAccountId(), balanceUnits[i], balanceScales[i], positions[i]);
+    }
+    chunk.clear();
+  }
 
   /**
    * createAccount method adds a new account to the repository if the account id is not present.
+   * With the journal enabled the account is logged while its lock is held, so that no transfer on it can be logged
+   * before its creation, and the call returns once the record is durable.
    * @param account
    * @throws DuplicateAccountIdException
    */
   @Override
   public void createAccount(Account account) throws DuplicateAccountIdException {
-    Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
-    if (previousAccount != null) {
-      throw new DuplicateAccountIdException(
-        "Account id " + account.getAccountId() + " already exists!");
+    long startTime = metrics.startTimer();
+    boolean duplicate = false;
+    try {
+      insertAccount(account);
+    } catch (DuplicateAccountIdException ex) {
+      duplicate = true;
+      throw ex;
+    } finally {
+      metrics.accountCreated(startTime, duplicate);
+    }
+  }
+
+  private void insertAccount(Account account) {
+    if (journal == null) {
+      Account previousAccount = accounts.putIfAbsent(account);
+      if (previousAccount != null) {
+        throw duplicateAccount(account);
+      }
+      return;
+    }
+    long position = transferEngine.executeLocked(Collections.singletonList(account), () -> {
+      // an account id always maps to the same lock, so creations of one id are serialised here
+      if (accounts.putIfAbsent(account) != null) {
+        return -1L;
+      }
+      // the account is put first so a snapshot starting after the record was appended finds it in the map
+      try {
+        long created = journal.appendCreate(account.getAccountId(), account.getBalanceUnits(),
+          account.getBalanceScale());
+        account.setJournalPosition(created);
+        return created;
+      } catch (RuntimeException ex) {
+        accounts.remove(account.getAccountId());
+        throw ex;
+      }
+    });
+    if (position < 0) {
+      throw duplicateAccount(account);
     }
+    journal.awaitDurable(position);
+  }
+
+  private static DuplicateAccountIdException duplicateAccount(Account account) {
+    return new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
   }
 
   /**
    * moneyTransfer method is used to transfer money from an account to other in thread safe manner.
-   * Both the accounts are blocked in a sequential manner to avoid deadlock even if mutual transfer initiated.
+   * Both the accounts are looked up without holding any map lock, the debit and credit is then applied by the
+   * transfer engine which blocks the accounts in a fixed order to avoid deadlock even if mutual transfer initiated.
+   * With the journal enabled the call returns once the transfer record is durable.
    *
    * @param fromAccountId
    * @param toAccountId
-   * @param amount
+   * @param amountUnits amount in minor units of amountScale
+   * @param amountScale
    * @return
    */
   @Override
-  public Boolean moneyTransfer(String fromAccountId, String toAccountId, BigDecimal amount) {
-    AtomicBoolean isTransactionSuccess= new AtomicBoolean();
-    // get accounts based on ascending accountid
-    // transfer operation always blocks account in the same order to prevent deadlock
-    String firstAccountId = fromAccountId.compareTo(toAccountId)<0?fromAccountId:toAccountId;
-    String secondAccountId = firstAccountId.equals(fromAccountId) ? toAccountId:fromAccountId;
-
-    // computeIfPresent method invocation is performed atomically, from ConcurrentHashMap implementation
-    accounts.computeIfPresent(firstAccountId, (k1, account1) -> {
-          accounts.computeIfPresent(secondAccountId, (k2, account2) -> {
-            if(firstAccountId.equals(fromAccountId))// should debit from first account and credit to second account
-            {
-              if (account1.getBalance().compareTo(amount) >= 0) {
-                account1.setBalance(account1.getBalance().subtract(amount));
-                account2.setBalance(account2.getBalance().add(amount));
-                isTransactionSuccess.set(true);
-              }
-            }
-            else{ // Debit from second account and credit to first.
-              if (account2.getBalance().compareTo(amount) >= 0) {
-                account2.setBalance(account2.getBalance().subtract(amount));
-                account1.setBalance(account1.getBalance().add(amount));
-                isTransactionSuccess.set(true);
-              }
-            }
-            return account2;
-          });
-      return account1;
+  public Boolean moneyTransfer(String fromAccountId, String toAccountId, long amountUnits, int amountScale) {
+    long startTime = metrics.startTimer();
+    Account fromAccount = accounts.get(fromAccountId);
+    Account toAccount = accounts.get(toAccountId);
+    boolean transferred = fromAccount != null && toAccount != null
+      && apply(fromAccount, toAccount, amountUnits, amountScale);
+    metrics.repositoryTransferCompleted(startTime, transferred);
+    return transferred;
+  }
+
+  /**
+   * transfer is moneyTransfer with the checks of the service done on the accounts it looked up, so there is no gap
+   * between checking an account and using it. The velocity rules are checked on the debited account before the
+   * engine is involved, a transfer the engine then rejects is taken back from the counters.
+   */
+  @Override
+  public TransferStatus transfer(String fromAccountId, String toAccountId, long amountUnits, int amountScale,
+    BiConsumer<Account, Account> onTransferred) {
+    long startTime = metrics.startTimer();
+    Account fromAccount = accounts.get(fromAccountId);
+    Account toAccount = fromAccount == null ? null : accounts.get(toAccountId);
+    long now = velocityLimiter == null ? 0L : System.currentTimeMillis();
+    TransferStatus status;
+    if (toAccount == null) {
+      status = TransferStatus.ACCOUNT_NOT_FOUND;
+    } else if (fromAccount == toAccount) {
+      status = TransferStatus.SAME_ACCOUNT;
+    } else if (velocityLimiter != null && !velocityLimiter.tryRecord(fromAccount, amountUnits, amountScale, now)) {
+      status = TransferStatus.VELOCITY_LIMIT_EXCEEDED;
+    } else if (applyCounted(fromAccount, toAccount, amountUnits, amountScale, now)) {
+      status = TransferStatus.OK;
+    } else {
+      status = TransferStatus.INSUFFICIENT_FUNDS;
+    }
+    metrics.repositoryTransferCompleted(startTime, status == TransferStatus.OK);
+    if (status == TransferStatus.OK && onTransferred != null) {
+      onTransferred.accept(fromAccount, toAccount);
+    }
+    return status;
+  }
+
+  /**
+   * applyCounted applies a transfer already counted by the velocity rules and takes it back if it was not applied.
+   */
+  private boolean applyCounted(Account fromAccount, Account toAccount, long amountUnits, int amountScale, long now) {
+    boolean transferred = false;
+    try {
+      transferred = apply(fromAccount, toAccount, amountUnits, amountScale);
+      return transferred;
+    } finally {
+      if (!transferred && velocityLimiter != null) {
+        velocityLimiter.unrecord(fromAccount, amountUnits, amountScale, now);
+      }
+    }
+  }
+
+  private boolean apply(Account fromAccount, Account toAccount, long amountUnits, int amountScale) {
+    boolean transferred = transferEngine.transfer(fromAccount, toAccount, amountUnits, amountScale, journalListener);
+    if (transferred) {
+      book(fromAccount, toAccount, amountUnits, amountScale, System.currentTimeMillis());
+      if (journal != null) {
+        journal.awaitDurable(journalPosition.get()[0]);
+      }
+    }
+    return transferred;
+  }
+
+  /**
+   * moneyTransferAll applies all the transfers or none of them. Every involved account is blocked once, in the same
+   * order as for single transfers, and the transfers are applied in list order so a transfer can spend money
+   * credited by an earlier one. Each transfer is counted by the velocity rules in the same pass. If any transfer fails
+   * the balances and the counters are restored and the others are reported ABORTED.
+   *
+   * @param transfers
+   * @return status of each transfer, in list order.
+   */
+  @Override
+  public List<TransferStatus> moneyTransferAll(List<MoneyTransfer> transfers) {
+    int size = transfers.size();
+    TransferStatus[] statuses = new TransferStatus[size];
+    Account[] fromAccounts = new Account[size];
+    Account[] toAccounts = new Account[size];
+    Map<String, Account> involved = new LinkedHashMap<>();
+    boolean valid = true;
+    for (int i = 0; i < size; i++) {
+      MoneyTransfer transfer = transfers.get(i);
+      fromAccounts[i] = accounts.get(transfer.getAccountFrom());
+      toAccounts[i] = accounts.get(transfer.getAccountTo());
+      if (fromAccounts[i] == null || toAccounts[i] == null) {
+        statuses[i] = TransferStatus.ACCOUNT_NOT_FOUND;
+        valid = false;
+      } else if (fromAccounts[i] == toAccounts[i]) {
+        statuses[i] = TransferStatus.SAME_ACCOUNT;
+        valid = false;
+      } else {
+        involved.put(fromAccounts[i].getAccountId(), fromAccounts[i]);
+        involved.put(toAccounts[i].getAccountId(), toAccounts[i]);
+      }
+    }
+    if (valid) {
+      long now = velocityLimiter == null ? 0L : System.currentTimeMillis();
+      long position = transferEngine.executeLocked(involved.values(),
+        () -> applyAll(transfers, fromAccounts, toAccounts, new ArrayList<>(involved.values()), statuses, now));
+      if (position >= 0) {
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+          MoneyTransfer transfer = transfers.get(i);
+          book(fromAccounts[i], toAccounts[i], transfer.getAmountUnits(), transfer.getAmountScale(), timestamp);
+        }
+      }
+      if (position > 0) {
+        journal.awaitDurable(position);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      if (statuses[i] == null) {
+        statuses[i] = TransferStatus.ABORTED;
+      }
+    }
+    return Arrays.asList(statuses);
+  }
+
+  /**
+   * applyAll applies the transfers while all involved accounts are locked.
+   * @return -1 if the transfers were rolled back, otherwise the journal position of the batch or 0 without journal.
+   */
+  private long applyAll(List<MoneyTransfer> transfers, Account[] fromAccounts, Account[] toAccounts,
+    List<Account> involved, TransferStatus[] statuses, long now) {
+    long[] originalUnits = new long[involved.size()];
+    int[] originalScales = new int[involved.size()];
+    for (int i = 0; i < originalUnits.length; i++) {
+      // pending credits of hot accounts are folded first, so a rollback restores them as part of the balance
+      involved.get(i).foldCredits();
+      originalUnits[i] = involved.get(i).getBalanceUnits();
+      originalScales[i] = involved.get(i).getBalanceScale();
+    }
+    for (int i = 0; i < fromAccounts.length; i++) {
+      MoneyTransfer transfer = transfers.get(i);
+      TransferStatus status = TransferStatus.OK;
+      int recorded = i + 1;
+      try {
+        if (velocityLimiter != null && !velocityLimiter.tryRecord(fromAccounts[i], transfer.getAmountUnits(),
+          transfer.getAmountScale(), now)) {
+          status = TransferStatus.VELOCITY_LIMIT_EXCEEDED;
+          recorded = i;
+        } else if (fromAccounts[i].hasBalance(transfer.getAmountUnits(), transfer.getAmountScale())) {
+          fromAccounts[i].debit(transfer.getAmountUnits(), transfer.getAmountScale());
+          toAccounts[i].credit(transfer.getAmountUnits(), transfer.getAmountScale());
+        } else {
+          status = TransferStatus.INSUFFICIENT_FUNDS;
+        }
+      } catch (ArithmeticException ex) {
+        // the balance would overflow the minor units
+        status = TransferStatus.INVALID_REQUEST;
+      }
+      if (status != TransferStatus.OK) {
+        unrecordAll(fromAccounts, transfers, recorded, now);
+        restoreAll(involved, originalUnits, originalScales);
+        Arrays.fill(statuses, 0, i, null);
+        statuses[i] = status;
+        return -1L;
+      }
+      statuses[i] = TransferStatus.OK;
+    }
+    if (journal == null) {
+      return 0L;
+    }
+    // the batch is logged as one record after it was applied, so recovery applies all of it or nothing
+    int size = transfers.size();
+    String[] fromIds = new String[size];
+    String[] toIds = new String[size];
+    long[] amountUnits = new long[size];
+    int[] amountScales = new int[size];
+    for (int i = 0; i < size; i++) {
+      fromIds[i] = fromAccounts[i].getAccountId();
+      toIds[i] = toAccounts[i].getAccountId();
+      amountUnits[i] = transfers.get(i).getAmountUnits();
+      amountScales[i] = transfers.get(i).getAmountScale();
+    }
+    long position;
+    try {
+      position = journal.appendBatch(fromIds, toIds, amountUnits, amountScales);
+    } catch (RuntimeException ex) {
+      unrecordAll(fromAccounts, transfers, size, now);
+      restoreAll(involved, originalUnits, originalScales);
+      throw ex;
+    }
+    for (Account account : involved) {
+      account.setJournalPosition(position);
+    }
+    return position;
+  }
+
+  /**
+   * unrecordAll takes the first count transfers of a rolled back batch back from the velocity counters.
+   */
+  private void unrecordAll(Account[] fromAccounts, List<MoneyTransfer> transfers, int count, long now) {
+    if (velocityLimiter == null) {
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      velocityLimiter.unrecord(fromAccounts[i], transfers.get(i).getAmountUnits(), transfers.get(i).getAmountScale(),
+        now);
+    }
+  }
+
+  /**
+   * moneyTransferLegs checks the sum of the legs against the balance once and applies every leg while all accounts
+   * are locked, in the same single ordered pass as moneyTransferAll. The legs are journaled as one batch record with
+   * the debited account repeated, recovery applies them leg by leg to the same balances. The velocity rules count
+   * every leg as a transfer of the debited account.
+   */
+  @Override
+  public List<TransferStatus> moneyTransferLegs(String fromAccountId, String[] toAccountIds, long[] amountUnits,
+    int[] amountScales) {
+    int size = toAccountIds.length;
+    TransferStatus[] statuses = new TransferStatus[size];
+    Account fromAccount = accounts.get(fromAccountId);
+    if (fromAccount == null) {
+      Arrays.fill(statuses, TransferStatus.ACCOUNT_NOT_FOUND);
+      return Arrays.asList(statuses);
+    }
+    Account[] toAccounts = new Account[size];
+    Map<String, Account> involved = new LinkedHashMap<>();
+    involved.put(fromAccountId, fromAccount);
+    boolean valid = true;
+    int totalScale = 0;
+    for (int i = 0; i < size; i++) {
+      toAccounts[i] = accounts.get(toAccountIds[i]);
+      if (toAccounts[i] == null) {
+        statuses[i] = TransferStatus.ACCOUNT_NOT_FOUND;
+        valid = false;
+      } else if (toAccounts[i] == fromAccount) {
+        statuses[i] = TransferStatus.SAME_ACCOUNT;
+        valid = false;
+      } else {
+        involved.put(toAccounts[i].getAccountId(), toAccounts[i]);
+        totalScale = Math.max(totalScale, amountScales[i]);
+      }
+    }
+    long total = 0L;
+    for (int i = 0; valid && i < size; i++) {
+      try {
+        total = Math.addExact(total, MinorUnits.rescale(amountUnits[i], amountScales[i], totalScale));
+      } catch (ArithmeticException ex) {
+        // the sum does not fit into the minor units
+        statuses[i] = TransferStatus.INVALID_REQUEST;
+        valid = false;
+      }
+    }
+    if (valid) {
+      long totalUnits = total;
+      int scale = totalScale;
+      long now = velocityLimiter == null ? 0L : System.currentTimeMillis();
+      long position = transferEngine.executeLocked(involved.values(), () -> applyLegs(fromAccount, toAccounts,
+        amountUnits, amountScales, totalUnits, scale, new ArrayList<>(involved.values()), statuses, now));
+      if (position >= 0) {
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+          book(fromAccount, toAccounts[i], amountUnits[i], amountScales[i], timestamp);
+        }
+      }
+      if (position > 0) {
+        journal.awaitDurable(position);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      if (statuses[i] == null) {
+        statuses[i] = TransferStatus.ABORTED;
+      }
+    }
+    return Arrays.asList(statuses);
+  }
+
+  /**
+   * applyLegs debits the sum and credits the legs while all involved accounts are locked.
+   * @return -1 if nothing was applied, otherwise the journal position of the legs or 0 without journal.
+   */
+  private long applyLegs(Account fromAccount, Account[] toAccounts, long[] amountUnits, int[] amountScales,
+    long totalUnits, int totalScale, List<Account> involved, TransferStatus[] statuses, long now) {
+    fromAccount.foldCredits();
+    for (int i = 0; velocityLimiter != null && i < toAccounts.length; i++) {
+      if (!velocityLimiter.tryRecord(fromAccount, amountUnits[i], amountScales[i], now)) {
+        unrecordLegs(fromAccount, amountUnits, amountScales, i, now);
+        Arrays.fill(statuses, TransferStatus.VELOCITY_LIMIT_EXCEEDED);
+        return -1L;
+      }
+    }
+    if (!fromAccount.hasBalance(totalUnits, totalScale)) {
+      unrecordLegs(fromAccount, amountUnits, amountScales, toAccounts.length, now);
+      Arrays.fill(statuses, TransferStatus.INSUFFICIENT_FUNDS);
+      return -1L;
+    }
+    long[] originalUnits = new long[involved.size()];
+    int[] originalScales = new int[involved.size()];
+    for (int i = 0; i < originalUnits.length; i++) {
+      originalUnits[i] = involved.get(i).getBalanceUnits();
+      originalScales[i] = involved.get(i).getBalanceScale();
+    }
+    int leg = -1;
+    try {
+      fromAccount.debit(totalUnits, totalScale);
+      for (leg = 0; leg < toAccounts.length; leg++) {
+        toAccounts[leg].credit(amountUnits[leg], amountScales[leg]);
+      }
+    } catch (ArithmeticException ex) {
+      // a credited balance would overflow the minor units
+      unrecordLegs(fromAccount, amountUnits, amountScales, toAccounts.length, now);
+      restoreAll(involved, originalUnits, originalScales);
+      statuses[Math.max(leg, 0)] = TransferStatus.INVALID_REQUEST;
+      return -1L;
+    }
+    Arrays.fill(statuses, TransferStatus.OK);
+    if (journal == null) {
+      return 0L;
+    }
+    String[] fromIds = new String[toAccounts.length];
+    String[] toIds = new String[toAccounts.length];
+    Arrays.fill(fromIds, fromAccount.getAccountId());
+    for (int i = 0; i < toIds.length; i++) {
+      toIds[i] = toAccounts[i].getAccountId();
+    }
+    long position;
+    try {
+      position = journal.appendBatch(fromIds, toIds, amountUnits, amountScales);
+    } catch (RuntimeException ex) {
+      unrecordLegs(fromAccount, amountUnits, amountScales, toAccounts.length, now);
+      restoreAll(involved, originalUnits, originalScales);
+      throw ex;
+    }
+    for (Account account : involved) {
+      account.setJournalPosition(position);
+    }
+    return position;
+  }
+
+  private void unrecordLegs(Account fromAccount, long[] amountUnits, int[] amountScales, int count, long now) {
+    if (velocityLimiter == null) {
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      velocityLimiter.unrecord(fromAccount, amountUnits[i], amountScales[i], now);
+    }
+  }
+
+  /**
+   * hold reserves the amount while the account is locked, so it is checked against the same balance transfers see.
+   * Holds are not journaled, they are lost on a restart.
+   */
+  @Override
+  public TransferStatus hold(String accountId, long amountUnits, int amountScale) {
+    Account account = accounts.get(accountId);
+    if (account == null) {
+      return TransferStatus.ACCOUNT_NOT_FOUND;
+    }
+    return transferEngine.executeLocked(Collections.singletonList(account), () -> {
+      account.foldCredits();
+      try {
+        return account.hold(amountUnits, amountScale) ? TransferStatus.OK : TransferStatus.INSUFFICIENT_FUNDS;
+      } catch (ArithmeticException ex) {
+        return TransferStatus.INVALID_REQUEST;
+      }
     });
-    return isTransactionSuccess.get();
+  }
+
+  @Override
+  public void releaseHold(String accountId, long heldUnits, int heldScale) {
+    Account account = accounts.get(accountId);
+    if (account == null) {
+      return;
+    }
+    transferEngine.executeLocked(Collections.singletonList(account), () -> {
+      account.releaseHold(heldUnits, heldScale);
+      return null;
+    });
+  }
+
+  /**
+   * captureHold locks both accounts like a transfer, releases the hold and applies the transfer. The transfer is
+   * counted by the velocity rules and journaled like any other, recovery does not need to know it came from a hold.
+   */
+  @Override
+  public TransferStatus captureHold(String fromAccountId, long heldUnits, int heldScale, String toAccountId,
+    long amountUnits, int amountScale) {
+    Account fromAccount = accounts.get(fromAccountId);
+    Account toAccount = fromAccount == null ? null : accounts.get(toAccountId);
+    if (toAccount == null) {
+      return TransferStatus.ACCOUNT_NOT_FOUND;
+    }
+    if (fromAccount == toAccount) {
+      return TransferStatus.SAME_ACCOUNT;
+    }
+    TransferStatus[] status = new TransferStatus[1];
+    long now = velocityLimiter == null ? 0L : System.currentTimeMillis();
+    long position = transferEngine.executeLocked(Arrays.asList(fromAccount, toAccount), () -> applyCapture(
+      fromAccount, heldUnits, heldScale, toAccount, amountUnits, amountScale, status, now));
+    if (position >= 0) {
+      book(fromAccount, toAccount, amountUnits, amountScale, System.currentTimeMillis());
+    }
+    if (position > 0) {
+      journal.awaitDurable(position);
+    }
+    return status[0];
+  }
+
+  /**
+   * applyCapture releases the hold and applies the transfer while both accounts are locked. If the transfer fails
+   * the balances are restored and the amount is held again, which fits as it was held before.
+   * @return -1 if the hold was kept, otherwise the journal position of the transfer or 0 without journal.
+   */
+  private long applyCapture(Account fromAccount, long heldUnits, int heldScale, Account toAccount, long amountUnits,
+    int amountScale, TransferStatus[] status, long now) {
+    if (velocityLimiter != null && !velocityLimiter.tryRecord(fromAccount, amountUnits, amountScale, now)) {
+      status[0] = TransferStatus.VELOCITY_LIMIT_EXCEEDED;
+      return -1L;
+    }
+    fromAccount.foldCredits();
+    List<Account> involved = Arrays.asList(fromAccount, toAccount);
+    long[] originalUnits = {fromAccount.getBalanceUnits(), toAccount.getBalanceUnits()};
+    int[] originalScales = {fromAccount.getBalanceScale(), toAccount.getBalanceScale()};
+    fromAccount.releaseHold(heldUnits, heldScale);
+    status[0] = TransferStatus.OK;
+    try {
+      if (fromAccount.hasBalance(amountUnits, amountScale)) {
+        fromAccount.debit(amountUnits, amountScale);
+        toAccount.credit(amountUnits, amountScale);
+      } else {
+        status[0] = TransferStatus.INSUFFICIENT_FUNDS;
+      }
+    } catch (ArithmeticException ex) {
+      // the balance would overflow the minor units
+      status[0] = TransferStatus.INVALID_REQUEST;
+    }
+    if (status[0] != TransferStatus.OK) {
+      unrecordCapture(fromAccount, amountUnits, amountScale, now);
+      restoreAll(involved, originalUnits, originalScales);
+      fromAccount.hold(heldUnits, heldScale);
+      return -1L;
+    }
+    if (journal == null) {
+      return 0L;
+    }
+    long position;
+    try {
+      position = journal.appendTransfer(fromAccount.getAccountId(), toAccount.getAccountId(), amountUnits,
+        amountScale);
+    } catch (RuntimeException ex) {
+      unrecordCapture(fromAccount, amountUnits, amountScale, now);
+      restoreAll(involved, originalUnits, originalScales);
+      fromAccount.hold(heldUnits, heldScale);
+      throw ex;
+    }
+    fromAccount.setJournalPosition(position);
+    toAccount.setJournalPosition(position);
+    return position;
+  }
+
+  private void unrecordCapture(Account fromAccount, long amountUnits, int amountScale, long now) {
+    if (velocityLimiter != null) {
+      velocityLimiter.unrecord(fromAccount, amountUnits, amountScale, now);
+    }
+  }
+
+  /**
+   * book adds an applied transfer to the statement histories of both accounts. It runs after the accounts were
+   * unlocked, the histories serialise their appends themselves.
+   */
+  private static void book(Account fromAccount, Account toAccount, long amountUnits, int amountScale,
+    long timestamp) {
+    if (fromAccount == toAccount) {
+      return;
+    }
+    fromAccount.getHistory().append(timestamp, -amountUnits, amountScale, toAccount.getAccountId());
+    toAccount.getHistory().append(timestamp, amountUnits, amountScale, fromAccount.getAccountId());
+  }
+
+  private static void restoreAll(List<Account> involved, long[] originalUnits, int[] originalScales) {
+    for (int j = 0; j < originalUnits.length; j++) {
+      involved.get(j).restoreBalance(originalUnits[j], originalScales[j]);
+    }
   }
 
   /**
@@ -83,7 +714,49 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
  
   @Override
   public void clearAccounts() {
+    if (journal != null) {
+      journal.awaitDurable(journal.appendClear());
+    }
     accounts.clear();
   }
 
+  /**
+   * JournalReplay applies the journal records to the accounts map without any checks, they were done before the
+   * records were written. A record is skipped for an account loaded from a snapshot if the snapshot entry already
+   * contains it. The journal positions of the accounts are left at their snapshot values during the replay, as all
+   * transfers of one batch record share a position.
+   */
+  private class JournalReplay implements TransferJournal.Visitor {
+
+    @Override
+    public void accountCreated(long position, String accountId, long balanceUnits, int balanceScale) {
+      if (accounts.get(accountId) != null) {
+        return;
+      }
+      Account account = new Account(accountId);
+      account.restoreBalance(balanceUnits, balanceScale);
+      accounts.putIfAbsent(account);
+    }
+
+    @Override
+    public void transferred(long position, String fromAccountId, String toAccountId, long amountUnits,
+      int amountScale) {
+      Account fromAccount = accounts.get(fromAccountId);
+      Account toAccount = accounts.get(toAccountId);
+      if (fromAccount == null || toAccount == null) {
+        throw new IllegalStateException("Journal transfer at position " + position + " refers to a missing account");
+      }
+      if (position > fromAccount.getJournalPosition()) {
+        fromAccount.debit(amountUnits, amountScale);
+      }
+      if (position > toAccount.getJournalPosition()) {
+        toAccount.credit(amountUnits, amountScale);
+      }
+    }
+
+    @Override
+    public void accountsCleared(long position) {
+      accounts.clear();
+    }
+  }
 }
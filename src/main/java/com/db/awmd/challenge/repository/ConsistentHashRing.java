@@ -0,0 +1,84 @@
+package com.db.awmd.challenge.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ConsistentHashRing maps account ids to shards. Every shard owns a number of virtual points on a 64 bit ring and an
+ * id belongs to the first point at or after its hash. Adding or removing a shard only moves the ids between its
+ * points and their predecessors, about 1/n of all ids.
+ *
+ * <p>The points only depend on the shard names, so every node configured with the same names routes the same way.
+ */
+public class ConsistentHashRing {
+
+  private final long[] points;
+
+  private final int[] shards;
+
+  /**
+   * @param shardNames name of each shard, the shard index is the position in the list.
+   * @param virtualNodes points per shard, more points spread the ids more evenly.
+   */
+  public ConsistentHashRing(List<String> shardNames, int virtualNodes) {
+    if (shardNames.isEmpty() || virtualNodes < 1) {
+      throw new IllegalArgumentException("A ring needs at least one shard and one virtual node per shard");
+    }
+    int size = shardNames.size() * virtualNodes;
+    long[] hashes = new long[size];
+    int[] owners = new int[size];
+    int i = 0;
+    for (int shard = 0; shard < shardNames.size(); shard++) {
+      for (int point = 0; point < virtualNodes; point++) {
+        hashes[i] = hash(shardNames.get(shard) + "#" + point);
+        owners[i] = shard;
+        i++;
+      }
+    }
+    // sort the points, keeping each owner next to its hash
+    Integer[] order = new Integer[size];
+    for (int j = 0; j < size; j++) {
+      order[j] = j;
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+    this.points = new long[size];
+    this.shards = new int[size];
+    for (int j = 0; j < size; j++) {
+      this.points[j] = hashes[order[j]];
+      this.shards[j] = owners[order[j]];
+    }
+  }
+
+  /**
+   * shardOf returns the index of the shard owning the account id.
+   * @param accountId
+   * @return
+   */
+  public int shardOf(String accountId) {
+    int index = Arrays.binarySearch(this.points, hash(accountId));
+    if (index < 0) {
+      index = -index - 1;
+    }
+    // past the last point the ring wraps around to the first
+    return this.shards[index == this.points.length ? 0 : index];
+  }
+
+  /**
+   * hash is 64 bit FNV-1a over the UTF-8 bytes with a final avalanche step, String.hashCode is too narrow and too
+   * regular for ids differing only in their last characters.
+   */
+  static long hash(String value) {
+    long h = 0xcbf29ce484222325L;
+    for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+      h ^= b & 0xff;
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -0,0 +1,114 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import java.util.Arrays;
+import java.util.List;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * HttpShardClient runs shard operations on another node through its internal shard endpoints, see ShardController.
+ * Amounts are sent as minor units and scale so that no rounding happens on the way. Every call carries the node
+ * secret in the SECRET_HEADER header.
+ */
+public class HttpShardClient implements ShardClient {
+
+  public static final String BASE_PATH = "/v1/internal/shard";
+
+  public static final String SECRET_HEADER = "X-Shard-Secret";
+
+  private final String baseUrl;
+
+  private final RestTemplate restTemplate;
+
+  /**
+   * @param nodeUrl base url of the node, e.g. http://localhost:18081
+   * @param timeoutMillis connect and read timeout of every call.
+   * @param secret node secret shared by all nodes.
+   */
+  public HttpShardClient(String nodeUrl, int timeoutMillis, String secret) {
+    this.baseUrl = nodeUrl + BASE_PATH;
+    SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+    requestFactory.setConnectTimeout(timeoutMillis);
+    requestFactory.setReadTimeout(timeoutMillis);
+    this.restTemplate = new RestTemplate(requestFactory);
+    this.restTemplate.getInterceptors().add((request, body, execution) -> {
+      request.getHeaders().set(SECRET_HEADER, secret);
+      return execution.execute(request, body);
+    });
+  }
+
+  @Override
+  public void createAccount(Account account) throws DuplicateAccountIdException {
+    try {
+      this.restTemplate.postForEntity(this.baseUrl + "/accounts", account, Void.class);
+    } catch (HttpClientErrorException ex) {
+      if (ex.getStatusCode() == HttpStatus.BAD_REQUEST) {
+        throw new DuplicateAccountIdException(ex.getResponseBodyAsString());
+      }
+      throw ex;
+    }
+  }
+
+  @Override
+  public Account getAccount(String accountId) {
+    try {
+      return this.restTemplate.getForObject(this.baseUrl + "/accounts/{accountId}", Account.class, accountId);
+    } catch (HttpClientErrorException ex) {
+      if (ex.getStatusCode() == HttpStatus.NOT_FOUND) {
+        return null;
+      }
+      throw ex;
+    }
+  }
+
+  @Override
+  public boolean moneyTransfer(String fromAccountId, String toAccountId, long amountUnits, int amountScale) {
+    return this.restTemplate.postForObject(
+      this.baseUrl + "/transfer?from={from}&to={to}&units={units}&scale={scale}", null, Boolean.class,
+      fromAccountId, toAccountId, amountUnits, amountScale);
+  }
+
+  @Override
+  public List<TransferStatus> moneyTransferAll(List<MoneyTransfer> transfers) {
+    TransferStatus[] statuses = this.restTemplate.postForObject(this.baseUrl + "/transfer/batch", transfers,
+      TransferStatus[].class);
+    return Arrays.asList(statuses);
+  }
+
+  @Override
+  public boolean reserve(String reservationId, String accountId, String creditAccountId, long amountUnits,
+    int amountScale) {
+    return this.restTemplate.postForObject(
+      this.baseUrl + "/reservations/{reservationId}?account={account}&to={to}&units={units}&scale={scale}", null,
+      Boolean.class, reservationId, accountId, creditAccountId, amountUnits, amountScale);
+  }
+
+  @Override
+  public boolean credit(String reservationId, String accountId, long amountUnits, int amountScale) {
+    return this.restTemplate.postForObject(
+      this.baseUrl + "/credits/{reservationId}?account={account}&units={units}&scale={scale}", null, Boolean.class,
+      reservationId, accountId, amountUnits, amountScale);
+  }
+
+  @Override
+  public void settle(String reservationId) {
+    this.restTemplate.postForObject(this.baseUrl + "/reservations/{reservationId}/settle", null, Void.class,
+      reservationId);
+  }
+
+  @Override
+  public void release(String reservationId) {
+    this.restTemplate.delete(this.baseUrl + "/reservations/{reservationId}", reservationId);
+  }
+
+  @Override
+  public void clearAccounts() {
+    this.restTemplate.delete(this.baseUrl + "/accounts");
+  }
+}
@@ -0,0 +1,222 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * LocalShard runs shard operations on the accounts of this node. Reservations are applied with the same transfer
+ * engine locks as transfers, so a reservation and a transfer on the same account never interleave.
+ *
+ * <p>The outcome of every credit is kept by its reservation id until forgetCredits drops it, a retried credit returns
+ * that outcome instead of crediting again.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.sharding", name = "enabled", havingValue = "true")
+public class LocalShard implements ShardClient {
+
+  private final AccountsRepositoryInMemory repository;
+
+  private final TransferEngine transferEngine;
+
+  private final Map<String, Reservation> reservations = new ConcurrentHashMap<>();
+
+  private final Map<String, Credit> credits = new ConcurrentHashMap<>();
+
+  @Autowired
+  public LocalShard(AccountsRepositoryInMemory repository, TransferEngine transferEngine) {
+    this.repository = repository;
+    this.transferEngine = transferEngine;
+  }
+
+  @Override
+  public void createAccount(Account account) throws DuplicateAccountIdException {
+    this.repository.createAccount(account);
+  }
+
+  @Override
+  public Account getAccount(String accountId) {
+    return this.repository.getAccount(accountId);
+  }
+
+  @Override
+  public boolean moneyTransfer(String fromAccountId, String toAccountId, long amountUnits, int amountScale) {
+    return this.repository.moneyTransfer(fromAccountId, toAccountId, amountUnits, amountScale);
+  }
+
+  @Override
+  public List<TransferStatus> moneyTransferAll(List<MoneyTransfer> transfers) {
+    return this.repository.moneyTransferAll(transfers);
+  }
+
+  @Override
+  public boolean reserve(String reservationId, String accountId, String creditAccountId, long amountUnits,
+    int amountScale) {
+    Account account = this.repository.getAccount(accountId);
+    if (account == null) {
+      return false;
+    }
+    boolean reserved = this.transferEngine.executeLocked(Collections.singletonList(account), () -> {
+      account.foldCredits();
+      if (!account.hasBalance(amountUnits, amountScale)) {
+        return false;
+      }
+      account.debit(amountUnits, amountScale);
+      return true;
+    });
+    if (reserved) {
+      this.reservations.put(reservationId,
+        new Reservation(account, creditAccountId, amountUnits, amountScale, System.currentTimeMillis()));
+    }
+    return reserved;
+  }
+
+  @Override
+  public boolean credit(String reservationId, String accountId, long amountUnits, int amountScale) {
+    Credit credit = this.credits.computeIfAbsent(reservationId, id -> new Credit(System.currentTimeMillis()));
+    synchronized (credit) {
+      if (credit.outcome == null) {
+        Account account = this.repository.getAccount(accountId);
+        credit.outcome = account != null && creditLocked(account, amountUnits, amountScale);
+      }
+      return credit.outcome;
+    }
+  }
+
+  private boolean creditLocked(Account account, long amountUnits, int amountScale) {
+    return this.transferEngine.executeLocked(Collections.singletonList(account), () -> {
+      try {
+        account.credit(amountUnits, amountScale);
+        return true;
+      } catch (ArithmeticException ex) {
+        return false;
+      }
+    });
+  }
+
+  @Override
+  public void settle(String reservationId) {
+    this.reservations.remove(reservationId);
+  }
+
+  @Override
+  public void release(String reservationId) {
+    Reservation reservation = this.reservations.remove(reservationId);
+    if (reservation != null && !creditLocked(reservation.account, reservation.amountUnits, reservation.amountScale)) {
+      // the amount was debited from this balance before, it can only fail to fit if the scale grew meanwhile
+      log.error("Reservation {} of account {} could not be released", reservationId,
+        reservation.account.getAccountId());
+    }
+  }
+
+  /**
+   * getPendingReservations returns the number of reservations neither settled nor released.
+   * @return
+   */
+  public int getPendingReservations() {
+    return this.reservations.size();
+  }
+
+  /**
+   * resolvePending finishes the reservations made before the given time that are still pending, because the outcome
+   * of their credit was unknown or the node that made them failed. The credit is sent again with the reservation id,
+   * the credit shard applies it unless it did before, and the reservation is settled or released by its outcome.
+   * Reservations whose credit fails again stay pending for the next call.
+   * @param createdBeforeMillis epoch millis.
+   * @param shardOf shard owning an account id.
+   * @return number of reservations resolved.
+   */
+  public int resolvePending(long createdBeforeMillis, Function<String, ShardClient> shardOf) {
+    int resolved = 0;
+    for (Map.Entry<String, Reservation> entry : this.reservations.entrySet()) {
+      Reservation reservation = entry.getValue();
+      if (reservation.createdAt >= createdBeforeMillis) {
+        continue;
+      }
+      boolean credited;
+      try {
+        credited = shardOf.apply(reservation.creditAccountId).credit(entry.getKey(), reservation.creditAccountId,
+          reservation.amountUnits, reservation.amountScale);
+      } catch (RuntimeException ex) {
+        log.warn("Credit to {} for pending reservation {} failed again", reservation.creditAccountId, entry.getKey(),
+          ex);
+        continue;
+      }
+      if (credited) {
+        settle(entry.getKey());
+      } else {
+        release(entry.getKey());
+      }
+      log.info("Pending reservation {} was {}", entry.getKey(), credited ? "settled" : "released");
+      resolved++;
+    }
+    return resolved;
+  }
+
+  /**
+   * forgetCredits drops the outcomes of the credits made before the given time, a credit retried with their
+   * reservation ids afterwards would be applied again.
+   * @param createdBeforeMillis epoch millis.
+   */
+  public void forgetCredits(long createdBeforeMillis) {
+    for (Iterator<Credit> it = this.credits.values().iterator(); it.hasNext(); ) {
+      if (it.next().createdAt < createdBeforeMillis) {
+        it.remove();
+      }
+    }
+  }
+
+  @Override
+  public void clearAccounts() {
+    this.reservations.clear();
+    this.credits.clear();
+    this.repository.clearAccounts();
+  }
+
+  private static final class Reservation {
+
+    private final Account account;
+
+    private final String creditAccountId;
+
+    private final long amountUnits;
+
+    private final int amountScale;
+
+    private final long createdAt;
+
+    private Reservation(Account account, String creditAccountId, long amountUnits, int amountScale, long createdAt) {
+      this.account = account;
+      this.creditAccountId = creditAccountId;
+      this.amountUnits = amountUnits;
+      this.amountScale = amountScale;
+      this.createdAt = createdAt;
+    }
+  }
+
+  /**
+   * Credit is the outcome of a credit, null until it was applied. Guarded by itself.
+   */
+  private static final class Credit {
+
+    private final long createdAt;
+
+    private Boolean outcome;
+
+    private Credit(long createdAt) {
+      this.createdAt = createdAt;
+    }
+  }
+}
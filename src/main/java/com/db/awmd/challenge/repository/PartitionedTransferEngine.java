@@ -0,0 +1,359 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * PartitionedTransferEngine assigns every account to one of a fixed number of partitions, each run by a single
+ * thread. Balances are only changed by the thread owning the account, so a transfer needs no lock, the caller hands
+ * it to the partition over a lock-free queue and waits for the outcome.
+ *
+ * <p>A transfer between two partitions is a debit on the partition of the debited account, which then passes the
+ * credit on to the partition of the credited account. In between the amount is in flight and visible in neither
+ * balance. If the credit fails the amount is passed back and credited to the debited account again.
+ *
+ * <p>executeLocked parks the partitions of the given accounts one after the other in ascending order, the action
+ * runs on the caller thread once all of them are parked. The fixed order keeps concurrent callers from deadlocking.
+ * A transfer with a listener runs the same way, as the listener expects both accounts held.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.transfer", name = "engine", havingValue = "partitioned")
+public class PartitionedTransferEngine implements TransferEngine {
+
+  private static final int RUNNING = 0;
+
+  private static final int TRANSFERRED = 1;
+
+  private static final int REJECTED = 2;
+
+  private static final int FAILED = 3;
+
+  /**
+   * Number of empty polls a partition or a waiting caller spins before it parks.
+   */
+  private static final int SPINS = 200;
+
+  private final Partition[] partitions;
+
+  @Autowired
+  public PartitionedTransferEngine(@Value("${accounts.transfer.partitions:0}") int partitionCount,
+    Optional<TransferJournal> journal) {
+    this(partitionCount);
+    if (journal.isPresent()) {
+      shutdown();
+      // every transfer would be logged through a listener and park two partitions, slower than the striped engine
+      throw new IllegalStateException("The partitioned engine does not support the journal, "
+        + "disable accounts.journal.enabled or use the striped engine");
+    }
+  }
+
+  /**
+   * @param partitionCount number of partitions, 0 for one per core.
+   */
+  public PartitionedTransferEngine(int partitionCount) {
+    int count = partitionCount > 0 ? partitionCount : Runtime.getRuntime().availableProcessors();
+    this.partitions = new Partition[count];
+    for (int i = 0; i < count; i++) {
+      this.partitions[i] = new Partition(i);
+    }
+  }
+
+  @Override
+  public boolean transfer(Account fromAccount, Account toAccount, long amountUnits, int amountScale,
+    TransferListener listener) {
+    if (listener != null) {
+      return transferLocked(fromAccount, toAccount, amountUnits, amountScale, listener);
+    }
+    Partition debitPartition = partitionOf(fromAccount);
+    Partition creditPartition = partitionOf(toAccount);
+    TransferTask task = new TransferTask(fromAccount, toAccount, amountUnits, amountScale, debitPartition,
+      creditPartition);
+    debitPartition.submit(task);
+    int state = task.await();
+    if (state == FAILED) {
+      // the balance would overflow, reported the same way as by the striped engine
+      throw new ArithmeticException("long overflow");
+    }
+    return state == TRANSFERRED;
+  }
+
+  /**
+   * transferLocked applies the transfer on the caller thread while the partitions of both accounts are parked, so the
+   * listener sees both accounts unchanged by any other transfer.
+   */
+  private boolean transferLocked(Account fromAccount, Account toAccount, long amountUnits, int amountScale,
+    TransferListener listener) {
+    return executeLocked(Arrays.asList(fromAccount, toAccount), () -> {
+      if (!fromAccount.hasBalance(amountUnits, amountScale)) {
+        return false;
+      }
+      listener.beforeTransfer(fromAccount, toAccount, amountUnits, amountScale);
+      if (fromAccount != toAccount) {
+        fromAccount.debit(amountUnits, amountScale);
+        try {
+          toAccount.credit(amountUnits, amountScale);
+        } catch (ArithmeticException ex) {
+          fromAccount.credit(amountUnits, amountScale);
+          throw ex;
+        }
+      }
+      return true;
+    });
+  }
+
+  @Override
+  public <T> T executeLocked(Collection<Account> accounts, Supplier<T> action) {
+    int[] order = new int[accounts.size()];
+    int i = 0;
+    for (Account account : accounts) {
+      order[i++] = partitionOf(account).index;
+    }
+    Arrays.sort(order);
+    CountDownLatch resume = new CountDownLatch(1);
+    try {
+      int previous = -1;
+      for (int index : order) {
+        if (index != previous) {
+          ParkTask park = new ParkTask(resume);
+          this.partitions[index].submit(park);
+          park.awaitParked();
+          previous = index;
+        }
+      }
+      return action.get();
+    } finally {
+      resume.countDown();
+    }
+  }
+
+  private Partition partitionOf(Account account) {
+    int h = account.getAccountId().hashCode();
+    return this.partitions[Math.floorMod(h ^ (h >>> 16), this.partitions.length)];
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    for (Partition partition : this.partitions) {
+      partition.running = false;
+      LockSupport.unpark(partition.thread);
+    }
+  }
+
+  /**
+   * Partition is one single threaded owner of a share of the accounts, it runs the submitted tasks in order.
+   */
+  private static final class Partition implements Runnable {
+
+    private final int index;
+
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+    private final Thread thread;
+
+    private volatile boolean sleeping;
+
+    private volatile boolean running = true;
+
+    private Partition(int index) {
+      this.index = index;
+      this.thread = new Thread(this, "transfer-partition-" + index);
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+
+    private void submit(Runnable task) {
+      this.queue.offer(task);
+      if (this.sleeping) {
+        LockSupport.unpark(this.thread);
+      }
+    }
+
+    @Override
+    public void run() {
+      int idle = 0;
+      while (this.running) {
+        Runnable task = this.queue.poll();
+        if (task != null) {
+          try {
+            task.run();
+          } catch (RuntimeException ex) {
+            log.error("Transfer partition {} task failed", this.index, ex);
+          }
+          idle = 0;
+        } else if (++idle < SPINS) {
+          Thread.yield();
+        } else {
+          // a submitter reads sleeping after its offer, so either it unparks us or we see its task here
+          this.sleeping = true;
+          if (this.queue.isEmpty() && this.running) {
+            LockSupport.park(this);
+          }
+          this.sleeping = false;
+        }
+      }
+    }
+  }
+
+  /**
+   * TransferTask runs the debit on the partition of the debited account and the credit, or the refund of a failed
+   * credit, on the partition of the account concerned. The caller waits for the final state.
+   */
+  private static final class TransferTask implements Runnable {
+
+    private final Account fromAccount;
+
+    private final Account toAccount;
+
+    private final long amountUnits;
+
+    private final int amountScale;
+
+    private final Partition debitPartition;
+
+    private final Partition creditPartition;
+
+    private final Thread caller = Thread.currentThread();
+
+    private volatile int state = RUNNING;
+
+    /**
+     * Stage run next, the debit until it has been applied.
+     */
+    private Runnable stage = this::debit;
+
+    private TransferTask(Account fromAccount, Account toAccount, long amountUnits, int amountScale,
+      Partition debitPartition, Partition creditPartition) {
+      this.fromAccount = fromAccount;
+      this.toAccount = toAccount;
+      this.amountUnits = amountUnits;
+      this.amountScale = amountScale;
+      this.debitPartition = debitPartition;
+      this.creditPartition = creditPartition;
+    }
+
+    @Override
+    public void run() {
+      this.stage.run();
+    }
+
+    private void debit() {
+      try {
+        if (!this.fromAccount.hasBalance(this.amountUnits, this.amountScale)) {
+          complete(REJECTED);
+          return;
+        }
+        if (this.fromAccount == this.toAccount) {
+          complete(TRANSFERRED);
+          return;
+        }
+        this.fromAccount.debit(this.amountUnits, this.amountScale);
+      } catch (ArithmeticException ex) {
+        complete(FAILED);
+        return;
+      }
+      if (this.creditPartition == this.debitPartition) {
+        credit();
+      } else {
+        this.stage = this::credit;
+        this.creditPartition.submit(this);
+      }
+    }
+
+    private void credit() {
+      try {
+        this.toAccount.credit(this.amountUnits, this.amountScale);
+        complete(TRANSFERRED);
+      } catch (ArithmeticException ex) {
+        if (this.creditPartition == this.debitPartition) {
+          refund();
+        } else {
+          this.stage = this::refund;
+          this.debitPartition.submit(this);
+        }
+      }
+    }
+
+    private void refund() {
+      this.fromAccount.credit(this.amountUnits, this.amountScale);
+      complete(FAILED);
+    }
+
+    private void complete(int finalState) {
+      this.state = finalState;
+      LockSupport.unpark(this.caller);
+    }
+
+    private int await() {
+      int spins = 0;
+      int current;
+      while ((current = this.state) == RUNNING) {
+        if (++spins < SPINS) {
+          Thread.yield();
+        } else {
+          LockSupport.park(this);
+        }
+      }
+      return current;
+    }
+  }
+
+  /**
+   * ParkTask holds its partition until the action of executeLocked has run.
+   */
+  private static final class ParkTask implements Runnable {
+
+    private final CountDownLatch parked = new CountDownLatch(1);
+
+    private final CountDownLatch resume;
+
+    private ParkTask(CountDownLatch resume) {
+      this.resume = resume;
+    }
+
+    @Override
+    public void run() {
+      this.parked.countDown();
+      boolean interrupted = false;
+      while (true) {
+        try {
+          this.resume.await();
+          break;
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void awaitParked() {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          this.parked.await();
+          break;
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * ReservationSweeper resolves the reservations of this node that were left pending, on a background thread. A
+ * reservation is only taken up once it is older than pending-timeout-seconds, far longer than any call to another
+ * node may take, and the outcomes of credits are kept for credit-retention-seconds, far longer than a reservation may
+ * stay pending while the nodes can reach each other.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.sharding", name = "enabled", havingValue = "true")
+public class ReservationSweeper {
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "reservation-sweeper");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  @Autowired
+  public ReservationSweeper(ShardedAccountsRepository repository, LocalShard localShard,
+    @Value("${accounts.sharding.pending-timeout-seconds:60}") long pendingTimeoutSeconds,
+    @Value("${accounts.sharding.credit-retention-seconds:86400}") long creditRetentionSeconds) {
+    long pendingTimeoutMillis = TimeUnit.SECONDS.toMillis(pendingTimeoutSeconds);
+    long creditRetentionMillis = TimeUnit.SECONDS.toMillis(creditRetentionSeconds);
+    if (creditRetentionMillis <= pendingTimeoutMillis) {
+      throw new IllegalStateException(
+        "accounts.sharding.credit-retention-seconds must be longer than accounts.sharding.pending-timeout-seconds");
+    }
+    this.executor.scheduleWithFixedDelay(() -> {
+      try {
+        long now = System.currentTimeMillis();
+        int resolved = repository.resolvePendingReservations(localShard, now - pendingTimeoutMillis);
+        if (resolved > 0) {
+          log.info("Resolved {} pending reservations", resolved);
+        }
+        localShard.forgetCredits(now - creditRetentionMillis);
+      } catch (RuntimeException ex) {
+        log.error("Sweeping the pending reservations failed", ex);
+      }
+    }, pendingTimeoutSeconds, pendingTimeoutSeconds, TimeUnit.SECONDS);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    this.executor.shutdownNow();
+  }
+}
@@ -0,0 +1,64 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import java.util.List;
+
+/**
+ * ShardClient is the set of operations ShardedAccountsRepository runs on one shard, either on the local accounts or
+ * on another node.
+ *
+ * <p>A transfer between two shards is applied in three steps. The amount is first reserved on the debit shard, which
+ * debits it if the balance is sufficient. It is then credited on the other shard. The reservation is settled if the
+ * credit succeeded and released, crediting the amount back, if it failed. The credit carries the reservation id, so
+ * a credit retried after an unknown outcome is applied once. A reservation left pending is resolved by the debit
+ * shard's node later, see ReservationSweeper.
+ */
+public interface ShardClient {
+
+  void createAccount(Account account) throws DuplicateAccountIdException;
+
+  /**
+   * getAccount returns the account or null. Accounts of other nodes are detached copies.
+   */
+  Account getAccount(String accountId);
+
+  /**
+   * moneyTransfer transfers between two accounts of this shard.
+   * @return false if an account is missing or the balance is not sufficient.
+   */
+  boolean moneyTransfer(String fromAccountId, String toAccountId, long amountUnits, int amountScale);
+
+  /**
+   * moneyTransferAll applies transfers between accounts of this shard atomically.
+   */
+  List<TransferStatus> moneyTransferAll(List<MoneyTransfer> transfers);
+
+  /**
+   * reserve debits the amount and keeps it under the reservation id until it is settled or released.
+   * @param creditAccountId account the amount is meant for, to resolve the reservation if it is left pending.
+   * @return false if the account is missing or the balance is not sufficient.
+   */
+  boolean reserve(String reservationId, String accountId, String creditAccountId, long amountUnits, int amountScale);
+
+  /**
+   * credit adds the amount of a reservation made on another shard. A credit with a reservation id seen before is not
+   * applied again, it returns the outcome of the first one.
+   * @return false if the account is missing or the balance would overflow.
+   */
+  boolean credit(String reservationId, String accountId, long amountUnits, int amountScale);
+
+  /**
+   * settle completes a reservation, its amount stays debited. Unknown ids are ignored.
+   */
+  void settle(String reservationId);
+
+  /**
+   * release cancels a reservation and credits its amount back. Unknown ids are ignored.
+   */
+  void release(String reservationId);
+
+  void clearAccounts();
+}
@@ -0,0 +1,246 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MinorUnits;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+/**
+ * ShardedAccountsRepository partitions the accounts over several nodes by consistent hashing of the account id. Each
+ * node keeps its own accounts in AccountsRepositoryInMemory and reaches the others through their internal shard
+ * endpoints, any node accepts any request.
+ *
+ * <p>A transfer between two accounts of the same shard is a plain transfer on that shard. A transfer between two
+ * shards reserves the amount on the debit shard, credits it on the other one and then settles the reservation, or
+ * releases it if the credit was refused. If the outcome of the credit is unknown, because the call failed or timed
+ * out, the reservation is left pending rather than risk crediting the amount twice. ReservationSweeper resolves it
+ * later by sending the credit again under the same reservation id, which the credit shard applies at most once.
+ */
+@Slf4j
+@Primary
+@Repository
+@ConditionalOnProperty(prefix = "accounts.sharding", name = "enabled", havingValue = "true")
+public class ShardedAccountsRepository implements AccountsRepository {
+
+  private final List<ShardClient> shards;
+
+  private final ConsistentHashRing ring;
+
+  private final String reservationPrefix;
+
+  private final AtomicLong reservationSequence = new AtomicLong();
+
+  @Autowired
+  public ShardedAccountsRepository(@Value("${accounts.sharding.nodes}") String[] nodes,
+    @Value("${accounts.sharding.self}") int self,
+    @Value("${accounts.sharding.virtual-nodes:128}") int virtualNodes,
+    @Value("${accounts.sharding.timeout-ms:2000}") int timeoutMillis,
+    @Value("${accounts.sharding.secret:}") String secret,
+    LocalShard localShard, Optional<TransferJournal> journal) {
+    this(clients(nodes, self, timeoutMillis, secret, localShard), Arrays.asList(nodes), virtualNodes, "node" + self);
+    if (journal.isPresent()) {
+      // reservations and credits are single account changes the journal has no records for
+      throw new IllegalStateException("Sharding does not support the journal, disable accounts.journal.enabled");
+    }
+  }
+
+  /**
+   * @param shards client of each shard, in the order of shardNames.
+   * @param shardNames names hashed onto the ring, all nodes must use the same names.
+   * @param virtualNodes ring points per shard.
+   * @param nodeName name of this node, makes its reservation ids unique.
+   */
+  public ShardedAccountsRepository(List<ShardClient> shards, List<String> shardNames, int virtualNodes,
+    String nodeName) {
+    if (shards.size() != shardNames.size()) {
+      throw new IllegalArgumentException("Every shard needs a name");
+    }
+    this.shards = new ArrayList<>(shards);
+    this.ring = new ConsistentHashRing(shardNames, virtualNodes);
+    // the start time keeps the ids of a restarted node apart from reservations it left pending before
+    this.reservationPrefix = nodeName + "-" + System.currentTimeMillis() + "-";
+  }
+
+  private static List<ShardClient> clients(String[] nodes, int self, int timeoutMillis, String secret,
+    LocalShard localShard) {
+    if (self < 0 || self >= nodes.length) {
+      throw new IllegalStateException(
+        "accounts.sharding.self must be the index of this node in accounts.sharding.nodes");
+    }
+    if (secret.isEmpty()) {
+      throw new IllegalStateException("accounts.sharding.secret must be set to the same value on all nodes");
+    }
+    List<ShardClient> clients = new ArrayList<>(nodes.length);
+    for (int i = 0; i < nodes.length; i++) {
+      clients.add(i == self ? localShard : new HttpShardClient(nodes[i], timeoutMillis, secret));
+    }
+    return clients;
+  }
+
+  private ShardClient shardOf(String accountId) {
+    return this.shards.get(this.ring.shardOf(accountId));
+  }
+
+  @Override
+  public void createAccount(Account account) throws DuplicateAccountIdException {
+    shardOf(account.getAccountId()).createAccount(account);
+  }
+
+  @Override
+  public Account getAccount(String accountId) {
+    return shardOf(accountId).getAccount(accountId);
+  }
+
+  /**
+   * moneyTransfer applies the transfer on the owning shard if both accounts share one, otherwise it reserves the
+   * amount on the debit shard, credits it on the other shard and settles the reservation.
+   * @param fromAccountId
+   * @param toAccountId
+   * @param amountUnits amount in minor units of amountScale
+   * @param amountScale
+   * @return false if an account is missing or the balance is not sufficient.
+   */
+  @Override
+  public Boolean moneyTransfer(String fromAccountId, String toAccountId, long amountUnits, int amountScale) {
+    ShardClient debitShard = shardOf(fromAccountId);
+    ShardClient creditShard = shardOf(toAccountId);
+    if (debitShard == creditShard) {
+      return debitShard.moneyTransfer(fromAccountId, toAccountId, amountUnits, amountScale);
+    }
+    String reservationId = this.reservationPrefix + this.reservationSequence.incrementAndGet();
+    if (!debitShard.reserve(reservationId, fromAccountId, toAccountId, amountUnits, amountScale)) {
+      return false;
+    }
+    boolean credited;
+    try {
+      credited = creditShard.credit(reservationId, toAccountId, amountUnits, amountScale);
+    } catch (RuntimeException ex) {
+      log.error("Credit to {} for reservation {} has an unknown outcome, the reservation is left pending for the "
+        + "sweeper", toAccountId, reservationId, ex);
+      throw ex;
+    }
+    if (!credited) {
+      debitShard.release(reservationId);
+      return false;
+    }
+    debitShard.settle(reservationId);
+    return true;
+  }
+
+  /**
+   * resolvePendingReservations resolves the reservations of the local shard made before the given time that are
+   * still pending, crediting their amounts on the owning shards, see LocalShard.resolvePending.
+   * @param localShard
+   * @param createdBeforeMillis epoch millis.
+   * @return number of reservations resolved.
+   */
+  public int resolvePendingReservations(LocalShard localShard, long createdBeforeMillis) {
+    return localShard.resolvePending(createdBeforeMillis, this::shardOf);
+  }
+
+  /**
+   * transfer looks the accounts up on their shards and then runs moneyTransfer. The accounts of remote shards are
+   * copies, the check and the transfer are separate calls there anyway.
+   */
+  @Override
+  public TransferStatus transfer(String fromAccountId, String toAccountId, long amountUnits, int amountScale,
+    BiConsumer<Account, Account> onTransferred) {
+    Account fromAccount = getAccount(fromAccountId);
+    Account toAccount = fromAccount == null ? null : getAccount(toAccountId);
+    if (toAccount == null) {
+      return TransferStatus.ACCOUNT_NOT_FOUND;
+    }
+    if (fromAccountId.equals(toAccountId)) {
+      return TransferStatus.SAME_ACCOUNT;
+    }
+    if (!moneyTransfer(fromAccountId, toAccountId, amountUnits, amountScale)) {
+      return TransferStatus.INSUFFICIENT_FUNDS;
+    }
+    if (onTransferred != null) {
+      onTransferred.accept(fromAccount, toAccount);
+    }
+    return TransferStatus.OK;
+  }
+
+  /**
+   * moneyTransferAll applies the transfers atomically if all their accounts belong to one shard. Batches spanning
+   * several shards are refused, the transfers leaving the shard of the first transfer are reported INVALID_REQUEST
+   * and the others ABORTED.
+   * @param transfers
+   * @return status of each transfer, in list order.
+   */
+  @Override
+  public List<TransferStatus> moneyTransferAll(List<MoneyTransfer> transfers) {
+    if (transfers.isEmpty()) {
+      return new ArrayList<>();
+    }
+    ShardClient shard = shardOf(transfers.get(0).getAccountFrom());
+    boolean singleShard = true;
+    TransferStatus[] statuses = new TransferStatus[transfers.size()];
+    for (int i = 0; i < statuses.length; i++) {
+      MoneyTransfer transfer = transfers.get(i);
+      boolean sameShard = shardOf(transfer.getAccountFrom()) == shard && shardOf(transfer.getAccountTo()) == shard;
+      statuses[i] = sameShard ? TransferStatus.ABORTED : TransferStatus.INVALID_REQUEST;
+      singleShard &= sameShard;
+    }
+    return singleShard ? shard.moneyTransferAll(transfers) : Arrays.asList(statuses);
+  }
+
+  /**
+   * moneyTransferLegs is applied as an atomic batch of single transfers, so it has the same single shard restriction.
+   * The balance is checked leg by leg there, which gives the same outcome as checking the sum as the debited account
+   * only loses money during the batch.
+   */
+  @Override
+  public List<TransferStatus> moneyTransferLegs(String fromAccountId, String[] toAccountIds, long[] amountUnits,
+    int[] amountScales) {
+    List<MoneyTransfer> transfers = new ArrayList<>(toAccountIds.length);
+    for (int i = 0; i < toAccountIds.length; i++) {
+      transfers.add(new MoneyTransfer(fromAccountId, toAccountIds[i],
+        MinorUnits.toBigDecimal(amountUnits[i], amountScales[i])));
+    }
+    return moneyTransferAll(transfers);
+  }
+
+  /**
+   * hold is refused with INVALID_REQUEST, holds are kept by the node that placed them and are not supported across
+   * shards.
+   */
+  @Override
+  public TransferStatus hold(String accountId, long amountUnits, int amountScale) {
+    return TransferStatus.INVALID_REQUEST;
+  }
+
+  /**
+   * releaseHold has nothing to release, no hold is ever placed with sharding.
+   */
+  @Override
+  public void releaseHold(String accountId, long heldUnits, int heldScale) {
+  }
+
+  @Override
+  public TransferStatus captureHold(String fromAccountId, long heldUnits, int heldScale, String toAccountId,
+    long amountUnits, int amountScale) {
+    return TransferStatus.INVALID_REQUEST;
+  }
+
+  @Override
+  public void clearAccounts() {
+    for (ShardClient shard : this.shards) {
+      shard.clearAccounts();
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * SnapshotScheduler takes a snapshot of the accounts at a fixed interval on a background thread.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.snapshot", name = "enabled", havingValue = "true")
+public class SnapshotScheduler {
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "accounts-snapshot");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  @Autowired
+  public SnapshotScheduler(AccountsRepositoryInMemory repository,
+    @Value("${accounts.snapshot.interval-seconds:300}") long intervalSeconds) {
+    this.executor.scheduleWithFixedDelay(() -> {
+      try {
+        repository.snapshot();
+      } catch (RuntimeException ex) {
+        log.error("Snapshot failed, the journal is kept until the next one succeeds", ex);
+      }
+    }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    this.executor.shutdownNow();
+  }
+}
@@ -0,0 +1,242 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * SnapshotStore writes and loads point-in-time copies of the accounts map, so that recovery only has to replay the
+ * journal written after the latest snapshot.
+ *
+ * <p>A snapshot file is a fixed header followed by one entry per account, all big endian:
+ * <pre>
+ *   header: int magic, int version, long journal start position, long entry count
+ *   entry:  short id length, id bytes (UTF-8), long balance units, int balance scale, long journal position
+ * </pre>
+ * Every entry carries the journal position of the last record applied to the account, recovery skips the records
+ * an entry already contains. Files are written under a temporary name and renamed once complete, so a crash while
+ * snapshotting leaves the previous snapshot in place.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.snapshot", name = "enabled", havingValue = "true")
+public class SnapshotStore {
+
+  /**
+   * Visitor receives the entries of a snapshot while it is loaded.
+   */
+  public interface Visitor {
+
+    void account(String accountId, long balanceUnits, int balanceScale, long journalPosition);
+  }
+
+  private static final int MAGIC = 0x41434353;
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 24;
+
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private static final String PREFIX = "snapshot-";
+
+  private static final String SUFFIX = ".bin";
+
+  private final File directory;
+
+  private final int retained;
+
+  @Autowired
+  public SnapshotStore(@Value("${accounts.snapshot.directory:./data/snapshots}") String directory,
+    @Value("${accounts.snapshot.retained:2}") int retained) {
+    this(new File(directory), retained);
+  }
+
+  public SnapshotStore(File directory, int retained) {
+    this.directory = directory;
+    this.retained = Math.max(1, retained);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IllegalStateException("Cannot create snapshot directory " + directory);
+    }
+  }
+
+  /**
+   * open starts a new snapshot, it becomes visible to loadLatest once the writer is committed.
+   * @param journalStartPosition journal position recovery replays from when this snapshot is loaded.
+   * @return
+   */
+  public Writer open(long journalStartPosition) {
+    return new Writer(journalStartPosition);
+  }
+
+  /**
+   * loadLatest reads the most recent complete snapshot.
+   * @param visitor
+   * @return the journal position to replay from, 0 if there is no snapshot.
+   */
+  public long loadLatest(Visitor visitor) {
+    File[] snapshots = snapshotFiles();
+    if (snapshots.length == 0) {
+      return 0L;
+    }
+    File latest = snapshots[snapshots.length - 1];
+    try (FileChannel channel = FileChannel.open(latest.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      buffer.limit(0);
+      fill(channel, buffer, HEADER_SIZE);
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        throw new IllegalStateException("Snapshot " + latest + " has an unknown format");
+      }
+      long startPosition = buffer.getLong();
+      long count = buffer.getLong();
+      byte[] idBytes = new byte[Short.MAX_VALUE];
+      for (long i = 0; i < count; i++) {
+        fill(channel, buffer, 2);
+        int idLength = buffer.getShort();
+        fill(channel, buffer, idLength + 20);
+        buffer.get(idBytes, 0, idLength);
+        visitor.account(new String(idBytes, 0, idLength, StandardCharsets.UTF_8), buffer.getLong(), buffer.getInt(),
+          buffer.getLong());
+      }
+      log.info("Loaded {} accounts from snapshot {}", count, latest);
+      return startPosition;
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Cannot read snapshot " + latest, ex);
+    }
+  }
+
+  /**
+   * fill makes sure the buffer has at least the requested bytes remaining, reading more of the file if needed.
+   */
+  private static void fill(FileChannel channel, ByteBuffer buffer, int required) throws IOException {
+    if (buffer.remaining() >= required) {
+      return;
+    }
+    buffer.compact();
+    while (buffer.position() < required) {
+      if (channel.read(buffer) < 0) {
+        throw new IOException("Snapshot file is truncated");
+      }
+    }
+    buffer.flip();
+  }
+
+  private File[] snapshotFiles() {
+    File[] files = this.directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+    if (files == null) {
+      return new File[0];
+    }
+    // names contain the zero padded start position, so name order is snapshot order
+    Arrays.sort(files);
+    return files;
+  }
+
+  private void deleteOldSnapshots() {
+    File[] snapshots = snapshotFiles();
+    for (int i = 0; i < snapshots.length - this.retained; i++) {
+      if (!snapshots[i].delete()) {
+        log.warn("Cannot delete old snapshot {}", snapshots[i]);
+      }
+    }
+  }
+
+  /**
+   * Writer appends the entries of one snapshot. It is not thread safe.
+   */
+  public final class Writer implements AutoCloseable {
+
+    private final long startPosition;
+
+    private final Path temporary;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private long count;
+
+    private boolean committed;
+
+    private Writer(long startPosition) {
+      this.startPosition = startPosition;
+      this.temporary = new File(directory, String.format("%s%016d%s.tmp", PREFIX, startPosition, SUFFIX)).toPath();
+      try {
+        this.channel = FileChannel.open(this.temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING);
+        // header is rewritten with the final count on commit
+        this.buffer.putInt(MAGIC).putInt(VERSION).putLong(startPosition).putLong(0L);
+      } catch (IOException ex) {
+        throw new UncheckedIOException("Cannot create snapshot " + this.temporary, ex);
+      }
+    }
+
+    public void add(String accountId, long balanceUnits, int balanceScale, long journalPosition) {
+      byte[] id = accountId.getBytes(StandardCharsets.UTF_8);
+      if (this.buffer.remaining() < id.length + 22) {
+        drain();
+      }
+      this.buffer.putShort((short) id.length).put(id).putLong(balanceUnits).putInt(balanceScale)
+        .putLong(journalPosition);
+      this.count++;
+    }
+
+    /**
+     * commit forces the snapshot to disk, makes it the latest one and deletes snapshots beyond the retained count.
+     */
+    public void commit() {
+      drain();
+      try {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(this.startPosition).putLong(this.count).flip();
+        this.channel.write(header, 0L);
+        this.channel.force(true);
+        this.channel.close();
+        Path target = new File(directory, String.format("%s%016d%s", PREFIX, this.startPosition, SUFFIX)).toPath();
+        Files.move(this.temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        this.committed = true;
+      } catch (IOException ex) {
+        throw new UncheckedIOException("Cannot commit snapshot " + this.temporary, ex);
+      }
+      log.info("Wrote snapshot of {} accounts at journal position {}", this.count, this.startPosition);
+      deleteOldSnapshots();
+    }
+
+    private void drain() {
+      this.buffer.flip();
+      try {
+        while (this.buffer.hasRemaining()) {
+          this.channel.write(this.buffer);
+        }
+      } catch (IOException ex) {
+        throw new UncheckedIOException("Cannot write snapshot " + this.temporary, ex);
+      }
+      this.buffer.clear();
+    }
+
+    @Override
+    public void close() {
+      if (this.committed) {
+        return;
+      }
+      try {
+        this.channel.close();
+        Files.deleteIfExists(this.temporary);
+      } catch (IOException ex) {
+        log.warn("Cannot remove incomplete snapshot {}", this.temporary, ex);
+      }
+    }
+  }
+}
@@ -0,0 +1,223 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.CreditAccumulator;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * StripedLockTransferEngine guards account balances with a fixed array of locks. Each account maps to one stripe by
+ * the hash of its id, and a transfer takes the two stripes in ascending stripe order so that mutual transfers cannot
+ * deadlock. Unlike locking the map bins, the stripes are independent of the map layout, so a resize of the accounts
+ * map never waits for a transfer.
+ *
+ * <p>A lock is first tried without waiting, only when it is held by another thread the wait is timed and counted as a
+ * retry in the transfer metrics.
+ *
+ * <p>Credits to hot accounts skip the lock of the credited account. They are added to the account's credit
+ * accumulator and folded into its balance by the next debit, so fan-in transfers to a single merchant account only
+ * contend on the locks of the debited accounts. An account is hot if it is configured as such or once it received a
+ * number of contended credits. Hot credits are only used without transfer listener, a listener expects both
+ * accounts locked.
+ */
+@Component
+@ConditionalOnProperty(prefix = "accounts.transfer", name = "engine", havingValue = "striped", matchIfMissing = true)
+public class StripedLockTransferEngine implements TransferEngine {
+
+  private final ReentrantLock[] stripes;
+
+  private final int mask;
+
+  private final TransferMetrics metrics;
+
+  private final Set<String> hotAccountIds;
+
+  private final int hotDetectThreshold;
+
+  private final int accumulatorCells;
+
+  public StripedLockTransferEngine(int stripeCount) {
+    this(stripeCount, TransferMetrics.disabled());
+  }
+
+  public StripedLockTransferEngine(int stripeCount, TransferMetrics metrics) {
+    this(stripeCount, metrics, new String[0], 0);
+  }
+
+  /**
+   * @param stripeCount number of locks, rounded up to a power of two.
+   * @param metrics
+   * @param hotAccountIds accounts whose credits are always accumulated.
+   * @param hotDetectThreshold contended credits after which an account becomes hot, 0 disables the detection.
+   */
+  @Autowired
+  public StripedLockTransferEngine(@Value("${accounts.transfer.lock-stripes:4096}") int stripeCount,
+    TransferMetrics metrics, @Value("${accounts.hot-accounts.ids:}") String[] hotAccountIds,
+    @Value("${accounts.hot-accounts.detect-threshold:1000}") int hotDetectThreshold) {
+    this.metrics = metrics;
+    this.hotAccountIds = new HashSet<>();
+    for (String id : hotAccountIds) {
+      if (!id.trim().isEmpty()) {
+        this.hotAccountIds.add(id.trim());
+      }
+    }
+    this.hotDetectThreshold = hotDetectThreshold;
+    this.accumulatorCells = Runtime.getRuntime().availableProcessors() * 2;
+    // round up to a power of two so the stripe can be taken with a mask
+    int size = 1;
+    while (size < stripeCount) {
+      size <<= 1;
+    }
+    this.stripes = new ReentrantLock[size];
+    for (int i = 0; i < size; i++) {
+      this.stripes[i] = new ReentrantLock();
+    }
+    this.mask = size - 1;
+  }
+
+  @Override
+  public boolean transfer(Account fromAccount, Account toAccount, long amountUnits, int amountScale,
+    TransferListener listener) {
+    CreditAccumulator accumulator = toAccount.getCreditAccumulator();
+    if (accumulator != null && listener == null && fromAccount != toAccount) {
+      return transferToHotAccount(fromAccount, toAccount, accumulator, amountUnits, amountScale);
+    }
+    int fromStripe = stripeOf(fromAccount.getAccountId());
+    int toStripe = stripeOf(toAccount.getAccountId());
+    // stripes are always locked in ascending order, accounts sharing a stripe need a single lock
+    ReentrantLock first = this.stripes[Math.min(fromStripe, toStripe)];
+    ReentrantLock second = fromStripe == toStripe ? null : this.stripes[Math.max(fromStripe, toStripe)];
+
+    boolean firstContended = lock(first);
+    try {
+      boolean secondContended = second != null && lock(second);
+      // whether the lock of the credited account was contended, a hint that the account is hot
+      boolean contended = toStripe <= fromStripe ? firstContended : secondContended;
+      try {
+        fromAccount.foldCredits();
+        if (!fromAccount.hasBalance(amountUnits, amountScale)) {
+          return false;
+        }
+        if (listener != null) {
+          listener.beforeTransfer(fromAccount, toAccount, amountUnits, amountScale);
+        }
+        if (fromAccount != toAccount) {
+          fromAccount.debit(amountUnits, amountScale);
+          toAccount.credit(amountUnits, amountScale);
+          if (listener == null) {
+            detectHotAccount(toAccount, contended);
+          }
+        }
+        return true;
+      } finally {
+        if (second != null) {
+          second.unlock();
+        }
+      }
+    } finally {
+      first.unlock();
+    }
+  }
+
+  /**
+   * transferToHotAccount only locks the debited account, the credit goes to the accumulator of the hot account.
+   */
+  private boolean transferToHotAccount(Account fromAccount, Account toAccount, CreditAccumulator accumulator,
+    long amountUnits, int amountScale) {
+    ReentrantLock fromLock = this.stripes[stripeOf(fromAccount.getAccountId())];
+    lock(fromLock);
+    try {
+      fromAccount.foldCredits();
+      if (!fromAccount.hasBalance(amountUnits, amountScale)) {
+        return false;
+      }
+      fromAccount.debit(amountUnits, amountScale);
+    } finally {
+      fromLock.unlock();
+    }
+    if (!accumulator.add(amountUnits, amountScale)) {
+      // finer scale or a full cell, credit the balance under its lock
+      executeLocked(Collections.singletonList(toAccount), () -> {
+        toAccount.credit(amountUnits, amountScale);
+        return null;
+      });
+    }
+    return true;
+  }
+
+  /**
+   * detectHotAccount makes the credited account hot if it is configured as hot or its lock is contended often.
+   * Called while the account is locked.
+   */
+  private void detectHotAccount(Account toAccount, boolean contended) {
+    if (!this.hotAccountIds.isEmpty() && this.hotAccountIds.contains(toAccount.getAccountId())) {
+      toAccount.enableCreditAggregation(this.accumulatorCells);
+    } else if (contended && this.hotDetectThreshold > 0
+      && toAccount.recordContendedCredit() >= this.hotDetectThreshold) {
+      toAccount.enableCreditAggregation(this.accumulatorCells);
+    }
+  }
+
+  @Override
+  public <T> T executeLocked(Collection<Account> accounts, Supplier<T> action) {
+    int[] lockOrder = new int[accounts.size()];
+    int i = 0;
+    for (Account account : accounts) {
+      lockOrder[i++] = stripeOf(account.getAccountId());
+    }
+    Arrays.sort(lockOrder);
+    int locked = 0;
+    try {
+      int previous = -1;
+      for (int j = 0; j < lockOrder.length; j++) {
+        int stripe = lockOrder[j];
+        // accounts sharing a stripe need a single lock, the held stripes are compacted to the front of the array
+        if (stripe != previous) {
+          lock(this.stripes[stripe]);
+          lockOrder[locked++] = stripe;
+          previous = stripe;
+        }
+      }
+      return action.get();
+    } finally {
+      while (locked > 0) {
+        this.stripes[lockOrder[--locked]].unlock();
+      }
+    }
+  }
+
+  /**
+   * lock takes the lock, trying without waiting first.
+   * @return true if the lock was held by another thread.
+   */
+  private boolean lock(ReentrantLock lock) {
+    if (lock.tryLock()) {
+      this.metrics.lockAcquired();
+      return false;
+    }
+    if (!this.metrics.isEnabled()) {
+      lock.lock();
+    } else {
+      long start = System.nanoTime();
+      lock.lock();
+      this.metrics.lockAcquiredAfterWait(System.nanoTime() - start);
+    }
+    return true;
+  }
+
+  private int stripeOf(String accountId) {
+    int h = accountId.hashCode();
+    // spread the higher bits down as the ids usually differ only in the last characters
+    return (h ^ (h >>> 16)) & this.mask;
+  }
+}
@@ -0,0 +1,43 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import java.util.Collection;
+import java.util.function.Supplier;
+
+/**
+ * TransferEngine applies a debit/credit pair between two accounts atomically. The repository resolves the accounts
+ * and delegates the balance update, so the locking strategy can be swapped without touching the account store.
+ */
+public interface TransferEngine {
+
+  /**
+   * transfer moves the amount from one account to the other if the debited account has sufficient balance.
+   * The amount is given in minor units so that the debit/credit path does not allocate.
+   * @param fromAccount
+   * @param toAccount
+   * @param amountUnits
+   * @param amountScale
+   * @param listener called after the balance check and before the balances change, may be null.
+   * @return true if the transfer was applied, false if the balance was not sufficient.
+   */
+  boolean transfer(Account fromAccount, Account toAccount, long amountUnits, int amountScale,
+    TransferListener listener);
+
+  /**
+   * executeLocked runs the action while all the given accounts are locked, the locks are taken in the same order as
+   * for transfer so it can be mixed with single transfers without deadlock.
+   * @param accounts
+   * @param action
+   * @return the result of the action.
+   */
+  <T> T executeLocked(Collection<Account> accounts, Supplier<T> action);
+
+  /**
+   * TransferListener is told about a transfer while both accounts are locked, after the balance check and before the
+   * balances change. If it throws the transfer is not applied.
+   */
+  interface TransferListener {
+
+    void beforeTransfer(Account fromAccount, Account toAccount, long amountUnits, int amountScale);
+  }
+}
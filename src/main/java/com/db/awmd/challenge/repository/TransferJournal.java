@@ -0,0 +1,452 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * TransferJournal is an append-only log of account creations and transfers, written to memory-mapped segment files.
+ * Records are appended while the involved accounts are locked, so the log order matches the order in which the
+ * balances changed, and replaying the log rebuilds the accounts map.
+ *
+ * <p>Appending only copies the record into the mapped segment. Durability is requested separately with
+ * awaitDurable, which uses group commit: the first waiting thread forces the segment for everything written so far
+ * and all threads waiting for a position up to that point return together, so concurrent transfers share one fsync.
+ *
+ * <p>A journal position is the global byte offset of the end of a record, segment index times segment size plus the
+ * offset in the segment. Records never span segments.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.journal", name = "enabled", havingValue = "true")
+public class TransferJournal {
+
+  /**
+   * Visitor receives the journal records in log order during recovery.
+   */
+  public interface Visitor {
+
+    void accountCreated(long position, String accountId, long balanceUnits, int balanceScale);
+
+    void transferred(long position, String fromAccountId, String toAccountId, long amountUnits, int amountScale);
+
+    void accountsCleared(long position);
+  }
+
+  private static final byte CREATE = 1;
+
+  private static final byte TRANSFER = 2;
+
+  private static final byte CLEAR = 3;
+
+  private static final byte BATCH = 4;
+
+  /**
+   * Record header, the length of type and payload followed by the type.
+   */
+  private static final int HEADER_SIZE = 5;
+
+  private static final int CRC_SIZE = 4;
+
+  private static final int MAX_ID_LENGTH = Short.MAX_VALUE;
+
+  private final File directory;
+
+  private final long segmentSize;
+
+  private final boolean fsync;
+
+  private final ReentrantLock appendLock = new ReentrantLock();
+
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * Guards flushing and flushedPosition. A lock rather than a monitor, so that waiting requests running on virtual
+   * threads release their carrier thread.
+   */
+  private final ReentrantLock flushLock = new ReentrantLock();
+
+  private final Condition flushed = this.flushLock.newCondition();
+
+  private final List<MappedByteBuffer> pendingForce = new ArrayList<>();
+
+  private long segmentIndex;
+
+  private MappedByteBuffer segment;
+
+  private volatile long writtenPosition;
+
+  private long flushedPosition;
+
+  private boolean flushing;
+
+  private boolean recovered;
+
+  @Autowired
+  public TransferJournal(@Value("${accounts.journal.directory:./data/journal}") String directory,
+    @Value("${accounts.journal.segment-size-mb:64}") int segmentSizeMb,
+    @Value("${accounts.journal.fsync:true}") boolean fsync) {
+    this(new File(directory), segmentSizeMb * 1024L * 1024L, fsync);
+  }
+
+  public TransferJournal(File directory, long segmentSize, boolean fsync) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.fsync = fsync;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IllegalStateException("Cannot create journal directory " + directory);
+    }
+  }
+
+  /**
+   * recover replays the journal from the given position and positions the writer after the last valid record. A
+   * torn record at the end of the log, left by a crash during an append, is ignored and overwritten by the next one.
+   * Must be called once before anything is appended.
+   * @param fromPosition position to start at, 0 for the whole log.
+   * @param visitor
+   */
+  public void recover(long fromPosition, Visitor visitor) {
+    this.appendLock.lock();
+    try {
+      if (this.recovered) {
+        throw new IllegalStateException("Journal already recovered");
+      }
+      long position = fromPosition;
+      long index = fromPosition / this.segmentSize;
+      while (segmentFile(index).exists()) {
+        MappedByteBuffer buffer = map(index);
+        int offset = (int) (position - index * this.segmentSize);
+        int end = replaySegment(buffer, index, offset, visitor);
+        position = index * this.segmentSize + end;
+        if (!segmentFile(index + 1).exists()) {
+          break;
+        }
+        index++;
+        position = index * this.segmentSize;
+      }
+      this.segmentIndex = index;
+      this.segment = map(index);
+      this.segment.position((int) (position - index * this.segmentSize));
+      if (this.segment.remaining() >= 4 && this.segment.getInt(this.segment.position()) != 0) {
+        // zero the torn tail so it is not mistaken for data once the next record is shorter
+        for (int i = this.segment.position(); i < this.segment.limit(); i++) {
+          this.segment.put(i, (byte) 0);
+        }
+      }
+      this.writtenPosition = position;
+      this.flushedPosition = position;
+      this.recovered = true;
+      log.info("Journal recovered up to position {} in {}", position, this.directory);
+    } finally {
+      this.appendLock.unlock();
+    }
+  }
+
+  private int replaySegment(ByteBuffer buffer, long index, int offset, Visitor visitor) {
+    ByteBuffer record = buffer.duplicate();
+    CRC32 checksum = new CRC32();
+    while (offset + HEADER_SIZE + CRC_SIZE <= buffer.limit()) {
+      int length = buffer.getInt(offset);
+      if (length <= 0 || offset + 4 + length + CRC_SIZE > buffer.limit()) {
+        return offset;
+      }
+      record.limit(offset + 4 + length).position(offset + 4);
+      checksum.reset();
+      checksum.update(record);
+      if ((int) checksum.getValue() != buffer.getInt(offset + 4 + length)) {
+        log.warn("Journal segment {} has a torn record at offset {}, ignoring the rest", index, offset);
+        return offset;
+      }
+      int end = offset + 4 + length + CRC_SIZE;
+      long position = index * this.segmentSize + end;
+      record.limit(offset + 4 + length).position(offset + HEADER_SIZE);
+      switch (buffer.get(offset + 4)) {
+        case CREATE:
+          visitor.accountCreated(position, readId(record), record.getLong(), record.getInt());
+          break;
+        case TRANSFER:
+          visitor.transferred(position, readId(record), readId(record), record.getLong(), record.getInt());
+          break;
+        case BATCH:
+          for (int count = record.getInt(); count > 0; count--) {
+            visitor.transferred(position, readId(record), readId(record), record.getLong(), record.getInt());
+          }
+          break;
+        case CLEAR:
+          visitor.accountsCleared(position);
+          break;
+        default:
+          throw new IllegalStateException("Unknown journal record type at segment " + index + " offset " + offset);
+      }
+      offset = end;
+    }
+    return offset;
+  }
+
+  /**
+   * appendCreate logs a new account with its initial balance.
+   * @return the journal position of the record.
+   */
+  public long appendCreate(String accountId, long balanceUnits, int balanceScale) {
+    this.appendLock.lock();
+    try {
+      ByteBuffer buffer = reserve(idSize(accountId) + 12);
+      int start = buffer.position();
+      buffer.put(CREATE);
+      writeId(buffer, accountId);
+      buffer.putLong(balanceUnits).putInt(balanceScale);
+      return commit(buffer, start);
+    } finally {
+      this.appendLock.unlock();
+    }
+  }
+
+  /**
+   * appendTransfer logs a transfer which is about to be applied.
+   * @return the journal position of the record.
+   */
+  public long appendTransfer(String fromAccountId, String toAccountId, long amountUnits, int amountScale) {
+    this.appendLock.lock();
+    try {
+      ByteBuffer buffer = reserve(idSize(fromAccountId) + idSize(toAccountId) + 12);
+      int start = buffer.position();
+      buffer.put(TRANSFER);
+      writeId(buffer, fromAccountId);
+      writeId(buffer, toAccountId);
+      buffer.putLong(amountUnits).putInt(amountScale);
+      return commit(buffer, start);
+    } finally {
+      this.appendLock.unlock();
+    }
+  }
+
+  /**
+   * appendBatch logs transfers applied atomically as a single record, so recovery applies all of them or none.
+   * @return the journal position of the record.
+   */
+  public long appendBatch(String[] fromAccountIds, String[] toAccountIds, long[] amountUnits, int[] amountScales) {
+    this.appendLock.lock();
+    try {
+      int size = 4;
+      for (int i = 0; i < fromAccountIds.length; i++) {
+        size += idSize(fromAccountIds[i]) + idSize(toAccountIds[i]) + 12;
+      }
+      ByteBuffer buffer = reserve(size);
+      int start = buffer.position();
+      buffer.put(BATCH).putInt(fromAccountIds.length);
+      for (int i = 0; i < fromAccountIds.length; i++) {
+        writeId(buffer, fromAccountIds[i]);
+        writeId(buffer, toAccountIds[i]);
+        buffer.putLong(amountUnits[i]).putInt(amountScales[i]);
+      }
+      return commit(buffer, start);
+    } finally {
+      this.appendLock.unlock();
+    }
+  }
+
+  /**
+   * appendClear logs that all accounts were removed.
+   * @return the journal position of the record.
+   */
+  public long appendClear() {
+    this.appendLock.lock();
+    try {
+      ByteBuffer buffer = reserve(0);
+      int start = buffer.position();
+      buffer.put(CLEAR);
+      return commit(buffer, start);
+    } finally {
+      this.appendLock.unlock();
+    }
+  }
+
+  /**
+   * deleteSegmentsBefore removes the segment files which only hold records before the given position, called once a
+   * snapshot made them unnecessary for recovery.
+   * @param position
+   */
+  public void deleteSegmentsBefore(long position) {
+    long lastObsolete = position / this.segmentSize - 1;
+    for (long index = lastObsolete; index >= 0 && segmentFile(index).exists(); index--) {
+      if (!segmentFile(index).delete()) {
+        log.warn("Cannot delete journal segment {}", index);
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return position after the last appended record.
+   */
+  public long getWrittenPosition() {
+    return this.writtenPosition;
+  }
+
+  /**
+   * awaitDurable blocks until everything up to the given position has been forced to disk. Concurrent callers are
+   * served by a single force of the segment.
+   * @param position
+   */
+  public void awaitDurable(long position) {
+    if (!this.fsync) {
+      return;
+    }
+    while (true) {
+      this.flushLock.lock();
+      try {
+        while (this.flushing && this.flushedPosition < position) {
+          try {
+            this.flushed.await();
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the journal", ex);
+          }
+        }
+        if (this.flushedPosition >= position) {
+          return;
+        }
+        // no flush in progress covers the position, this thread leads the next group
+        this.flushing = true;
+      } finally {
+        this.flushLock.unlock();
+      }
+      long target = -1L;
+      try {
+        target = flush();
+      } finally {
+        this.flushLock.lock();
+        try {
+          this.flushedPosition = Math.max(this.flushedPosition, target);
+          this.flushing = false;
+          this.flushed.signalAll();
+        } finally {
+          this.flushLock.unlock();
+        }
+      }
+    }
+  }
+
+  /**
+   * flush forces everything written so far and returns the position it covers. Records appended while the force is
+   * running are left for the next group.
+   */
+  private long flush() {
+    List<MappedByteBuffer> buffers;
+    long target;
+    this.appendLock.lock();
+    try {
+      target = this.writtenPosition;
+      buffers = new ArrayList<>(this.pendingForce);
+      this.pendingForce.clear();
+      buffers.add(this.segment);
+    } finally {
+      this.appendLock.unlock();
+    }
+    for (MappedByteBuffer buffer : buffers) {
+      buffer.force();
+    }
+    return target;
+  }
+
+  private ByteBuffer reserve(int payloadSize) {
+    if (!this.recovered) {
+      throw new IllegalStateException("Journal must be recovered before appending");
+    }
+    int recordSize = HEADER_SIZE + payloadSize + CRC_SIZE;
+    if (recordSize > this.segmentSize) {
+      throw new IllegalArgumentException("Journal record of " + recordSize + " bytes exceeds the segment size");
+    }
+    if (this.segment.remaining() < recordSize) {
+      // the zero length left at the end tells recovery to continue with the next segment
+      this.pendingForce.add(this.segment);
+      this.segmentIndex++;
+      this.segment = map(this.segmentIndex);
+    }
+    this.segment.putInt(HEADER_SIZE - 4 + payloadSize);
+    return this.segment;
+  }
+
+  private long commit(ByteBuffer buffer, int start) {
+    int end = buffer.position();
+    ByteBuffer record = buffer.duplicate();
+    record.limit(end).position(start);
+    this.crc.reset();
+    this.crc.update(record);
+    buffer.putInt((int) this.crc.getValue());
+    long position = this.segmentIndex * this.segmentSize + buffer.position();
+    this.writtenPosition = position;
+    return position;
+  }
+
+  private static int idSize(String accountId) {
+    int length = accountId.length();
+    for (int i = 0; i < length; i++) {
+      if (accountId.charAt(i) >= 0x80) {
+        length = accountId.getBytes(StandardCharsets.UTF_8).length;
+        break;
+      }
+    }
+    if (length > MAX_ID_LENGTH) {
+      throw new IllegalArgumentException("Account id too long for the journal");
+    }
+    return 2 + length;
+  }
+
+  private static void writeId(ByteBuffer buffer, String accountId) {
+    int length = accountId.length();
+    int lengthPosition = buffer.position();
+    buffer.putShort((short) length);
+    for (int i = 0; i < length; i++) {
+      char c = accountId.charAt(i);
+      if (c >= 0x80) {
+        // not plain ASCII, fall back to the encoder
+        byte[] bytes = accountId.getBytes(StandardCharsets.UTF_8);
+        buffer.position(lengthPosition);
+        buffer.putShort((short) bytes.length).put(bytes);
+        return;
+      }
+      buffer.put((byte) c);
+    }
+  }
+
+  private static String readId(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getShort()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private File segmentFile(long index) {
+    return new File(this.directory, String.format("journal-%016d.log", index));
+  }
+
+  private MappedByteBuffer map(long index) {
+    try (RandomAccessFile file = new RandomAccessFile(segmentFile(index), "rw")) {
+      file.setLength(this.segmentSize);
+      return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Cannot map journal segment " + index, ex);
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    awaitDurable(this.writtenPosition);
+  }
+}
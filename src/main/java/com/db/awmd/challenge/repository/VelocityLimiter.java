@@ -0,0 +1,235 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MinorUnits;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * VelocityLimiter limits the number and the total of the transfers an account may make within a time window, such
+ * as at most 10 transfers or 1000 in total per minute. Each rule counts in a sliding window of BUCKETS buckets, the
+ * window moves on a bucket at a time, so it spans between three quarters of the rule's window and the full window.
+ *
+ * <p>The counters live on the account, next to its balance, so a check needs no lookup beyond the account the
+ * transfer already has. A bucket is a single long holding its bucket number, a transfer count and an amount:
+ * <pre>
+ *   bits 63-40: bucket number, modulo 2^24
+ *   bits 39-28: transfer count
+ *   bits 27-0:  amount in units of amount-scale
+ * </pre>
+ * A rule costs BUCKETS longs per account, allocated with the account's first checked debit. A transfer is counted
+ * with one compare and set per rule, which fails if another transfer changed the bucket since it was checked, so
+ * concurrent transfers cannot exceed a rule together. Only transfers racing across a bucket boundary are checked
+ * against buckets the other has not filled yet. Amounts are rounded up to amount-scale.
+ *
+ * <p>Bucket numbers wrap after 2^24 buckets, counts left by an account idle for exactly that long are taken as
+ * current. With a one minute window that is 8 years.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.velocity", name = "enabled", havingValue = "true")
+public class VelocityLimiter {
+
+  static final int BUCKETS = 4;
+
+  private static final int AMOUNT_BITS = 28;
+
+  private static final int COUNT_BITS = 12;
+
+  private static final long MAX_AMOUNT = (1L << AMOUNT_BITS) - 1;
+
+  private static final long MAX_COUNT = (1L << COUNT_BITS) - 1;
+
+  private static final long NUMBER_MASK = (1L << (64 - AMOUNT_BITS - COUNT_BITS)) - 1;
+
+  private final Rule[] rules;
+
+  private final int amountScale;
+
+  /**
+   * @param rules window seconds, maximum number of transfers and maximum total per rule, separated by colons. A
+   * maximum of 0 is no limit.
+   * @param amountScale scale the totals are counted in.
+   */
+  @Autowired
+  public VelocityLimiter(@Value("${accounts.velocity.rules:}") String[] rules,
+    @Value("${accounts.velocity.amount-scale:2}") int amountScale) {
+    if (amountScale < 0 || amountScale > MinorUnits.MAX_SCALE) {
+      throw new IllegalArgumentException("Velocity amount scale must be between 0 and " + MinorUnits.MAX_SCALE);
+    }
+    this.amountScale = amountScale;
+    List<Rule> parsed = new ArrayList<>();
+    for (String rule : rules) {
+      if (!rule.trim().isEmpty()) {
+        parsed.add(parse(rule.trim(), amountScale));
+      }
+    }
+    this.rules = parsed.toArray(new Rule[0]);
+    log.info("Checking transfers against {} velocity rules", this.rules.length);
+  }
+
+  private static Rule parse(String rule, int amountScale) {
+    String[] fields = rule.split(":");
+    if (fields.length != 3) {
+      throw new IllegalArgumentException("Velocity rule " + rule + " is not <window seconds>:<count>:<amount>");
+    }
+    long windowSeconds = Long.parseLong(fields[0].trim());
+    long maxCount = Long.parseLong(fields[1].trim());
+    BigDecimal maxAmount = new BigDecimal(fields[2].trim()).setScale(amountScale, RoundingMode.DOWN);
+    if (windowSeconds < 1 || maxCount < 0 || maxCount > MAX_COUNT) {
+      throw new IllegalArgumentException("Velocity rule " + rule + " needs a window of at least a second and a count "
+        + "between 0 and " + MAX_COUNT);
+    }
+    if (maxAmount.signum() < 0 || maxAmount.unscaledValue().compareTo(BigInteger.valueOf(MAX_AMOUNT)) > 0) {
+      throw new IllegalArgumentException("Velocity rule " + rule + " needs an amount between 0 and "
+        + MinorUnits.toBigDecimal(MAX_AMOUNT, amountScale));
+    }
+    return new Rule(windowSeconds * 1000L / BUCKETS, maxCount == 0 ? Long.MAX_VALUE : maxCount,
+      maxAmount.signum() == 0 ? Long.MAX_VALUE : maxAmount.unscaledValue().longValue());
+  }
+
+  /**
+   * tryRecord counts a debit of the account against every rule.
+   * @param account
+   * @param amountUnits
+   * @param amountScale
+   * @param nowMillis epoch millis.
+   * @return false if a rule would be exceeded, then nothing was counted.
+   */
+  public boolean tryRecord(Account account, long amountUnits, int amountScale, long nowMillis) {
+    if (this.rules.length == 0) {
+      return true;
+    }
+    AtomicLongArray counters = account.velocityCounters(this.rules.length * BUCKETS);
+    long amount = toRuleUnits(amountUnits, amountScale);
+    for (int i = 0; i < this.rules.length; i++) {
+      if (!tryAdd(counters, i * BUCKETS, this.rules[i], amount, nowMillis)) {
+        for (int j = 0; j < i; j++) {
+          remove(counters, j * BUCKETS, this.rules[j], amount, nowMillis);
+        }
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * unrecord takes back a debit counted by tryRecord with the same arguments, for a transfer that was not applied.
+   */
+  public void unrecord(Account account, long amountUnits, int amountScale, long nowMillis) {
+    if (this.rules.length == 0) {
+      return;
+    }
+    AtomicLongArray counters = account.velocityCounters(this.rules.length * BUCKETS);
+    long amount = toRuleUnits(amountUnits, amountScale);
+    for (int i = 0; i < this.rules.length; i++) {
+      remove(counters, i * BUCKETS, this.rules[i], amount, nowMillis);
+    }
+  }
+
+  /**
+   * tryAdd sums the earlier buckets of the window, which no longer change, and adds the transfer to the current
+   * bucket if the sum including it stays within the rule.
+   */
+  private static boolean tryAdd(AtomicLongArray counters, int base, Rule rule, long amount, long nowMillis) {
+    long number = nowMillis / rule.bucketMillis;
+    long count = 1L;
+    long total = amount;
+    for (int k = 1; k < BUCKETS; k++) {
+      long bucket = counters.get(base + (int) ((number - k) % BUCKETS));
+      if (numberOf(bucket) == ((number - k) & NUMBER_MASK)) {
+        count += countOf(bucket);
+        total += amountOf(bucket);
+      }
+    }
+    int slot = base + (int) (number % BUCKETS);
+    while (true) {
+      long bucket = counters.get(slot);
+      long bucketCount = 0L;
+      long bucketAmount = 0L;
+      if (numberOf(bucket) == (number & NUMBER_MASK)) {
+        bucketCount = countOf(bucket);
+        bucketAmount = amountOf(bucket);
+      }
+      if (count + bucketCount > rule.maxCount || total + bucketAmount > rule.maxAmount) {
+        return false;
+      }
+      // a rule without one of the limits may count past the bucket's capacity, that count saturates
+      long updated = pack(number, Math.min(MAX_COUNT, bucketCount + 1L), Math.min(MAX_AMOUNT, bucketAmount + amount));
+      if (counters.compareAndSet(slot, bucket, updated)) {
+        return true;
+      }
+    }
+  }
+
+  private static void remove(AtomicLongArray counters, int base, Rule rule, long amount, long nowMillis) {
+    long number = nowMillis / rule.bucketMillis;
+    int slot = base + (int) (number % BUCKETS);
+    while (true) {
+      long bucket = counters.get(slot);
+      if (numberOf(bucket) != (number & NUMBER_MASK)) {
+        // the bucket was reused for a later window, the transfer no longer counts anyway
+        return;
+      }
+      long updated = pack(number, Math.max(0L, countOf(bucket) - 1L), Math.max(0L, amountOf(bucket) - amount));
+      if (counters.compareAndSet(slot, bucket, updated)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * toRuleUnits converts an amount to units of amount-scale, rounding up, and caps it above the largest limit.
+   */
+  private long toRuleUnits(long units, int scale) {
+    if (scale <= this.amountScale) {
+      long factor = MinorUnits.rescale(1L, scale, this.amountScale);
+      return units > MAX_AMOUNT / factor ? MAX_AMOUNT + 1L : units * factor;
+    }
+    long divisor = MinorUnits.rescale(1L, this.amountScale, scale);
+    return Math.min(MAX_AMOUNT + 1L, units / divisor + (units % divisor == 0L ? 0L : 1L));
+  }
+
+  private static long pack(long number, long count, long amount) {
+    return ((number & NUMBER_MASK) << (COUNT_BITS + AMOUNT_BITS)) | (count << AMOUNT_BITS) | amount;
+  }
+
+  private static long numberOf(long bucket) {
+    return bucket >>> (COUNT_BITS + AMOUNT_BITS);
+  }
+
+  private static long countOf(long bucket) {
+    return (bucket >>> AMOUNT_BITS) & MAX_COUNT;
+  }
+
+  private static long amountOf(long bucket) {
+    return bucket & MAX_AMOUNT;
+  }
+
+  /**
+   * Rule is one limit, both maximums are Long.MAX_VALUE when not limited.
+   */
+  private static final class Rule {
+
+    private final long bucketMillis;
+
+    private final long maxCount;
+
+    private final long maxAmount;
+
+    private Rule(long bucketMillis, long maxCount, long maxAmount) {
+      this.bucketMillis = bucketMillis;
+      this.maxCount = maxCount;
+      this.maxAmount = maxAmount;
+    }
+  }
+}
@@ -1,16 +1,24 @@
 package com.db.awmd.challenge.service;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountBalances;
+import com.db.awmd.challenge.domain.Statement;
+import com.db.awmd.challenge.domain.StatementEntry;
+import com.db.awmd.challenge.domain.StatementHistory;
 import com.db.awmd.challenge.repository.AccountsRepository;
 import lombok.Getter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 
 @Service
 public class AccountsService {
 
+  public static final int MAX_STATEMENT_PAGE = 1000;
+
   @Getter
   private final AccountsRepository accountsRepository;
 
@@ -27,7 +35,7 @@ public class AccountsService {
   }
 
   public boolean validateBalance( Account account, BigDecimal amount){
-    return account != null && account.getBalance().compareTo(amount) >= 0;
+    return account != null && account.getAvailableBalance().compareTo(amount) >= 0;
   }
 
   public static final boolean isValidAccountNumber(String accountNumber){
@@ -39,4 +47,52 @@ public class AccountsService {
   public Account getAccount(String accountId) {
     return this.accountsRepository.getAccount(accountId);
   }
+
+  /**
+   * @return the ledger, held and available balance of the account, null if it does not exist.
+   */
+  public AccountBalances getBalances(String accountId) {
+    Account account = this.accountsRepository.getAccount(accountId);
+    return account == null ? null : account.getBalances();
+  }
+
+  /**
+   * getStatement returns a page of the transfers booked on an account, oldest first. The page starts at the cursor
+   * if one is given, otherwise at the first booking not older than from. Both bounds are found by binary search, so
+   * the cost of a page does not depend on the length of the history.
+   * @param accountId
+   * @param from epoch millis, inclusive, or null.
+   * @param to epoch millis, exclusive, or null.
+   * @param cursor nextCursor of the previous page, or null.
+   * @param limit maximum number of entries, 1 to MAX_STATEMENT_PAGE.
+   * @return the page, null if the account does not exist.
+   */
+  public Statement getStatement(String accountId, Long from, Long to, Long cursor, int limit) {
+    if (limit < 1 || limit > MAX_STATEMENT_PAGE) {
+      throw new IllegalArgumentException("Limit must be between 1 and " + MAX_STATEMENT_PAGE);
+    }
+    if (cursor != null && cursor < 0) {
+      throw new IllegalArgumentException("Cursor must not be negative");
+    }
+    Account account = this.accountsRepository.getAccount(accountId);
+    if (account == null) {
+      return null;
+    }
+    StatementHistory history = account.getHistory();
+    // entries appended after this read are left to the next page
+    int size = history.size();
+    int start;
+    if (cursor != null) {
+      start = (int) Math.min(cursor, size);
+    } else {
+      start = from == null ? 0 : Math.min(history.firstAtOrAfter(from), size);
+    }
+    int end = to == null ? size : Math.min(history.firstAtOrAfter(to), size);
+    List<StatementEntry> entries = new ArrayList<>(Math.max(0, Math.min(limit, end - start)));
+    int next = start;
+    while (next < end && entries.size() < limit) {
+      entries.add(history.get(next++));
+    }
+    return new Statement(account.getAccountId(), entries, next < end ? Long.valueOf(next) : null);
+  }
 }
@@ -0,0 +1,308 @@
+package com.db.awmd.challenge.service;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AdmissionController limits the number of transfers in progress so that under overload the excess is turned away
+ * at once instead of queueing until every transfer is slow. The limit adapts to the latency measured: once per window
+ * the average latency of the window is compared with a long term average, the limit shrinks by their ratio when the
+ * window was slower than the tolerance allows and grows by its square root otherwise, a gradient limit. A window in
+ * which less than half of the limit was used leaves the limit as it is.
+ *
+ * <p>A transfer over the limit waits a bounded time for a permit, when the wait queue is full or the wait ends it is
+ * rejected. No account may hold more than its share of the limit, so the transfers of one hot account cannot starve
+ * the others, and a transfer over its account's share is rejected without waiting. Accounts are counted in stripes by
+ * id, accounts sharing a stripe share their share.
+ *
+ * <p>Acquiring and releasing a permit is lock free unless transfers are waiting. Waiting takes a ReentrantLock, not a
+ * monitor, so a waiting virtual thread does not pin its carrier. A caller that must not block, such as an event loop,
+ * acquires without waiting.
+ */
+@Component
+@ConditionalOnProperty(prefix = "accounts.admission", name = "enabled", havingValue = "true")
+public class AdmissionController {
+
+    /**
+     * Returned by acquire instead of a permit.
+     */
+    public static final int REJECTED = -1;
+
+    private static final int STRIPES = 64;
+
+    private static final int ADMITTED = 0;
+
+    private static final int LIMIT_REACHED = 1;
+
+    private static final int ACCOUNT_SHARE_REACHED = 2;
+
+    /**
+     * A window is closed once it is long enough and holds at least this many transfers.
+     */
+    private static final int MIN_WINDOW_SAMPLES = 10;
+
+    /**
+     * A window may be this much slower than the long term average before the limit shrinks.
+     */
+    private static final double TOLERANCE = 1.5;
+
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * Windows averaged by the long term latency.
+     */
+    private static final int LONG_WINDOWS = 100;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final long windowNanos;
+
+    private final long maxWaitNanos;
+
+    private final int maxQueue;
+
+    private final double accountShare;
+
+    @Getter
+    private final long retryAfterSeconds;
+
+    private volatile int limit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicIntegerArray accountsInFlight = new AtomicIntegerArray(STRIPES);
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final ReentrantLock waitLock = new ReentrantLock();
+
+    private final Condition released = this.waitLock.newCondition();
+
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+
+    private final LongAdder windowLatency = new LongAdder();
+
+    private final LongAdder windowSamples = new LongAdder();
+
+    /**
+     * Most transfers in progress at once during the window, updated without synchronisation as an estimate.
+     */
+    private volatile int windowMaxInFlight;
+
+    /**
+     * Guarded by this, like longLatency.
+     */
+    private double estimatedLimit;
+
+    private double longLatency;
+
+    private final LongAdder admitted = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    @Autowired
+    public AdmissionController(@Value("${accounts.admission.initial-limit:64}") int initialLimit,
+                               @Value("${accounts.admission.min-limit:8}") int minLimit,
+                               @Value("${accounts.admission.max-limit:1024}") int maxLimit,
+                               @Value("${accounts.admission.window-ms:100}") long windowMillis,
+                               @Value("${accounts.admission.max-wait-ms:10}") long maxWaitMillis,
+                               @Value("${accounts.admission.max-queue:128}") int maxQueue,
+                               @Value("${accounts.admission.account-share:0.25}") double accountShare,
+                               @Value("${accounts.admission.retry-after-seconds:1}") long retryAfterSeconds) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.maxQueue = maxQueue;
+        this.accountShare = Math.min(1.0, accountShare);
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.estimatedLimit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.limit = (int) this.estimatedLimit;
+    }
+
+    /**
+     * acquire takes a permit for a transfer from the account, waiting for one at most max-wait-ms.
+     * @param accountId the account debited.
+     * @return the permit to release once the transfer is done, or REJECTED.
+     */
+    public int acquire(String accountId) {
+        return acquire(accountId, true);
+    }
+
+    /**
+     * acquire takes a permit for a transfer from the account.
+     * @param accountId the account debited.
+     * @param wait false to reject at once instead of waiting for a permit.
+     * @return the permit to release once the transfer is done, or REJECTED.
+     */
+    public int acquire(String accountId, boolean wait) {
+        int stripe = stripeOf(accountId);
+        int result = tryAcquire(stripe);
+        if (result == ADMITTED || (result == LIMIT_REACHED && wait && this.maxWaitNanos > 0 && await(stripe))) {
+            this.admitted.increment();
+            return stripe;
+        }
+        this.rejected.increment();
+        return REJECTED;
+    }
+
+    /**
+     * release returns a permit and records the latency of the transfer it admitted.
+     * @param permit
+     * @param latencyNanos
+     */
+    public void release(int permit, long latencyNanos) {
+        this.accountsInFlight.decrementAndGet(permit);
+        this.inFlight.decrementAndGet();
+        if (this.waiting.get() > 0) {
+            this.waitLock.lock();
+            try {
+                this.released.signal();
+            } finally {
+                this.waitLock.unlock();
+            }
+        }
+        this.windowLatency.add(latencyNanos);
+        this.windowSamples.increment();
+        long start = this.windowStart.get();
+        long now = System.nanoTime();
+        if (now - start >= this.windowNanos && this.windowSamples.sum() >= MIN_WINDOW_SAMPLES
+                && this.windowStart.compareAndSet(start, now)) {
+            closeWindow();
+        }
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("limit", this.limit);
+        snapshot.put("inFlight", this.inFlight.get());
+        snapshot.put("waiting", this.waiting.get());
+        snapshot.put("admitted", this.admitted.sum());
+        snapshot.put("rejected", this.rejected.sum());
+        return snapshot;
+    }
+
+    /**
+     * tryAcquire counts the transfer on its account's stripe first, a transfer over its share does not take a
+     * permit from the others even for a moment.
+     */
+    private int tryAcquire(int stripe) {
+        int currentLimit = this.limit;
+        int accountLimit = Math.max(1, (int) (currentLimit * this.accountShare));
+        while (true) {
+            int account = this.accountsInFlight.get(stripe);
+            if (account >= accountLimit) {
+                return ACCOUNT_SHARE_REACHED;
+            }
+            if (this.accountsInFlight.compareAndSet(stripe, account, account + 1)) {
+                break;
+            }
+        }
+        while (true) {
+            int current = this.inFlight.get();
+            if (current >= currentLimit) {
+                this.accountsInFlight.decrementAndGet(stripe);
+                return LIMIT_REACHED;
+            }
+            if (this.inFlight.compareAndSet(current, current + 1)) {
+                if (current + 1 > this.windowMaxInFlight) {
+                    this.windowMaxInFlight = current + 1;
+                }
+                return ADMITTED;
+            }
+        }
+    }
+
+    /**
+     * await waits for a released permit until max-wait-ms have passed, if the queue is not full.
+     * @return true if a permit was taken.
+     */
+    private boolean await(int stripe) {
+        if (this.waiting.incrementAndGet() > this.maxQueue) {
+            this.waiting.decrementAndGet();
+            return false;
+        }
+        long remaining = this.maxWaitNanos;
+        this.waitLock.lock();
+        try {
+            while (true) {
+                int result = tryAcquire(stripe);
+                if (result == ADMITTED) {
+                    return true;
+                }
+                if (result == ACCOUNT_SHARE_REACHED || remaining <= 0) {
+                    // the wakeup this thread may have taken is passed on to the next one waiting
+                    this.released.signal();
+                    return false;
+                }
+                remaining = this.released.awaitNanos(remaining);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            this.waitLock.unlock();
+            this.waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * closeWindow adapts the limit to the latency of the window just closed.
+     */
+    private synchronized void closeWindow() {
+        long samples = this.windowSamples.sumThenReset();
+        long latency = this.windowLatency.sumThenReset();
+        int maxInFlight = this.windowMaxInFlight;
+        this.windowMaxInFlight = this.inFlight.get();
+        if (samples == 0) {
+            return;
+        }
+        double shortLatency = Math.max(1.0, (double) latency / samples);
+        if (this.longLatency == 0) {
+            this.longLatency = shortLatency;
+        } else {
+            this.longLatency += (shortLatency - this.longLatency) / LONG_WINDOWS;
+            if (this.longLatency > 2 * shortLatency) {
+                // the service got much faster, the long term average catches up sooner
+                this.longLatency *= 0.95;
+            }
+        }
+        if (maxInFlight < this.estimatedLimit / 2) {
+            // the limit did not hold the transfers back, the window tells nothing about the capacity
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * this.longLatency / shortLatency));
+        double target = this.estimatedLimit * gradient + Math.sqrt(this.estimatedLimit);
+        double estimated = this.estimatedLimit * (1 - SMOOTHING) + target * SMOOTHING;
+        this.estimatedLimit = Math.max(this.minLimit, Math.min(this.maxLimit, estimated));
+        this.limit = (int) this.estimatedLimit;
+    }
+
+    private static int stripeOf(String accountId) {
+        int hash = accountId == null ? 0 : accountId.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+}
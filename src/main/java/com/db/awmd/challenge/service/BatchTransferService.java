@@ -0,0 +1,154 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+@Service
+@Slf4j
+public class BatchTransferService {
+
+    private final TransactionService transactionService;
+
+    private final Validator validator;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Batches with fewer transfers than this are applied on the calling thread.
+     */
+    private final int parallelThreshold;
+
+    @Autowired
+    public BatchTransferService(TransactionService transactionService, Validator validator,
+                                @Value("${accounts.batch.parallelism:0}") int parallelism,
+                                @Value("${accounts.batch.parallel-threshold:64}") int parallelThreshold) {
+        this.transactionService = transactionService;
+        this.validator = validator;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * transferBatch method applies a batch of transfers. In ATOMIC mode the whole batch is applied under one lock
+     * pass or not at all. It is not idempotent, a transfer with a request id is rejected as INVALID_REQUEST rather than
+     * applied again on a retry. In BEST_EFFORT mode the batch is split into groups of transfers that share no account,
+     * the groups are applied in parallel and transfers within a group keep their batch order.
+     * @param transfers
+     * @param mode
+     * @return status of each transfer, in batch order.
+     */
+    public List<TransferStatus> transferBatch(List<MoneyTransfer> transfers, BatchMode mode) {
+        TransferStatus[] statuses = new TransferStatus[transfers.size()];
+        boolean valid = true;
+        for (int i = 0; i < statuses.length; i++) {
+            MoneyTransfer transfer = transfers.get(i);
+            if (transfer == null || !this.validator.validate(transfer).isEmpty()
+                    || (mode == BatchMode.ATOMIC && transfer.getRequestId() != null)) {
+                statuses[i] = TransferStatus.INVALID_REQUEST;
+                valid = false;
+            }
+        }
+
+        if (mode == BatchMode.ATOMIC) {
+            if (!valid) {
+                for (int i = 0; i < statuses.length; i++) {
+                    if (statuses[i] == null) {
+                        statuses[i] = TransferStatus.ABORTED;
+                    }
+                }
+                return Arrays.asList(statuses);
+            }
+            return this.transactionService.transferAll(transfers);
+        }
+
+        List<List<Integer>> groups = groupByAccounts(transfers, statuses);
+        if (transfers.size() < this.parallelThreshold || groups.size() < 2) {
+            groups.forEach(group -> applyGroup(transfers, group, statuses));
+        } else {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(groups.size());
+            for (List<Integer> group : groups) {
+                tasks.add(this.pool.submit(() -> applyGroup(transfers, group, statuses)));
+            }
+            tasks.forEach(ForkJoinTask::join);
+        }
+        return Arrays.asList(statuses);
+    }
+
+    /**
+     * groupByAccounts splits the transfers still without a status into groups so that no account is used by two
+     * groups, using union-find over the account ids.
+     */
+    private List<List<Integer>> groupByAccounts(List<MoneyTransfer> transfers, TransferStatus[] statuses) {
+        int[] parent = new int[transfers.size()];
+        Map<String, Integer> firstUse = new HashMap<>();
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+            if (statuses[i] != null) {
+                continue;
+            }
+            MoneyTransfer transfer = transfers.get(i);
+            Integer index = i;
+            union(parent, i, firstUse.computeIfAbsent(transfer.getAccountFrom(), id -> index));
+            union(parent, i, firstUse.computeIfAbsent(transfer.getAccountTo(), id -> index));
+        }
+        Map<Integer, List<Integer>> groups = new HashMap<>();
+        for (int i = 0; i < parent.length; i++) {
+            if (statuses[i] == null) {
+                groups.computeIfAbsent(find(parent, i), root -> new ArrayList<>()).add(i);
+            }
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        // keep the smaller index as root so the group order follows the batch order
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parent[rootA] = rootB;
+        }
+    }
+
+    private void applyGroup(List<MoneyTransfer> transfers, List<Integer> group, TransferStatus[] statuses) {
+        for (int i : group) {
+            MoneyTransfer transfer = transfers.get(i);
+            try {
+                statuses[i] = this.transactionService.tryTransfer(transfer.getAccountFrom(), transfer.getAccountTo(),
+                        transfer.getAmount(), transfer.getRequestId());
+            } catch (RuntimeException ex) {
+                log.warn("Batch transfer {} failed", transfer, ex);
+                statuses[i] = TransferStatus.INVALID_REQUEST;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.pool.shutdown();
+    }
+}
@@ -0,0 +1,230 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BulkCreateResult;
+import com.db.awmd.challenge.domain.BulkCreateResult.LineError;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * BulkAccountsService creates and looks up accounts from newline delimited JSON, one account or id per line. The
+ * payload is read a line at a time and never held in memory as a whole.
+ */
+@Service
+@Slf4j
+public class BulkAccountsService {
+
+    private final AccountsService accountsService;
+
+    private final ObjectReader accountReader;
+
+    private final ObjectReader idReader;
+
+    private final ObjectWriter writer;
+
+    private final Validator validator;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Lines inserted by one task.
+     */
+    private final int chunkSize;
+
+    private final int maxReportedErrors;
+
+    @Autowired
+    public BulkAccountsService(AccountsService accountsService, ObjectMapper objectMapper, Validator validator,
+                               @Value("${accounts.bulk.parallelism:0}") int parallelism,
+                               @Value("${accounts.bulk.chunk-size:1024}") int chunkSize,
+                               @Value("${accounts.bulk.max-reported-errors:1000}") int maxReportedErrors) {
+        this.accountsService = accountsService;
+        this.accountReader = objectMapper.readerFor(Account.class);
+        this.idReader = objectMapper.readerFor(String.class);
+        this.writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.validator = validator;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxReportedErrors = maxReportedErrors;
+    }
+
+    /**
+     * createAccounts creates one account per line. Lines are handed to the pool in chunks while reading goes on, at
+     * most two chunks per thread are in flight so a slow repository holds the reader back. A line that is no valid
+     * account, or whose id exists already, fails on its own and does not stop the others.
+     * @param ndjson
+     * @return the number of accounts created and the errors by line number.
+     * @throws IOException if the payload cannot be read, accounts of lines read before are kept.
+     */
+    public BulkCreateResult createAccounts(InputStream ndjson) throws IOException {
+        int permits = this.pool.getParallelism() * 2;
+        Semaphore inFlight = new Semaphore(permits);
+        AtomicLong created = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        List<LineError> errors = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(ndjson, StandardCharsets.UTF_8))) {
+            long lineNumber = 0;
+            long[] lineNumbers = new long[this.chunkSize];
+            String[] lines = new String[this.chunkSize];
+            int size = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                lineNumbers[size] = lineNumber;
+                lines[size++] = line;
+                if (size == this.chunkSize) {
+                    submit(lineNumbers, lines, size, inFlight, created, failed, errors);
+                    lineNumbers = new long[this.chunkSize];
+                    lines = new String[this.chunkSize];
+                    size = 0;
+                }
+            }
+            submit(lineNumbers, lines, size, inFlight, created, failed, errors);
+        } finally {
+            inFlight.acquireUninterruptibly(permits);
+        }
+        List<LineError> sorted;
+        synchronized (errors) {
+            sorted = new ArrayList<>(errors);
+        }
+        sorted.sort(Comparator.comparingLong(LineError::getLine));
+        return new BulkCreateResult(created.get(), failed.get(), sorted);
+    }
+
+    private void submit(long[] lineNumbers, String[] lines, int size, Semaphore inFlight, AtomicLong created,
+                        AtomicLong failed, List<LineError> errors) {
+        if (size == 0) {
+            return;
+        }
+        inFlight.acquireUninterruptibly();
+        this.pool.execute(() -> {
+            try {
+                for (int i = 0; i < size; i++) {
+                    String error = createAccount(lines[i]);
+                    if (error == null) {
+                        created.incrementAndGet();
+                    } else if (failed.incrementAndGet() <= this.maxReportedErrors) {
+                        synchronized (errors) {
+                            errors.add(new LineError(lineNumbers[i], error));
+                        }
+                    }
+                }
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * @return null if the account was created, otherwise the reason it was not.
+     */
+    private String createAccount(String line) {
+        Account account;
+        try {
+            account = this.accountReader.readValue(line);
+        } catch (JsonProcessingException ex) {
+            return ex.getOriginalMessage();
+        } catch (IOException ex) {
+            return ex.getMessage();
+        }
+        if (account == null) {
+            return "Account must be provided.";
+        }
+        Set<ConstraintViolation<Account>> violations = this.validator.validate(account);
+        if (!violations.isEmpty()) {
+            return violations.stream()
+                    .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining(", "));
+        }
+        try {
+            this.accountsService.createAccount(account);
+            return null;
+        } catch (DuplicateAccountIdException ex) {
+            return ex.getMessage();
+        } catch (RuntimeException ex) {
+            log.warn("Bulk creation of account {} failed", account.getAccountId(), ex);
+            return "Account could not be created";
+        }
+    }
+
+    /**
+     * writeBalances looks up one id per line and writes one line per id, in the same order, the account or the
+     * reason it could not be looked up.
+     * @param ndjson JSON strings, one per line.
+     * @param out
+     * @throws IOException
+     */
+    public void writeBalances(InputStream ndjson, OutputStream out) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(ndjson, StandardCharsets.UTF_8));
+             JsonGenerator generator = this.writer.getFactory().createGenerator(out)) {
+            generator.setRootValueSeparator(null);
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String accountId;
+                try {
+                    accountId = this.idReader.readValue(line);
+                } catch (JsonProcessingException ex) {
+                    writeError(generator, "line", lineNumber, ex.getOriginalMessage());
+                    continue;
+                }
+                Account account = accountId == null ? null : this.accountsService.getAccount(accountId);
+                if (account == null) {
+                    writeError(generator, "accountId", accountId, "Account id " + accountId + " not found");
+                } else {
+                    this.writer.writeValue(generator, account);
+                    generator.writeRaw('\n');
+                }
+            }
+        }
+    }
+
+    private static void writeError(JsonGenerator generator, String field, Object value, String error)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeObjectField(field, value);
+        generator.writeStringField("error", error);
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.pool.shutdown();
+    }
+}
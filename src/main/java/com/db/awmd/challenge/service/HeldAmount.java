@@ -0,0 +1,50 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Hold;
+import com.db.awmd.challenge.domain.MinorUnits;
+
+/**
+ * HeldAmount is the compact form a hold is kept in until it is settled, the amount is kept in minor units.
+ */
+final class HeldAmount {
+
+    final long id;
+
+    final String accountId;
+
+    final long amountUnits;
+
+    final int amountScale;
+
+    /**
+     * Epoch millis the hold expires at.
+     */
+    final long expiresAt;
+
+    /**
+     * Set once the hold was captured, released or has expired, guarded by this.
+     */
+    boolean settled;
+
+    /**
+     * Expiry timer, guarded by the wheel it is scheduled in.
+     */
+    TimingWheel.Timer<HeldAmount> timer;
+
+    HeldAmount(long id, String accountId, long amountUnits, int amountScale, long expiresAt) {
+        this.id = id;
+        this.accountId = accountId;
+        this.amountUnits = amountUnits;
+        this.amountScale = amountScale;
+        this.expiresAt = expiresAt;
+    }
+
+    Hold toHold() {
+        Hold hold = new Hold();
+        hold.setId(this.id);
+        hold.setAccountId(this.accountId);
+        hold.setAmount(MinorUnits.toBigDecimal(this.amountUnits, this.amountScale));
+        hold.setExpiresAt(this.expiresAt);
+        return hold;
+    }
+}
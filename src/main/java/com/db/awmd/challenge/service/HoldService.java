@@ -0,0 +1,261 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Hold;
+import com.db.awmd.challenge.domain.HoldCapture;
+import com.db.awmd.challenge.domain.MinorUnits;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HoldService places holds on account balances and settles them: a capture transfers the held amount, a release or
+ * the expiry makes it available again. The held amount is reserved by the account itself, under the same lock as a
+ * transfer, so a transfer can never spend it and nothing is locked beyond the account.
+ *
+ * <p>Holds wait for their expiry in timing wheels, spread over several wheels by id so that placing and settling
+ * holds on different threads rarely meets on a wheel lock. Each hold costs its entry and one timer, a background
+ * thread advances the wheels and releases the expired holds. A hold is settled exactly once, whichever of capture,
+ * release and expiry comes first.
+ *
+ * <p>Holds are kept in memory only, after a restart every balance is fully available again.
+ */
+@Service
+@Slf4j
+public class HoldService {
+
+    private static final int WHEEL_COUNT = 16;
+
+    private final AccountsRepository accountsRepository;
+
+    private final NotificationDispatcher notificationDispatcher;
+
+    private final TransactionService transactionService;
+
+    private final long tickMillis;
+
+    private final long defaultTtlMillis;
+
+    private final Map<Long, HeldAmount> holds = new ConcurrentHashMap<>();
+
+    private final TimingWheel<HeldAmount>[] wheels;
+
+    private final AtomicLong lastId = new AtomicLong();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "hold-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public HoldService(AccountsRepository accountsRepository, NotificationDispatcher notificationDispatcher,
+                       TransactionService transactionService,
+                       @Value("${accounts.holds.tick-ms:1000}") long tickMillis,
+                       @Value("${accounts.holds.default-ttl-seconds:604800}") long defaultTtlSeconds) {
+        this.accountsRepository = accountsRepository;
+        this.notificationDispatcher = notificationDispatcher;
+        this.transactionService = transactionService;
+        this.tickMillis = Math.max(1L, tickMillis);
+        this.defaultTtlMillis = TimeUnit.SECONDS.toMillis(defaultTtlSeconds);
+        this.wheels = newWheels(System.currentTimeMillis() / this.tickMillis);
+        this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                expire(System.currentTimeMillis());
+            } catch (RuntimeException ex) {
+                log.error("Releasing expired holds failed", ex);
+            }
+        }, this.tickMillis, this.tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * place holds the amount on the account if its available balance covers it.
+     * @param request
+     * @return the hold with its id and expiry.
+     * @throws TransactionException if the hold was rejected, with the reason as its status.
+     */
+    public Hold place(Hold request) {
+        int amountScale;
+        long amountUnits;
+        try {
+            amountScale = MinorUnits.scaleOf(request.getAmount());
+            amountUnits = MinorUnits.unitsOf(request.getAmount(), amountScale);
+        } catch (ArithmeticException ex) {
+            throw new TransactionException("Amount not supported: " + request.getAmount());
+        }
+        TransferStatus status = this.accountsRepository.hold(request.getAccountId(), amountUnits, amountScale);
+        if (status != TransferStatus.OK) {
+            throw new TransactionException("Hold of " + request.getAmount() + " on account " + request.getAccountId()
+                    + " rejected: " + status, status);
+        }
+        long ttlMillis = request.getTtlSeconds() == null ? this.defaultTtlMillis
+                : TimeUnit.SECONDS.toMillis(request.getTtlSeconds());
+        HeldAmount held = new HeldAmount(this.lastId.incrementAndGet(), request.getAccountId(), amountUnits,
+                amountScale, System.currentTimeMillis() + ttlMillis);
+        this.holds.put(held.id, held);
+        TimingWheel<HeldAmount> wheel = wheelOf(held.id);
+        synchronized (wheel) {
+            held.timer = wheel.schedule(held, deadlineOf(held.expiresAt));
+        }
+        return held.toHold();
+    }
+
+    /**
+     * @return the hold, null if it does not exist or was settled.
+     */
+    public Hold get(long id) {
+        HeldAmount held = this.holds.get(id);
+        return held == null ? null : held.toHold();
+    }
+
+    /**
+     * capture transfers the held amount, or the amount of the capture if it is less, and releases the rest.
+     * @param id
+     * @param capture
+     * @return OK, HOLD_NOT_FOUND, or why the transfer failed, in which case the hold is kept. OVERLOADED if admission
+     * control turned the capture away.
+     */
+    public TransferStatus capture(long id, HoldCapture capture) {
+        HeldAmount held = this.holds.get(id);
+        if (held == null) {
+            return TransferStatus.HOLD_NOT_FOUND;
+        }
+        BigDecimal amount = capture.getAmount() == null
+                ? MinorUnits.toBigDecimal(held.amountUnits, held.amountScale) : capture.getAmount();
+        int amountScale;
+        long amountUnits;
+        try {
+            amountScale = MinorUnits.scaleOf(amount);
+            amountUnits = MinorUnits.unitsOf(amount, amountScale);
+        } catch (ArithmeticException ex) {
+            return TransferStatus.INVALID_REQUEST;
+        }
+        if (MinorUnits.compare(amountUnits, amountScale, held.amountUnits, held.amountScale) > 0) {
+            return TransferStatus.INVALID_REQUEST;
+        }
+        // a capture debits the account like a transfer and takes an admission permit like one
+        TransferStatus status = this.transactionService.admitted(held.accountId, TransferStatus.OVERLOADED, true,
+                () -> captureHeld(held, capture.getAccountTo(), amountUnits, amountScale));
+        if (status != TransferStatus.OK) {
+            return status;
+        }
+        remove(held);
+        this.notificationDispatcher.transferCompleted(this.accountsRepository.getAccount(held.accountId),
+                this.accountsRepository.getAccount(capture.getAccountTo()), amount);
+        return TransferStatus.OK;
+    }
+
+    private TransferStatus captureHeld(HeldAmount held, String accountTo, long amountUnits, int amountScale) {
+        synchronized (held) {
+            if (held.settled) {
+                return TransferStatus.HOLD_NOT_FOUND;
+            }
+            TransferStatus status = this.accountsRepository.captureHold(held.accountId, held.amountUnits,
+                    held.amountScale, accountTo, amountUnits, amountScale);
+            if (status == TransferStatus.OK) {
+                held.settled = true;
+            }
+            return status;
+        }
+    }
+
+    /**
+     * release makes the held amount available again.
+     * @return false if the hold does not exist or was settled.
+     */
+    public boolean release(long id) {
+        HeldAmount held = this.holds.get(id);
+        if (held == null || !releaseHeld(held)) {
+            return false;
+        }
+        remove(held);
+        return true;
+    }
+
+    public int getHoldCount() {
+        return this.holds.size();
+    }
+
+    /**
+     * expire advances the wheels to the given time and releases the holds expired until then.
+     * @param nowMillis epoch millis.
+     * @return the number of holds released.
+     */
+    public int expire(long nowMillis) {
+        List<HeldAmount> expired = new ArrayList<>();
+        for (TimingWheel<HeldAmount> wheel : this.wheels) {
+            synchronized (wheel) {
+                wheel.advance(nowMillis / this.tickMillis, timer -> expired.add(timer.getPayload()));
+            }
+        }
+        int released = 0;
+        for (HeldAmount held : expired) {
+            // the accounts are locked outside the wheel locks
+            if (releaseHeld(held)) {
+                this.holds.remove(held.id, held);
+                released++;
+            }
+        }
+        return released;
+    }
+
+    private boolean releaseHeld(HeldAmount held) {
+        synchronized (held) {
+            if (held.settled) {
+                return false;
+            }
+            this.accountsRepository.releaseHold(held.accountId, held.amountUnits, held.amountScale);
+            held.settled = true;
+            return true;
+        }
+    }
+
+    private void remove(HeldAmount held) {
+        this.holds.remove(held.id, held);
+        TimingWheel<HeldAmount> wheel = wheelOf(held.id);
+        synchronized (wheel) {
+            if (held.timer != null) {
+                wheel.cancel(held.timer);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static TimingWheel<HeldAmount>[] newWheels(long startTick) {
+        TimingWheel<HeldAmount>[] wheels = (TimingWheel<HeldAmount>[]) new TimingWheel<?>[WHEEL_COUNT];
+        for (int i = 0; i < WHEEL_COUNT; i++) {
+            wheels[i] = new TimingWheel<>(startTick);
+        }
+        return wheels;
+    }
+
+    private TimingWheel<HeldAmount> wheelOf(long id) {
+        return this.wheels[(int) (id & (WHEEL_COUNT - 1))];
+    }
+
+    /**
+     * deadlineOf rounds up, a hold is never released before its time.
+     */
+    private long deadlineOf(long expiresAt) {
+        return (expiresAt + this.tickMillis - 1) / this.tickMillis;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+}
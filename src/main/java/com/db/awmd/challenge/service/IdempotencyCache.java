@@ -0,0 +1,160 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.TransferStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IdempotencyCache remembers the outcome of recent transfers by their request id, so that a retried request gets the
+ * original outcome instead of transferring again. Entries are kept in insertion order next to the map, since all of
+ * them live for the same time the oldest entry is always the next to expire. Every insert evicts the expired entries
+ * and, above the size limit, the oldest ones, so each operation costs O(1) amortised.
+ */
+@Component
+public class IdempotencyCache {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Queue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final int maxEntries;
+
+    private final long ttlNanos;
+
+    @Autowired
+    public IdempotencyCache(@Value("${accounts.idempotency.max-entries:1000000}") int maxEntries,
+                            @Value("${accounts.idempotency.ttl-seconds:3600}") long ttlSeconds) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    /**
+     * claim returns the entry of the request id, a new one unless an earlier request with the id is still cached.
+     * Exactly one caller of an entry succeeds to start it, it then owns the entry and must complete or abandon it.
+     * @param requestId
+     * @param accountFrom
+     * @param accountTo
+     * @param amount
+     * @return
+     */
+    public Entry claim(String requestId, String accountFrom, String accountTo, BigDecimal amount) {
+        long now = System.nanoTime();
+        Entry entry = new Entry(requestId, accountFrom, accountTo, amount, now);
+        while (true) {
+            Entry existing = this.entries.putIfAbsent(requestId, entry);
+            if (existing == null) {
+                this.insertionOrder.add(entry);
+                this.size.incrementAndGet();
+                evict(now);
+                return entry;
+            }
+            if (now - existing.createdAt < this.ttlNanos) {
+                return existing;
+            }
+            // expired but not evicted yet, the request counts as new
+            if (this.entries.remove(requestId, existing)) {
+                this.size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * complete stores the outcome of a started entry and releases the requests waiting for it.
+     */
+    public void complete(Entry entry, TransferStatus status) {
+        entry.status = status;
+        entry.done.countDown();
+    }
+
+    /**
+     * abandon drops a started entry whose transfer ended without an outcome, a retry may then run it again.
+     */
+    public void abandon(Entry entry) {
+        if (this.entries.remove(entry.requestId, entry)) {
+            this.size.decrementAndGet();
+        }
+        complete(entry, null);
+    }
+
+    public int size() {
+        return this.size.get();
+    }
+
+    private void evict(long now) {
+        Entry oldest;
+        while ((oldest = this.insertionOrder.peek()) != null
+                && (this.size.get() > this.maxEntries || now - oldest.createdAt >= this.ttlNanos)) {
+            if (this.insertionOrder.remove(oldest) && this.entries.remove(oldest.requestId, oldest)) {
+                this.size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Entry is the outcome of one request id, status is null until the transfer has completed.
+     */
+    public static final class Entry {
+
+        private final String requestId;
+
+        private final String accountFrom;
+
+        private final String accountTo;
+
+        private final BigDecimal amount;
+
+        private final long createdAt;
+
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile TransferStatus status;
+
+        private Entry(String requestId, String accountFrom, String accountTo, BigDecimal amount, long createdAt) {
+            this.requestId = requestId;
+            this.accountFrom = accountFrom;
+            this.accountTo = accountTo;
+            this.amount = amount;
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * matches checks that a retry carries the same transfer as the original request.
+         */
+        public boolean matches(String accountFrom, String accountTo, BigDecimal amount) {
+            return this.accountFrom.equals(accountFrom) && this.accountTo.equals(accountTo)
+                    && this.amount.compareTo(amount) == 0;
+        }
+
+        /**
+         * start claims the entry for running the transfer.
+         * @return true for the first caller only.
+         */
+        public boolean start() {
+            return !this.started.get() && this.started.compareAndSet(false, true);
+        }
+
+        /**
+         * await waits until the entry has been completed.
+         * @return the status of the transfer, null if it was abandoned.
+         */
+        public TransferStatus await() throws InterruptedException {
+            this.done.await();
+            return this.status;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * NotificationDispatcher decouples transfer notifications from the request thread. Transfers enqueue a small event
+ * into a bounded queue and return, worker threads drain the queue in batches, coalesce the events of one account
+ * into a single notification and hand it to the NotificationService. The description strings are only built on the
+ * worker threads.
+ */
+@Service
+@Slf4j
+public class NotificationDispatcher {
+
+    /**
+     * OverflowPolicy decides what happens to a notification when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait up to the offer timeout for space, then drop the new notification.
+         */
+        BLOCK,
+        /**
+         * Drop the new notification.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest queued notification to make space for the new one.
+         */
+        DROP_OLDEST,
+        /**
+         * Deliver the notification on the calling thread.
+         */
+        CALLER_RUNS
+    }
+
+    private final NotificationService notificationService;
+
+    private final BlockingQueue<Notification> queue;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final long offerTimeoutNanos;
+
+    private final int batchSize;
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile boolean running = true;
+
+    @Autowired
+    public NotificationDispatcher(NotificationService notificationService,
+                                  @Value("${accounts.notification.queue-capacity:65536}") int queueCapacity,
+                                  @Value("${accounts.notification.workers:1}") int workerCount,
+                                  @Value("${accounts.notification.batch-size:256}") int batchSize,
+                                  @Value("${accounts.notification.overflow-policy:BLOCK}") OverflowPolicy overflowPolicy,
+                                  @Value("${accounts.notification.offer-timeout-ms:10}") long offerTimeoutMillis) {
+        this.notificationService = notificationService;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.overflowPolicy = overflowPolicy;
+        this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+        this.batchSize = batchSize;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::drainLoop, "notification-dispatcher-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            this.workers.add(worker);
+        }
+    }
+
+    /**
+     * transferCompleted queues the debit notification of the sender and the credit notification of the beneficiary.
+     * @param fromAccount
+     * @param toAccount
+     * @param amount
+     */
+    public void transferCompleted(Account fromAccount, Account toAccount, BigDecimal amount) {
+        dispatch(new Notification(fromAccount, toAccount.getAccountId(), amount, true));
+        dispatch(new Notification(toAccount, fromAccount.getAccountId(), amount, false));
+    }
+
+    /**
+     * @return number of notifications dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * @return number of notifications waiting for delivery.
+     */
+    public int getQueuedCount() {
+        return this.queue.size();
+    }
+
+    private void dispatch(Notification notification) {
+        if (this.queue.offer(notification)) {
+            return;
+        }
+        switch (this.overflowPolicy) {
+            case BLOCK:
+                try {
+                    if (this.queue.offer(notification, this.offerTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                drop(notification);
+                break;
+            case DROP_OLDEST:
+                // another producer may take the freed slot, so retry a bounded number of times
+                for (int attempt = 0; attempt < 3; attempt++) {
+                    Notification oldest = this.queue.poll();
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                    if (this.queue.offer(notification)) {
+                        return;
+                    }
+                }
+                drop(notification);
+                break;
+            case CALLER_RUNS:
+                deliver(notification.account, notification.describe());
+                break;
+            default:
+                drop(notification);
+        }
+    }
+
+    private void drop(Notification notification) {
+        this.dropped.increment();
+        log.debug("Notification queue full, dropped notification for {}", notification.account.getAccountId());
+    }
+
+    private void drainLoop() {
+        List<Notification> batch = new ArrayList<>(this.batchSize);
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                Notification first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                this.queue.drainTo(batch, this.batchSize - 1);
+                deliverBatch(batch);
+            } catch (InterruptedException ex) {
+                if (!this.running) {
+                    break;
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * deliverBatch coalesces the notifications of a batch per account, so an account receiving many transfers gets
+     * one notification listing all of them.
+     */
+    private void deliverBatch(List<Notification> batch) {
+        Map<String, List<Notification>> byAccount = new LinkedHashMap<>();
+        for (Notification notification : batch) {
+            byAccount.computeIfAbsent(notification.account.getAccountId(), id -> new ArrayList<>()).add(notification);
+        }
+        for (List<Notification> notifications : byAccount.values()) {
+            StringBuilder description = new StringBuilder();
+            for (Notification notification : notifications) {
+                if (description.length() > 0) {
+                    description.append('\n');
+                }
+                description.append(notification.describe());
+            }
+            deliver(notifications.get(0).account, description.toString());
+        }
+    }
+
+    private void deliver(Account account, String description) {
+        try {
+            this.notificationService.notifyAboutTransfer(account, description);
+        } catch (RuntimeException ex) {
+            log.error("Notification to owner of {} failed", account.getAccountId(), ex);
+        }
+    }
+
+    /**
+     * shutdown stops accepting work and waits for the workers to deliver what is still queued.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        this.running = false;
+        for (Thread worker : this.workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private static final class Notification {
+
+        private final Account account;
+
+        private final String counterpartyId;
+
+        private final BigDecimal amount;
+
+        private final boolean debit;
+
+        private Notification(Account account, String counterpartyId, BigDecimal amount, boolean debit) {
+            this.account = account;
+            this.counterpartyId = counterpartyId;
+            this.amount = amount;
+            this.debit = debit;
+        }
+
+        private String describe() {
+            if (this.debit) {
+                return "Amount " + this.amount + " has been debited from your account and sent to beneficiary account :" + this.counterpartyId;
+            }
+            return "Amount " + this.amount + " has been credited to your account. Money transfer from account: " + this.counterpartyId;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.MinorUnits;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.ScheduledTransfer;
+
+/**
+ * PendingTransfer is the compact form a scheduled transfer waits in, the amount is kept in minor units.
+ */
+final class PendingTransfer {
+
+    final long id;
+
+    final String accountFrom;
+
+    final String accountTo;
+
+    final long amountUnits;
+
+    final int amountScale;
+
+    final long intervalMillis;
+
+    /**
+     * Epoch millis of the next execution.
+     */
+    long executeAt;
+
+    PendingTransfer(long id, String accountFrom, String accountTo, long amountUnits, int amountScale,
+                    long executeAt, long intervalMillis) {
+        this.id = id;
+        this.accountFrom = accountFrom;
+        this.accountTo = accountTo;
+        this.amountUnits = amountUnits;
+        this.amountScale = amountScale;
+        this.executeAt = executeAt;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * toMoneyTransfer builds the transfer of the current execution. It carries no request id, an execution is
+     * dispatched at most once and client request ids stay the clients' own.
+     */
+    MoneyTransfer toMoneyTransfer() {
+        return new MoneyTransfer(this.accountFrom, this.accountTo,
+                MinorUnits.toBigDecimal(this.amountUnits, this.amountScale));
+    }
+
+    /**
+     * execution copies the current execution as a transfer of its own, which does not move on with this one.
+     */
+    PendingTransfer execution() {
+        return new PendingTransfer(this.id, this.accountFrom, this.accountTo, this.amountUnits, this.amountScale,
+                this.executeAt, 0L);
+    }
+
+    ScheduledTransfer toScheduledTransfer() {
+        ScheduledTransfer transfer = new ScheduledTransfer();
+        transfer.setId(this.id);
+        transfer.setAccountFrom(this.accountFrom);
+        transfer.setAccountTo(this.accountTo);
+        transfer.setAmount(MinorUnits.toBigDecimal(this.amountUnits, this.amountScale));
+        transfer.setExecuteAt(this.executeAt);
+        transfer.setIntervalSeconds(this.intervalMillis / 1000L);
+        return transfer;
+    }
+}
@@ -0,0 +1,383 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.MinorUnits;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.ScheduledTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ScheduledTransferService holds transfers to be executed later, once or at a fixed interval, in a timing wheel.
+ * A background thread advances the wheel every tick and dispatches the transfers that became due as best effort
+ * batches.
+ *
+ * <p>With the store enabled a transfer is logged before it is scheduled and a cancel before it returns. An execution
+ * is logged as done before it is dispatched, so it is applied at most once: the idempotency cache does not survive a
+ * restart and the journal restores the debits, an execution dispatched again after a crash would be applied twice.
+ * An execution cut off by a crash between logging and applying it, or whose dispatch failed, is lost and has to be
+ * made up by hand. Executions of a recurring transfer missed while the service was down are skipped, only the first
+ * one overdue is executed. An execution turned away by admission control was not applied, it is logged as owed
+ * after the dispatch and dispatched again with the next tick, after a restart as well.
+ *
+ * <p>The wheel and the timers are guarded by a lock held for in-memory changes only, so get never waits for the disk.
+ * Writes to the store are serialised by a second lock, the log lock, taken before the state lock where both are
+ * needed. Ticks are serialised as well, the log is only compacted by a tick once the executions it collected are
+ * logged as done. Both are ReentrantLocks, a request thread waiting for the disk does not pin a virtual thread's
+ * carrier.
+ */
+@Service
+@Slf4j
+public class ScheduledTransferService {
+
+    /**
+     * The log is rewritten once it holds this many records per scheduled transfer, and at least COMPACTION_MIN.
+     */
+    private static final int COMPACTION_RATIO = 4;
+
+    private static final long COMPACTION_MIN = 1 << 16;
+
+    private final BatchTransferService batchTransferService;
+
+    /**
+     * Log of the scheduled transfers, null when they are kept in memory only.
+     */
+    private final ScheduledTransferStore store;
+
+    private final long tickMillis;
+
+    private final int batchSize;
+
+    private final TimingWheel<PendingTransfer> wheel;
+
+    private final Map<Long, TimingWheel.Timer<PendingTransfer>> timers = new HashMap<>();
+
+    private final ReentrantLock stateLock = new ReentrantLock();
+
+    private final ReentrantLock logLock = new ReentrantLock();
+
+    private final ReentrantLock tickLock = new ReentrantLock();
+
+    private final AtomicLong lastId = new AtomicLong();
+
+    /**
+     * Executions turned away by admission control, dispatched again with the next tick. Guarded by the tick lock.
+     */
+    private final List<PendingTransfer> overloaded = new ArrayList<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "scheduled-transfers");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public ScheduledTransferService(BatchTransferService batchTransferService, Optional<ScheduledTransferStore> store,
+                                    @Value("${accounts.scheduler.tick-ms:100}") long tickMillis,
+                                    @Value("${accounts.scheduler.batch-size:1024}") int batchSize) {
+        this.batchTransferService = batchTransferService;
+        this.store = store.orElse(null);
+        this.tickMillis = Math.max(1L, tickMillis);
+        this.batchSize = Math.max(1, batchSize);
+        this.wheel = new TimingWheel<>(System.currentTimeMillis() / this.tickMillis);
+        if (this.store != null) {
+            for (PendingTransfer transfer : this.store.load().values()) {
+                this.timers.put(transfer.id, this.wheel.schedule(transfer, deadlineOf(transfer.executeAt)));
+            }
+            this.overloaded.addAll(this.store.getOwed());
+            this.lastId.set(this.store.getMaxId());
+        }
+        this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                tick(System.currentTimeMillis());
+            } catch (RuntimeException ex) {
+                log.error("Dispatching scheduled transfers failed", ex);
+            }
+        }, this.tickMillis, this.tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * schedule adds a transfer executed at its executeAt and then every intervalSeconds, if set.
+     * @param request
+     * @return the scheduled transfer with its id.
+     * @throws IllegalArgumentException if the amount or the interval is not supported.
+     */
+    public ScheduledTransfer schedule(ScheduledTransfer request) {
+        int amountScale;
+        long amountUnits;
+        long intervalMillis;
+        try {
+            amountScale = MinorUnits.scaleOf(request.getAmount());
+            amountUnits = MinorUnits.unitsOf(request.getAmount(), amountScale);
+            intervalMillis = Math.multiplyExact(request.getIntervalSeconds(), 1000L);
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException("Amount or interval not supported: " + request);
+        }
+        PendingTransfer transfer = new PendingTransfer(this.lastId.incrementAndGet(), request.getAccountFrom(),
+                request.getAccountTo(), amountUnits, amountScale, request.getExecuteAt(), intervalMillis);
+        ScheduledTransfer scheduled = transfer.toScheduledTransfer();
+        if (this.store == null) {
+            add(transfer);
+            return scheduled;
+        }
+        this.logLock.lock();
+        try {
+            this.store.appendScheduled(transfer);
+            this.store.flush();
+            // added while the log lock is held, a compaction never misses a transfer already logged
+            add(transfer);
+        } finally {
+            this.logLock.unlock();
+        }
+        return scheduled;
+    }
+
+    private void add(PendingTransfer transfer) {
+        this.stateLock.lock();
+        try {
+            this.timers.put(transfer.id, this.wheel.schedule(transfer, deadlineOf(transfer.executeAt)));
+        } finally {
+            this.stateLock.unlock();
+        }
+    }
+
+    /**
+     * @return the scheduled transfer with its next execution time, null if it is not scheduled.
+     */
+    public ScheduledTransfer get(long id) {
+        this.stateLock.lock();
+        try {
+            TimingWheel.Timer<PendingTransfer> timer = this.timers.get(id);
+            return timer == null ? null : timer.getPayload().toScheduledTransfer();
+        } finally {
+            this.stateLock.unlock();
+        }
+    }
+
+    /**
+     * cancel removes a scheduled transfer, an execution already dispatched is not undone.
+     * @return false if the transfer was not scheduled.
+     */
+    public boolean cancel(long id) {
+        if (this.store == null) {
+            return remove(id);
+        }
+        this.logLock.lock();
+        try {
+            if (!remove(id)) {
+                return false;
+            }
+            this.store.appendRemoved(id);
+            this.store.flush();
+            return true;
+        } finally {
+            this.logLock.unlock();
+        }
+    }
+
+    private boolean remove(long id) {
+        this.stateLock.lock();
+        try {
+            TimingWheel.Timer<PendingTransfer> timer = this.timers.remove(id);
+            if (timer == null) {
+                return false;
+            }
+            this.wheel.cancel(timer);
+            return true;
+        } finally {
+            this.stateLock.unlock();
+        }
+    }
+
+    public int getPendingCount() {
+        this.stateLock.lock();
+        try {
+            return this.timers.size();
+        } finally {
+            this.stateLock.unlock();
+        }
+    }
+
+    /**
+     * tick advances the wheel to the given time and dispatches the transfers due until then.
+     * @param nowMillis epoch millis.
+     * @return the number of transfers dispatched.
+     */
+    public int tick(long nowMillis) {
+        List<PendingTransfer> retried;
+        List<PendingTransfer> due = new ArrayList<>();
+        // id and next execution time of each execution collected, 0 once the transfer is done
+        List<long[]> done = new ArrayList<>();
+        this.tickLock.lock();
+        try {
+            retried = new ArrayList<>(this.overloaded);
+            due.addAll(retried);
+            this.overloaded.clear();
+            this.stateLock.lock();
+            try {
+                this.wheel.advance(nowMillis / this.tickMillis, timer -> {
+                    PendingTransfer transfer = timer.getPayload();
+                    due.add(transfer.execution());
+                    if (transfer.intervalMillis > 0) {
+                        long next = transfer.executeAt + transfer.intervalMillis;
+                        if (next <= nowMillis) {
+                            // executions missed while the service was down are skipped
+                            next += ((nowMillis - next) / transfer.intervalMillis + 1) * transfer.intervalMillis;
+                        }
+                        transfer.executeAt = next;
+                        this.wheel.reschedule(timer, deadlineOf(next));
+                        done.add(new long[] {transfer.id, next});
+                    } else {
+                        this.timers.remove(transfer.id);
+                        done.add(new long[] {transfer.id, 0L});
+                    }
+                });
+            } finally {
+                this.stateLock.unlock();
+            }
+            if (this.store != null) {
+                logDone(done, retried);
+            }
+            List<PendingTransfer> turnedAway = dispatch(due);
+            this.overloaded.addAll(turnedAway);
+            if (this.store != null) {
+                logOwed(turnedAway);
+            }
+        } finally {
+            this.tickLock.unlock();
+        }
+        return due.size();
+    }
+
+    /**
+     * logDone logs the executions about to be dispatched as done, the owed ones as settled. A transfer cancelled
+     * meanwhile was logged as removed already, a later record for it is ignored on load.
+     */
+    private void logDone(List<long[]> done, List<PendingTransfer> retried) {
+        if (done.isEmpty() && retried.isEmpty()) {
+            return;
+        }
+        this.logLock.lock();
+        try {
+            for (long[] execution : done) {
+                if (execution[1] > 0L) {
+                    this.store.appendRescheduled(execution[0], execution[1]);
+                } else {
+                    this.store.appendRemoved(execution[0]);
+                }
+            }
+            for (PendingTransfer execution : retried) {
+                this.store.appendSettled(execution.id, execution.executeAt);
+            }
+            this.store.flush();
+        } finally {
+            this.logLock.unlock();
+        }
+    }
+
+    /**
+     * logOwed logs the executions turned away as owed again, and compacts the log if it grew too long.
+     */
+    private void logOwed(List<PendingTransfer> turnedAway) {
+        this.logLock.lock();
+        try {
+            if (!turnedAway.isEmpty()) {
+                for (PendingTransfer execution : turnedAway) {
+                    this.store.appendOwed(execution);
+                }
+                this.store.flush();
+            }
+            compactIfNeeded();
+        } finally {
+            this.logLock.unlock();
+        }
+    }
+
+    /**
+     * @return the executions turned away by admission control.
+     */
+    private List<PendingTransfer> dispatch(List<PendingTransfer> due) {
+        List<PendingTransfer> turnedAway = new ArrayList<>();
+        for (int start = 0; start < due.size(); start += this.batchSize) {
+            List<PendingTransfer> executions = due.subList(start, Math.min(due.size(), start + this.batchSize));
+            List<MoneyTransfer> batch = new ArrayList<>(executions.size());
+            for (PendingTransfer execution : executions) {
+                batch.add(execution.toMoneyTransfer());
+            }
+            List<TransferStatus> statuses;
+            try {
+                statuses = this.batchTransferService.transferBatch(batch, BatchMode.BEST_EFFORT);
+            } catch (RuntimeException ex) {
+                // the executions are logged as done already, the following batches are dispatched all the same
+                log.error("Dispatching scheduled transfers {} failed, they are not retried", batch, ex);
+                continue;
+            }
+            for (int i = 0; i < statuses.size(); i++) {
+                if (statuses.get(i) == TransferStatus.OVERLOADED) {
+                    turnedAway.add(executions.get(i));
+                } else if (statuses.get(i) != TransferStatus.OK) {
+                    log.warn("Scheduled transfer {} was rejected: {}", batch.get(i), statuses.get(i));
+                }
+            }
+        }
+        return turnedAway;
+    }
+
+    /**
+     * compactIfNeeded rewrites the log from the transfers and the owed executions in memory. Called by a tick holding
+     * the tick lock and the log lock, so every transfer logged is in memory, every execution collected is logged as
+     * done and every execution turned away is logged as owed.
+     */
+    private void compactIfNeeded() {
+        List<PendingTransfer> pending;
+        this.stateLock.lock();
+        try {
+            long live = (long) this.timers.size() + this.overloaded.size();
+            if (this.store.getRecordCount() <= Math.max(COMPACTION_MIN, COMPACTION_RATIO * live)) {
+                return;
+            }
+            pending = new ArrayList<>(this.timers.size());
+            for (TimingWheel.Timer<PendingTransfer> timer : this.timers.values()) {
+                pending.add(timer.getPayload());
+            }
+        } finally {
+            this.stateLock.unlock();
+        }
+        this.store.rewrite(pending, this.overloaded);
+    }
+
+    /**
+     * deadlineOf rounds up, a transfer is never executed before its time.
+     */
+    private long deadlineOf(long executeAt) {
+        return (executeAt + this.tickMillis - 1) / this.tickMillis;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.executor.shutdownNow();
+        if (this.store != null) {
+            this.logLock.lock();
+            try {
+                this.store.close();
+            } finally {
+                this.logLock.unlock();
+            }
+        }
+    }
+}
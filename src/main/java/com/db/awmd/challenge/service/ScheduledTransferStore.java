@@ -0,0 +1,310 @@
+package com.db.awmd.challenge.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ScheduledTransferStore keeps the scheduled transfers in a log file so they survive a restart. Every change is
+ * appended as a record, all big endian:
+ * <pre>
+ *   header:      int magic, int version
+ *   scheduled:   byte 1, long id, long execute at, long interval millis, long amount units, byte amount scale,
+ *                short from id length, from id bytes (UTF-8), short to id length, to id bytes (UTF-8)
+ *   rescheduled: byte 2, long id, long execute at
+ *   removed:     byte 3, long id
+ *   owed:        byte 4, then as scheduled, with the execute at of the execution and an interval of 0
+ *   settled:     byte 5, long id, long execute at
+ * </pre>
+ * An owed record keeps an execution that was turned away by admission control until it is dispatched again, apart
+ * from its transfer, which may have moved on or been removed meanwhile. A scheduled transfer costs one record of about
+ * 50 bytes plus its ids. The log is rewritten with the live transfers
+ * only on startup and whenever it holds many more records than live transfers. A record cut short by a crash is
+ * dropped on load.
+ *
+ * <p>The store is not thread safe, ScheduledTransferService serialises its writes.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.scheduler", name = "persistent", havingValue = "true")
+public class ScheduledTransferStore {
+
+    private static final int MAGIC = 0x53434844;
+
+    private static final int VERSION = 1;
+
+    private static final byte SCHEDULED = 1;
+
+    private static final byte RESCHEDULED = 2;
+
+    private static final byte REMOVED = 3;
+
+    private static final byte OWED = 4;
+
+    private static final byte SETTLED = 5;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String LOG_NAME = "scheduled.log";
+
+    private final File file;
+
+    private final boolean fsync;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private FileChannel channel;
+
+    private long recordCount;
+
+    private long maxId;
+
+    private final List<PendingTransfer> owed = new ArrayList<>();
+
+    @Autowired
+    public ScheduledTransferStore(@Value("${accounts.scheduler.directory:./data/scheduled}") String directory,
+                                  @Value("${accounts.scheduler.fsync:false}") boolean fsync) {
+        this(new File(directory), fsync);
+    }
+
+    public ScheduledTransferStore(File directory, boolean fsync) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create scheduler directory " + directory);
+        }
+        this.file = new File(directory, LOG_NAME);
+        this.fsync = fsync;
+    }
+
+    /**
+     * load reads the transfers still scheduled and the executions still owed, and then rewrites the log with them
+     * only. Must be called once before anything is appended.
+     * @return the scheduled transfers by id, in the order they were scheduled.
+     */
+    Map<Long, PendingTransfer> load() {
+        Map<Long, PendingTransfer> pending = new LinkedHashMap<>();
+        if (this.file.exists()) {
+            read(pending);
+        }
+        rewrite(pending.values(), this.owed);
+        log.info("Loaded {} scheduled transfers and {} owed executions from {}", pending.size(), this.owed.size(),
+                this.file);
+        return pending;
+    }
+
+    /**
+     * @return the executions owed according to the log read by load, in the order they were turned away.
+     */
+    List<PendingTransfer> getOwed() {
+        return this.owed;
+    }
+
+    /**
+     * @return the highest id ever scheduled according to the log, 0 if none.
+     */
+    long getMaxId() {
+        return this.maxId;
+    }
+
+    long getRecordCount() {
+        return this.recordCount;
+    }
+
+    private void read(Map<Long, PendingTransfer> pending) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException("Scheduled transfer log " + this.file + " has an unknown format");
+            }
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    return;
+                }
+                long id = in.readLong();
+                if (type == SCHEDULED || type == OWED) {
+                    long executeAt = in.readLong();
+                    long intervalMillis = in.readLong();
+                    long amountUnits = in.readLong();
+                    int amountScale = in.readByte();
+                    String accountFrom = readId(in);
+                    String accountTo = readId(in);
+                    PendingTransfer transfer = new PendingTransfer(id, accountFrom, accountTo, amountUnits, amountScale,
+                            executeAt, intervalMillis);
+                    if (type == SCHEDULED) {
+                        pending.put(id, transfer);
+                    } else {
+                        this.owed.add(transfer);
+                    }
+                    this.maxId = Math.max(this.maxId, id);
+                } else if (type == SETTLED) {
+                    long executeAt = in.readLong();
+                    this.owed.removeIf(execution -> execution.id == id && execution.executeAt == executeAt);
+                } else if (type == RESCHEDULED) {
+                    long executeAt = in.readLong();
+                    PendingTransfer transfer = pending.get(id);
+                    if (transfer != null) {
+                        transfer.executeAt = executeAt;
+                    }
+                } else if (type == REMOVED) {
+                    pending.remove(id);
+                } else {
+                    throw new IllegalStateException("Scheduled transfer log " + this.file + " has an unknown record "
+                            + type);
+                }
+            }
+        } catch (EOFException ex) {
+            // the last record was cut short, the log is rewritten without it
+            log.warn("Scheduled transfer log {} ends with an incomplete record, it is dropped", this.file);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot read scheduled transfer log " + this.file, ex);
+        }
+    }
+
+    private static String readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[in.readUnsignedShort()];
+        in.readFully(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    void appendScheduled(PendingTransfer transfer) {
+        append(SCHEDULED, transfer);
+    }
+
+    /**
+     * appendOwed logs an execution that is still to be dispatched, as built by PendingTransfer.execution.
+     */
+    void appendOwed(PendingTransfer execution) {
+        append(OWED, execution);
+    }
+
+    /**
+     * appendSettled logs an owed execution as about to be dispatched again.
+     */
+    void appendSettled(long id, long executeAt) {
+        reserve(17);
+        this.buffer.put(SETTLED).putLong(id).putLong(executeAt);
+        this.recordCount++;
+    }
+
+    private void append(byte type, PendingTransfer transfer) {
+        byte[] from = transfer.accountFrom.getBytes(StandardCharsets.UTF_8);
+        byte[] to = transfer.accountTo.getBytes(StandardCharsets.UTF_8);
+        reserve(38 + from.length + to.length);
+        this.buffer.put(type).putLong(transfer.id).putLong(transfer.executeAt).putLong(transfer.intervalMillis)
+                .putLong(transfer.amountUnits).put((byte) transfer.amountScale)
+                .putShort((short) from.length).put(from).putShort((short) to.length).put(to);
+        this.recordCount++;
+        this.maxId = Math.max(this.maxId, transfer.id);
+    }
+
+    void appendRescheduled(long id, long executeAt) {
+        reserve(17);
+        this.buffer.put(RESCHEDULED).putLong(id).putLong(executeAt);
+        this.recordCount++;
+    }
+
+    void appendRemoved(long id) {
+        reserve(9);
+        this.buffer.put(REMOVED).putLong(id);
+        this.recordCount++;
+    }
+
+    /**
+     * flush writes the appended records to the file, and forces them to disk if fsync is enabled.
+     */
+    void flush() {
+        drain();
+        if (this.fsync) {
+            try {
+                this.channel.force(false);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Cannot force scheduled transfer log " + this.file, ex);
+            }
+        }
+    }
+
+    /**
+     * rewrite replaces the log by one holding only the given transfers and owed executions. The new log is written under a temporary
+     * name and renamed once complete, a crash while rewriting leaves the old log in place.
+     */
+    void rewrite(Collection<PendingTransfer> pending, Collection<PendingTransfer> owed) {
+        if (this.channel != null) {
+            drain();
+        }
+        Path temporary = new File(this.file.getParentFile(), LOG_NAME + ".tmp").toPath();
+        try {
+            FileChannel previous = this.channel;
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer.putInt(MAGIC).putInt(VERSION);
+            this.recordCount = 0;
+            for (PendingTransfer transfer : pending) {
+                appendScheduled(transfer);
+            }
+            for (PendingTransfer execution : owed) {
+                appendOwed(execution);
+            }
+            drain();
+            this.channel.force(true);
+            if (previous != null) {
+                previous.close();
+            }
+            Files.move(temporary, this.file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot rewrite scheduled transfer log " + this.file, ex);
+        }
+    }
+
+    private void reserve(int size) {
+        if (this.buffer.remaining() < size) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        this.buffer.flip();
+        try {
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot write scheduled transfer log " + this.file, ex);
+        } finally {
+            this.buffer.clear();
+        }
+    }
+
+    void close() {
+        if (this.channel == null) {
+            return;
+        }
+        try {
+            flush();
+            this.channel.close();
+        } catch (IOException ex) {
+            log.warn("Cannot close scheduled transfer log {}", this.file, ex);
+        }
+    }
+}
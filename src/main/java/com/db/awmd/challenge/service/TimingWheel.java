@@ -0,0 +1,181 @@
+package com.db.awmd.challenge.service;
+
+import java.util.function.Consumer;
+
+/**
+ * TimingWheel is a hierarchical timing wheel of six levels with 64 slots each. A timer is put into the slot of the
+ * lowest level its deadline shares all higher digits with the current tick, in base 64. The slots of level 0 expire
+ * one per tick; whenever the current tick rolls over a digit, the slot of the higher level it reached is emptied and
+ * its timers are put into lower levels again. Scheduling, cancelling and each tick are O(1), every timer is moved at
+ * most once per level.
+ *
+ * <p>Timers are linked into their slot directly, the wheel allocates nothing per timer beyond the timer itself. With
+ * six levels the wheel covers 2^36 ticks, later deadlines wait in the top level. It is not thread safe.
+ */
+public final class TimingWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private static final int LEVELS = 6;
+
+    private final Timer<T>[] slots;
+
+    /**
+     * Current tick, the timers of all ticks up to it have expired.
+     */
+    private long now;
+
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long startTick) {
+        this.slots = (Timer<T>[]) new Timer<?>[LEVELS * SLOTS];
+        this.now = startTick;
+    }
+
+    public long getNow() {
+        return this.now;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * schedule adds a timer expiring at the given tick, a tick already passed expires with the next one.
+     */
+    public Timer<T> schedule(T payload, long deadline) {
+        Timer<T> timer = new Timer<>(payload);
+        reschedule(timer, deadline);
+        return timer;
+    }
+
+    /**
+     * reschedule moves a timer to another deadline, also one that has expired or was cancelled.
+     */
+    public void reschedule(Timer<T> timer, long deadline) {
+        cancel(timer);
+        timer.deadline = Math.max(deadline, this.now + 1);
+        place(timer);
+        this.size++;
+    }
+
+    /**
+     * @return false if the timer had expired or was cancelled before.
+     */
+    public boolean cancel(Timer<T> timer) {
+        if (timer.slot < 0) {
+            return false;
+        }
+        unlink(timer);
+        this.size--;
+        return true;
+    }
+
+    /**
+     * advance moves the wheel up to the given tick and passes every expired timer to the consumer, in deadline order.
+     * The consumer may reschedule the timer it gets.
+     */
+    public void advance(long tick, Consumer<Timer<T>> expired) {
+        while (this.now < tick) {
+            long current = ++this.now;
+            int highest = 0;
+            while (highest + 1 < LEVELS && (current & ((1L << (SLOT_BITS * (highest + 1))) - 1)) == 0) {
+                highest++;
+            }
+            // higher levels first, their timers may move down into slots cascaded after them
+            for (int level = highest; level > 0; level--) {
+                Timer<T> timer = detach(level * SLOTS + ((int) (current >>> (SLOT_BITS * level)) & SLOT_MASK));
+                while (timer != null) {
+                    Timer<T> next = timer.next;
+                    place(timer);
+                    timer = next;
+                }
+            }
+            Timer<T> timer = detach((int) current & SLOT_MASK);
+            while (timer != null) {
+                Timer<T> next = timer.next;
+                timer.next = null;
+                this.size--;
+                expired.accept(timer);
+                timer = next;
+            }
+        }
+    }
+
+    private void place(Timer<T> timer) {
+        long difference = timer.deadline ^ this.now;
+        int level = difference == 0 ? 0 : (63 - Long.numberOfLeadingZeros(difference)) / SLOT_BITS;
+        if (level >= LEVELS) {
+            level = LEVELS - 1;
+        }
+        int slot = level * SLOTS + ((int) (timer.deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+        Timer<T> head = this.slots[slot];
+        timer.slot = slot;
+        timer.prev = null;
+        timer.next = head;
+        if (head != null) {
+            head.prev = timer;
+        }
+        this.slots[slot] = timer;
+    }
+
+    /**
+     * detach empties a slot and returns its list of timers, which are marked as not scheduled.
+     */
+    private Timer<T> detach(int slot) {
+        Timer<T> head = this.slots[slot];
+        this.slots[slot] = null;
+        for (Timer<T> timer = head; timer != null; timer = timer.next) {
+            timer.slot = -1;
+            timer.prev = null;
+        }
+        return head;
+    }
+
+    private void unlink(Timer<T> timer) {
+        if (timer.prev == null) {
+            this.slots[timer.slot] = timer.next;
+        } else {
+            timer.prev.next = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.slot = -1;
+    }
+
+    /**
+     * Timer is one scheduled payload, linked into the slot it waits in.
+     */
+    public static final class Timer<T> {
+
+        private final T payload;
+
+        private long deadline;
+
+        private int slot = -1;
+
+        private Timer<T> prev;
+
+        private Timer<T> next;
+
+        private Timer(T payload) {
+            this.payload = payload;
+        }
+
+        public T getPayload() {
+            return this.payload;
+        }
+
+        public long getDeadline() {
+            return this.deadline;
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package com.db.awmd.challenge.service;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MinorUnits;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.MultiLegTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
 import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.metrics.TransferMetrics;
 import com.db.awmd.challenge.repository.AccountsRepository;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -9,7 +14,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
 
+/**
+ * TransactionService applies transfers for every transport, REST, binary and batches. With admission control enabled
+ * each call takes a permit for its debited account first and is answered OVERLOADED without being tried if it gets
+ * none, a batch or a multi-leg transfer takes one permit as a whole. HoldService takes one the same way for a capture.
+ */
 @Service
 @Slf4j
 public class TransactionService {
@@ -17,50 +32,299 @@ public class TransactionService {
     @Getter
     private final AccountsRepository accountsRepository;
 
-    private final EmailNotificationService emailNotificationService;
+    private final NotificationDispatcher notificationDispatcher;
+
+    private final TransferMetrics metrics;
+
+    private final IdempotencyCache idempotencyCache;
+
+    /**
+     * Limits the transfers in progress, null when admission control is disabled.
+     */
+    private final AdmissionController admissionController;
+
+    TransactionService(AccountsRepository accountsRepository, NotificationDispatcher notificationDispatcher,
+                       TransferMetrics metrics, IdempotencyCache idempotencyCache){
+        this(accountsRepository, notificationDispatcher, metrics, idempotencyCache, Optional.empty());
+    }
 
     @Autowired
-    TransactionService(AccountsRepository accountsRepository, EmailNotificationService emailNotificationService){
+    public TransactionService(AccountsRepository accountsRepository, NotificationDispatcher notificationDispatcher,
+                              TransferMetrics metrics, IdempotencyCache idempotencyCache,
+                              Optional<AdmissionController> admissionController){
         this.accountsRepository = accountsRepository;
-        this.emailNotificationService = emailNotificationService;
+        this.notificationDispatcher = notificationDispatcher;
+        this.metrics = metrics;
+        this.idempotencyCache = idempotencyCache;
+        this.admissionController = admissionController.orElse(null);
+    }
+
+    /**
+     * transferAmount with a request id applies the transfer at most once per id. A retry of a completed request gets
+     * the original outcome back without touching the accounts, a retry of a request still running waits for it.
+     * A request id reused for a different transfer is rejected.
+     * @param accountFrom
+     * @param accountTo
+     * @param amount
+     * @param requestId idempotency key chosen by the client, null to transfer unconditionally.
+     * @throws Exception
+     */
+    public void transferAmount(String accountFrom, String accountTo, BigDecimal amount, String requestId)
+            throws Exception {
+        TransferStatus status = tryTransfer(accountFrom, accountTo, amount, requestId);
+        if (status != TransferStatus.OK) {
+            throw rejection(status, accountFrom, accountTo, amount, requestId);
+        }
     }
 
     /**
      * transferAmount method checks if both From account and To account numbers are valid, performs basic check if
      * the account numbers are found in the repository, checks if both account numbers are same.
+     * The latency and outcome of every call are recorded in the transfer metrics.
      * @param accountFrom
      * @param accountTo
      * @param amount
      * @throws Exception
      */
     public void transferAmount(String accountFrom, String accountTo, BigDecimal amount) throws Exception {
+        transferAmount(accountFrom, accountTo, amount, null);
+    }
 
-        //Validate both the accounts. For now concrete implementation of isValidAccountNumber() not provided.
-        if(!(AccountsService.isValidAccountNumber(accountFrom) && AccountsService.isValidAccountNumber(accountTo))){
-            throw new TransactionException("AccountNumber not valid. Please enter valid From account and To account");
+    /**
+     * tryTransfer is transferAmount reporting a rejected transfer through its status instead of an exception, so a
+     * rejection costs no more than an accepted transfer.
+     * @param accountFrom
+     * @param accountTo
+     * @param amount
+     * @param requestId idempotency key chosen by the client, null to transfer unconditionally.
+     * @return OK if the transfer was applied, otherwise the reason it was not.
+     */
+    public TransferStatus tryTransfer(String accountFrom, String accountTo, BigDecimal amount, String requestId) {
+        return tryTransfer(accountFrom, accountTo, amount, requestId, true);
+    }
+
+    /**
+     * tryTransfer with wait false answers OVERLOADED at once when admission control has no permit left, for callers
+     * that must not block, such as an event loop serving many connections.
+     */
+    public TransferStatus tryTransfer(String accountFrom, String accountTo, BigDecimal amount, String requestId,
+                                      boolean wait) {
+        return admitted(accountFrom, TransferStatus.OVERLOADED, wait, () -> idempotent(requestId, accountFrom,
+                accountTo, amount, () -> transfer(accountFrom, accountTo, amount)));
+    }
+
+    /**
+     * tryTransfer with the amount in minor units, for transports carrying it that way. The units go to the repository
+     * as they are, a BigDecimal of the amount is only built for a request id or a notification.
+     */
+    public TransferStatus tryTransfer(String accountFrom, String accountTo, long amountUnits, int amountScale,
+                                      String requestId, boolean wait) {
+        return admitted(accountFrom, TransferStatus.OVERLOADED, wait, () -> idempotent(requestId, accountFrom,
+                accountTo, requestId == null ? null : MinorUnits.toBigDecimal(amountUnits, amountScale),
+                () -> transfer(accountFrom, accountTo, amountUnits, amountScale, null)));
+    }
+
+    /**
+     * admitted runs the action with a permit of the admission controller, if it is enabled.
+     * @param accountFrom the account debited.
+     * @param overloaded result if no permit was given.
+     * @param wait false to give up at once if no permit is left.
+     */
+    <T> T admitted(String accountFrom, T overloaded, boolean wait, Supplier<T> action) {
+        if (this.admissionController == null) {
+            return action.get();
+        }
+        int permit = this.admissionController.acquire(accountFrom, wait);
+        if (permit == AdmissionController.REJECTED) {
+            return overloaded;
+        }
+        long startTime = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            this.admissionController.release(permit, System.nanoTime() - startTime);
         }
-        //Check if both the accounts are existing in the repository.
-        Account fromAccount = this.accountsRepository.getAccount(accountFrom);
-        if(fromAccount==null){
-            throw new TransactionException("From Account not found: "+ accountFrom);
+    }
+
+    /**
+     * idempotent runs the transfer once per request id, measured.
+     * @param amount amount the request id is matched with, only needed with a request id.
+     */
+    private TransferStatus idempotent(String requestId, String accountFrom, String accountTo, BigDecimal amount,
+                                      Supplier<TransferStatus> transfer) {
+        if (requestId == null) {
+            return transferMeasured(transfer);
+        }
+        IdempotencyCache.Entry entry = this.idempotencyCache.claim(requestId, accountFrom, accountTo, amount);
+        if (!entry.matches(accountFrom, accountTo, amount)) {
+            return TransferStatus.REQUEST_ID_REUSED;
         }
+        if (entry.start()) {
+            TransferStatus status;
+            try {
+                status = transferMeasured(transfer);
+            } catch (RuntimeException | Error ex) {
+                this.idempotencyCache.abandon(entry);
+                throw ex;
+            }
+            this.idempotencyCache.complete(entry, status);
+            return status;
+        }
+        TransferStatus status;
+        try {
+            status = entry.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return TransferStatus.ABORTED;
+        }
+        // null if the first request ended without an outcome
+        return status == null ? TransferStatus.ABORTED : status;
+    }
 
-        Account toAccount = this.accountsRepository.getAccount(accountTo);
-        if(toAccount == null){
-            throw new TransactionException("To Account not found: "+ accountTo);
+    private TransferStatus transferMeasured(Supplier<TransferStatus> transfer) {
+        long startTime = this.metrics.startTimer();
+        // anything but a status is unexpected and counted as aborted
+        TransferStatus status = TransferStatus.ABORTED;
+        try {
+            status = transfer.get();
+            return status;
+        } finally {
+            this.metrics.transferCompleted(startTime, status);
         }
+    }
 
-        //Check if both the account numbers are same.
-        if(fromAccount.getAccountId().equals(toAccount.getAccountId())){
-            throw new TransactionException("Both From and To account cannot be same: "+ accountTo);
+    private TransferStatus transfer(String accountFrom, String accountTo, BigDecimal amount) {
+        //Convert the amount to minor units once, the repository works on primitives only.
+        int amountScale;
+        long amountUnits;
+        try {
+            amountScale = MinorUnits.scaleOf(amount);
+            amountUnits = MinorUnits.unitsOf(amount, amountScale);
+        } catch (ArithmeticException ex) {
+            return TransferStatus.INVALID_REQUEST;
+        }
+        return transfer(accountFrom, accountTo, amountUnits, amountScale, amount);
+    }
+
+    /**
+     * @param amount the amount as the caller gave it for the notification, null to build it from the units.
+     */
+    private TransferStatus transfer(String accountFrom, String accountTo, long amountUnits, int amountScale,
+                                    BigDecimal amount) {
+
+        //Validate both the accounts. For now concrete implementation of isValidAccountNumber() not provided.
+        if(!(AccountsService.isValidAccountNumber(accountFrom) && AccountsService.isValidAccountNumber(accountTo))){
+            return TransferStatus.INVALID_REQUEST;
         }
         log.info("Transfer initiated...");
-        boolean success = this.accountsRepository.moneyTransfer(accountFrom,accountTo,amount);
-        if(!success){
-            throw new TransactionException("No sufficient balance to make a transfer of "+amount+ " in the account: "+accountFrom);
+        //Existence, distinct accounts and balance are checked by the repository on the accounts it transfers between.
+        return this.accountsRepository.transfer(accountFrom, accountTo, amountUnits, amountScale,
+                (fromAccount, toAccount) -> this.notificationDispatcher.transferCompleted(fromAccount, toAccount,
+                        amount != null ? amount : MinorUnits.toBigDecimal(amountUnits, amountScale)));
+    }
+
+    /**
+     * rejection describes a rejected transfer for the callers of transferAmount. It is only built once a transfer was
+     * rejected and carries no stack trace.
+     */
+    private TransactionException rejection(TransferStatus status, String accountFrom, String accountTo,
+                                           BigDecimal amount, String requestId) {
+        switch (status) {
+            case ACCOUNT_NOT_FOUND:
+                // only a rejected transfer pays for the lookup telling which account is missing
+                if (this.accountsRepository.getAccount(accountFrom) == null) {
+                    return new TransactionException("From Account not found: " + accountFrom, status);
+                }
+                return new TransactionException("To Account not found: " + accountTo, status);
+            case SAME_ACCOUNT:
+                return new TransactionException("Both From and To account cannot be same: "+ accountTo, status);
+            case INSUFFICIENT_FUNDS:
+                return new TransactionException("No sufficient balance to make a transfer of "+amount+ " in the account: "+accountFrom, status);
+            case REQUEST_ID_REUSED:
+                return new TransactionException("Request id " + requestId + " was already used for another transfer", status);
+            case VELOCITY_LIMIT_EXCEEDED:
+                return new TransactionException("Transfer limit of account " + accountFrom + " reached", status);
+            case OVERLOADED:
+                return new TransactionException("Too many transfers in progress, please retry", status);
+            case ABORTED:
+                return new TransactionException("Transfer of request id " + requestId + " failed, please retry", status);
+            default:
+                return new TransactionException("Invalid transfer of " + amount + " from " + accountFrom + " to " + accountTo, status);
+        }
+    }
+
+    /**
+     * transferAll method applies a list of transfers atomically, either all of them succeed or none is applied.
+     * Notifications are only queued once the whole list has been applied. The request ids of the transfers are not
+     * checked, BatchTransferService rejects an atomic batch carrying them.
+     * @param transfers
+     * @return status of each transfer, in list order.
+     */
+    public List<TransferStatus> transferAll(List<MoneyTransfer> transfers) {
+        if (transfers.isEmpty()) {
+            return this.accountsRepository.moneyTransferAll(transfers);
         }
-        this.emailNotificationService.notifyAboutTransfer(fromAccount,"Amount "+amount.toString()+" has been debited from your account and sent to beneficiary account :" + toAccount.getAccountId());
-        this.emailNotificationService.notifyAboutTransfer(toAccount,"Amount "+ amount.toString()+" has been credited to your account. Money transfer from account: " +fromAccount.getAccountId());
+        return admitted(transfers.get(0).getAccountFrom(),
+                Collections.nCopies(transfers.size(), TransferStatus.OVERLOADED), true,
+                () -> transferAllAdmitted(transfers));
+    }
 
+    private List<TransferStatus> transferAllAdmitted(List<MoneyTransfer> transfers) {
+        List<TransferStatus> statuses = this.accountsRepository.moneyTransferAll(transfers);
+        if (statuses.stream().allMatch(status -> status == TransferStatus.OK)) {
+            for (MoneyTransfer transfer : transfers) {
+                this.notificationDispatcher.transferCompleted(this.accountsRepository.getAccount(transfer.getAccountFrom()),
+                        this.accountsRepository.getAccount(transfer.getAccountTo()), transfer.getAmount());
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * transferLegs method debits one account once and credits every leg, all legs or none. The amounts are
+     * converted to minor units here, the repository checks the accounts and the sum of the legs against the balance.
+     * Notifications are only queued once all legs have been applied.
+     * @param accountFrom
+     * @param legs
+     * @return status of each leg, in leg order.
+     */
+    public List<TransferStatus> transferLegs(String accountFrom, List<MultiLegTransfer.Leg> legs) {
+        return admitted(accountFrom, Collections.nCopies(legs.size(), TransferStatus.OVERLOADED), true,
+                () -> transferLegsAdmitted(accountFrom, legs));
+    }
+
+    private List<TransferStatus> transferLegsAdmitted(String accountFrom, List<MultiLegTransfer.Leg> legs) {
+        int size = legs.size();
+        String[] toAccountIds = new String[size];
+        long[] amountUnits = new long[size];
+        int[] amountScales = new int[size];
+        TransferStatus[] statuses = null;
+        for (int i = 0; i < size; i++) {
+            MultiLegTransfer.Leg leg = legs.get(i);
+            toAccountIds[i] = leg.getAccountTo();
+            try {
+                amountScales[i] = MinorUnits.scaleOf(leg.getAmount());
+                amountUnits[i] = MinorUnits.unitsOf(leg.getAmount(), amountScales[i]);
+            } catch (ArithmeticException ex) {
+                if (statuses == null) {
+                    statuses = new TransferStatus[size];
+                    Arrays.fill(statuses, TransferStatus.ABORTED);
+                }
+                statuses[i] = TransferStatus.INVALID_REQUEST;
+            }
+        }
+        if (statuses != null) {
+            return Arrays.asList(statuses);
+        }
+        List<TransferStatus> result = this.accountsRepository.moneyTransferLegs(accountFrom, toAccountIds,
+                amountUnits, amountScales);
+        if (result.stream().allMatch(status -> status == TransferStatus.OK)) {
+            Account fromAccount = this.accountsRepository.getAccount(accountFrom);
+            for (MultiLegTransfer.Leg leg : legs) {
+                this.notificationDispatcher.transferCompleted(fromAccount,
+                        this.accountsRepository.getAccount(leg.getAccountTo()), leg.getAmount());
+            }
+        }
+        return result;
     }
 }
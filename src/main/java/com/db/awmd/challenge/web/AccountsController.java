@@ -1,8 +1,15 @@
 package com.db.awmd.challenge.web;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountBalances;
+import com.db.awmd.challenge.domain.BulkCreateResult;
+import com.db.awmd.challenge.domain.Statement;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.BulkAccountsService;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,6 +21,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
@@ -21,11 +29,16 @@ import org.springframework.web.bind.annotation.RestController;
 @Slf4j
 public class AccountsController {
 
+  public static final String NDJSON_VALUE = "application/x-ndjson";
+
   private final AccountsService accountsService;
 
+  private final BulkAccountsService bulkAccountsService;
+
   @Autowired
-  public AccountsController(AccountsService accountsService) {
+  public AccountsController(AccountsService accountsService, BulkAccountsService bulkAccountsService) {
     this.accountsService = accountsService;
+    this.bulkAccountsService = bulkAccountsService;
   }
 
   @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
@@ -40,10 +53,76 @@ public class AccountsController {
     return new ResponseEntity<>(HttpStatus.CREATED);
   }
 
+  /**
+   * createAccounts creates one account per line of the newline delimited JSON body, in parallel. Lines that cannot
+   * be created are reported by line number, the others are created regardless.
+   * @param body
+   * @return
+   * @throws IOException
+   */
+  @PostMapping(path = "/bulk", consumes = NDJSON_VALUE)
+  public ResponseEntity<BulkCreateResult> createAccounts(InputStream body) throws IOException {
+    BulkCreateResult result = this.bulkAccountsService.createAccounts(body);
+    log.info("Created {} accounts in bulk, {} failed", result.getCreated(), result.getFailed());
+    return new ResponseEntity<>(result, HttpStatus.OK);
+  }
+
+  /**
+   * getBalances reads one JSON string id per line and answers one line per id, the account or an error.
+   * @param body
+   * @param response
+   * @throws IOException
+   */
+  @PostMapping(path = "/balances", consumes = NDJSON_VALUE)
+  public void getBalances(InputStream body, HttpServletResponse response) throws IOException {
+    response.setContentType(NDJSON_VALUE);
+    this.bulkAccountsService.writeBalances(body, response.getOutputStream());
+  }
+
   @GetMapping(path = "/{accountId}")
   public Account getAccount(@PathVariable String accountId) {
     log.info("Retrieving account for id {}", accountId);
     return this.accountsService.getAccount(accountId);
   }
 
+  /**
+   * getBalances returns the ledger balance, the amount held and the balance available for transfers.
+   * @param accountId
+   * @return
+   */
+  @GetMapping(path = "/{accountId}/balances")
+  public ResponseEntity<Object> getBalances(@PathVariable String accountId) {
+    AccountBalances balances = this.accountsService.getBalances(accountId);
+    if (balances == null) {
+      return new ResponseEntity<>("Account id " + accountId + " not found", HttpStatus.NOT_FOUND);
+    }
+    return new ResponseEntity<>(balances, HttpStatus.OK);
+  }
+
+  /**
+   * getStatement returns the transfers booked on an account, a page at a time. Pass the nextCursor of a page as
+   * cursor to read the next one.
+   * @param accountId
+   * @param from epoch millis, inclusive.
+   * @param to epoch millis, exclusive.
+   * @param cursor
+   * @param limit
+   * @return
+   */
+  @GetMapping(path = "/{accountId}/statement")
+  public ResponseEntity<Object> getStatement(@PathVariable String accountId,
+    @RequestParam(required = false) Long from, @RequestParam(required = false) Long to,
+    @RequestParam(required = false) Long cursor, @RequestParam(defaultValue = "100") int limit) {
+    Statement statement;
+    try {
+      statement = this.accountsService.getStatement(accountId, from, to, cursor, limit);
+    } catch (IllegalArgumentException ex) {
+      return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+    if (statement == null) {
+      return new ResponseEntity<>("Account id " + accountId + " not found", HttpStatus.NOT_FOUND);
+    }
+    return new ResponseEntity<>(statement, HttpStatus.OK);
+  }
+
 }
@@ -0,0 +1,382 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.domain.MinorUnits;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.service.TransactionService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * BinaryTransferServer accepts transfers as binary frames over plain TCP, for clients sending many transfers for
+ * which JSON over HTTP costs more than the transfer itself. Every frame starts with its length, all big endian:
+ * <pre>
+ *   request:  int length, long correlation id, short from id length, from id bytes (UTF-8),
+ *             short to id length, to id bytes (UTF-8), long amount units, byte amount scale,
+ *             short request id length, request id bytes (UTF-8), 0 for none
+ *   response: int length (9), long correlation id, byte status
+ * </pre>
+ * The status byte is the code of the TransferStatus, see codeOf. A client may send any number of requests without
+ * waiting, they are answered in order. All requests read from a connection at once are applied before their
+ * responses are written back with one write.
+ *
+ * <p>Every request goes through TransactionService.tryTransfer like a REST transfer, after the checks the bean
+ * validation of MoneyTransfer does there, so both give the same results. The amount is passed on as the minor units
+ * of the frame, a BigDecimal is only built for a request id or a notification. The ids are decoded straight from the
+ * read buffer into Strings, the accounts and the idempotency cache are looked up by String.
+ *
+ * <p>Connections are spread over a few selector threads which also apply the transfers, a transfer waiting for the
+ * journal delays the other connections of its thread. A transfer over the admission limit is answered OVERLOADED at
+ * once, without waiting for a permit. A malformed frame closes the connection.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "accounts.binary", name = "enabled", havingValue = "true")
+public class BinaryTransferServer {
+
+    /**
+     * Largest frame accepted, including its length.
+     */
+    static final int MAX_FRAME_SIZE = 1 << 16;
+
+    private static final int RESPONSE_SIZE = 13;
+
+    /**
+     * Smallest request after the length, a request with empty ids.
+     */
+    private static final int MIN_REQUEST_SIZE = 8 + 2 + 2 + 8 + 1 + 2;
+
+    private static final int MAX_REQUEST_ID_LENGTH = 128;
+
+    private final TransactionService transactionService;
+
+    private final ServerSocketChannel serverChannel;
+
+    private final EventLoop[] loops;
+
+    private final Thread acceptor;
+
+    private volatile boolean running = true;
+
+    @Autowired
+    public BinaryTransferServer(TransactionService transactionService,
+                                @Value("${accounts.binary.port:7070}") int port,
+                                @Value("${accounts.binary.io-threads:0}") int ioThreads) throws IOException {
+        this.transactionService = transactionService;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        int threads = ioThreads > 0 ? ioThreads : Runtime.getRuntime().availableProcessors();
+        this.loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            this.loops[i] = new EventLoop();
+            Thread thread = new Thread(this.loops[i], "binary-transfers-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        this.acceptor = new Thread(this::accept, "binary-transfers-accept");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+        log.info("Accepting binary transfers on port {}", getPort());
+    }
+
+    public int getPort() {
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    private void accept() {
+        int next = 0;
+        while (this.running) {
+            try {
+                SocketChannel channel = this.serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                this.loops[next].add(channel);
+                next = (next + 1) % this.loops.length;
+            } catch (ClosedChannelException ex) {
+                return;
+            } catch (IOException ex) {
+                log.warn("Accepting a binary transfer connection failed", ex);
+            }
+        }
+    }
+
+    /**
+     * handle applies one request and appends its response.
+     * @param in the read buffer, positioned after the length of the frame.
+     * @param end the position after the frame.
+     * @return false if the frame is malformed.
+     */
+    private boolean handle(ByteBuffer in, int end, ByteBuffer out) {
+        long correlationId = in.getLong();
+        String accountFrom = readString(in, end);
+        String accountTo = accountFrom == null ? null : readString(in, end);
+        if (accountTo == null || end - in.position() < 11) {
+            return false;
+        }
+        long amountUnits = in.getLong();
+        int amountScale = in.get();
+        String requestId = readString(in, end);
+        if (requestId == null || in.position() != end) {
+            return false;
+        }
+        out.putLong(correlationId);
+        out.put(codeOf(transfer(accountFrom, accountTo, amountUnits, amountScale,
+                requestId.isEmpty() ? null : requestId)));
+        return true;
+    }
+
+    /**
+     * transfer checks what the bean validation of MoneyTransfer checks on the REST path and applies the transfer.
+     */
+    private TransferStatus transfer(String accountFrom, String accountTo, long amountUnits, int amountScale,
+                                    String requestId) {
+        if (accountFrom.isEmpty() || accountTo.isEmpty() || amountScale < 0 || amountScale > MinorUnits.MAX_SCALE
+                || MinorUnits.compare(amountUnits, amountScale, 1L, 0) < 0
+                || (requestId != null && requestId.length() > MAX_REQUEST_ID_LENGTH)) {
+            return TransferStatus.INVALID_REQUEST;
+        }
+        try {
+            // the selector thread serves other connections too, it does not wait for an admission permit
+            return this.transactionService.tryTransfer(accountFrom, accountTo, amountUnits, amountScale, requestId,
+                    false);
+        } catch (RuntimeException ex) {
+            log.warn("Binary transfer of {} from {} to {} failed", MinorUnits.toBigDecimal(amountUnits, amountScale),
+                    accountFrom, accountTo, ex);
+            return TransferStatus.ABORTED;
+        }
+    }
+
+    /**
+     * readString decodes a string preceded by its length directly from the array behind the buffer.
+     * @return null if the string does not fit into the frame.
+     */
+    private static String readString(ByteBuffer in, int end) {
+        if (end - in.position() < 2) {
+            return null;
+        }
+        int length = in.getShort() & 0xFFFF;
+        int start = in.position();
+        if (end - start < length) {
+            return null;
+        }
+        in.position(start + length);
+        return length == 0 ? "" : new String(in.array(), in.arrayOffset() + start, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * codeOf gives the status byte of a response. The codes are fixed here, they must not follow the enum order.
+     */
+    static byte codeOf(TransferStatus status) {
+        switch (status) {
+            case OK:
+                return 0;
+            case INVALID_REQUEST:
+                return 1;
+            case ACCOUNT_NOT_FOUND:
+                return 2;
+            case SAME_ACCOUNT:
+                return 3;
+            case INSUFFICIENT_FUNDS:
+                return 4;
+            case REQUEST_ID_REUSED:
+                return 5;
+            case VELOCITY_LIMIT_EXCEEDED:
+                return 7;
+            case OVERLOADED:
+                return 8;
+            default:
+                return 6;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.running = false;
+        try {
+            this.serverChannel.close();
+        } catch (IOException ex) {
+            log.warn("Closing the binary transfer port failed", ex);
+        }
+        for (EventLoop loop : this.loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    /**
+     * EventLoop serves the connections registered with its selector.
+     */
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+
+        private final Queue<SocketChannel> added = new ConcurrentLinkedQueue<>();
+
+        private EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        private void add(SocketChannel channel) {
+            this.added.add(channel);
+            this.selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    this.selector.select();
+                    SocketChannel channel;
+                    while ((channel = this.added.poll()) != null) {
+                        SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+                        key.attach(new Connection(channel, key));
+                    }
+                    for (SelectionKey key : this.selector.selectedKeys()) {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isWritable()) {
+                                connection.resume();
+                            } else if (key.isReadable()) {
+                                connection.read();
+                            }
+                        } catch (IOException | RuntimeException ex) {
+                            log.debug("Binary transfer connection closed", ex);
+                            connection.close();
+                        }
+                    }
+                    this.selector.selectedKeys().clear();
+                }
+            } catch (IOException ex) {
+                log.error("Binary transfer selector failed", ex);
+            } finally {
+                close();
+            }
+        }
+
+        private void close() {
+            for (SelectionKey key : this.selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            SocketChannel channel;
+            while ((channel = this.added.poll()) != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    log.debug("Closing a binary transfer connection failed", ex);
+                }
+            }
+            try {
+                this.selector.close();
+            } catch (IOException ex) {
+                log.warn("Closing a binary transfer selector failed", ex);
+            }
+        }
+    }
+
+    /**
+     * Connection buffers the frames read from one client and the responses not yet written. While responses cannot be
+     * written the connection is not read, a client that does not read its responses stops being served.
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+
+        private final SelectionKey key;
+
+        private final ByteBuffer in = ByteBuffer.allocate(2 * MAX_FRAME_SIZE);
+
+        private final ByteBuffer out = ByteBuffer.allocate(MAX_FRAME_SIZE);
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private void read() throws IOException {
+            if (this.channel.read(this.in) < 0) {
+                close();
+                return;
+            }
+            process();
+        }
+
+        /**
+         * resume writes the responses left over and goes on with the frames read meanwhile.
+         */
+        private void resume() throws IOException {
+            if (flush()) {
+                this.key.interestOps(SelectionKey.OP_READ);
+                process();
+            }
+        }
+
+        private void process() throws IOException {
+            this.in.flip();
+            while (this.in.remaining() >= 4) {
+                int start = this.in.position();
+                int length = this.in.getInt(start);
+                if (length < MIN_REQUEST_SIZE || length > MAX_FRAME_SIZE - 4) {
+                    throw new IOException("Frame length " + length + " out of range");
+                }
+                if (this.in.remaining() < 4 + length) {
+                    break;
+                }
+                if (this.out.remaining() < RESPONSE_SIZE && !flush()) {
+                    // the client does not read its responses, the frame waits until it does
+                    this.key.interestOps(SelectionKey.OP_WRITE);
+                    break;
+                }
+                this.in.position(start + 4);
+                this.out.putInt(RESPONSE_SIZE - 4);
+                if (!handle(this.in, start + 4 + length, this.out)) {
+                    throw new IOException("Malformed frame");
+                }
+            }
+            this.in.compact();
+            if (!flush()) {
+                this.key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * @return true if all responses were written.
+         */
+        private boolean flush() throws IOException {
+            this.out.flip();
+            try {
+                while (this.out.hasRemaining()) {
+                    if (this.channel.write(this.out) == 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                this.out.compact();
+            }
+        }
+
+        private void close() {
+            this.key.cancel();
+            try {
+                this.channel.close();
+            } catch (IOException ex) {
+                log.debug("Closing a binary transfer connection failed", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.service.AdmissionController;
+import java.util.Map;
+import java.util.Optional;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/v1/metrics")
+public class MetricsController {
+
+  private final TransferMetrics transferMetrics;
+
+  private final Optional<AdmissionController> admissionController;
+
+  @Autowired
+  public MetricsController(TransferMetrics transferMetrics, Optional<AdmissionController> admissionController) {
+    this.transferMetrics = transferMetrics;
+    this.admissionController = admissionController;
+  }
+
+  /**
+   * getMetrics returns the transfer, account creation and lock metrics, latencies are in nanoseconds, and the
+   * admission limit if admission control is enabled.
+   * @return
+   */
+  @GetMapping
+  public Map<String, Object> getMetrics() {
+    Map<String, Object> snapshot = this.transferMetrics.snapshot();
+    this.admissionController.ifPresent(admission -> snapshot.put("admission", admission.snapshot()));
+    return snapshot;
+  }
+}
@@ -0,0 +1,59 @@
+package com.db.awmd.challenge.web;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * RequestHandlingConfiguration lets Tomcat run requests on virtual threads when the application runs on a JVM that
+ * has them. A request blocked on the journal or a full notification queue then parks its virtual thread instead of
+ * holding one of the few worker threads, and the number of requests in flight is only limited by
+ * server.tomcat.max-connections. On older JVMs the setting is ignored and the worker pool is kept.
+ */
+@Slf4j
+@Configuration
+public class RequestHandlingConfiguration {
+
+  @Bean
+  public EmbeddedServletContainerCustomizer virtualThreadCustomizer(
+    @Value("${accounts.requests.virtual-threads:false}") boolean virtualThreads) {
+    return container -> {
+      if (!virtualThreads || !(container instanceof TomcatEmbeddedServletContainerFactory)) {
+        return;
+      }
+      Executor executor = newVirtualThreadExecutor();
+      if (executor == null) {
+        log.warn("Virtual threads are not available on Java {}, requests run on the Tomcat worker pool",
+          System.getProperty("java.version"));
+        return;
+      }
+      ((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(connector -> {
+        ProtocolHandler handler = connector.getProtocolHandler();
+        if (handler instanceof AbstractProtocol) {
+          ((AbstractProtocol<?>) handler).setExecutor(executor);
+          log.info("Requests run on virtual threads");
+        }
+      });
+    };
+  }
+
+  /**
+   * newVirtualThreadExecutor looks the factory up by reflection, so the application still builds for Java 8.
+   * @return an executor starting a virtual thread per task, null if the JVM has no virtual threads.
+   */
+  static Executor newVirtualThreadExecutor() {
+    try {
+      Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (Executor) factory.invoke(null);
+    } catch (ReflectiveOperationException ex) {
+      return null;
+    }
+  }
+}
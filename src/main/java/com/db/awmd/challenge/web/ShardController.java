@@ -0,0 +1,94 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.repository.HttpShardClient;
+import com.db.awmd.challenge.repository.LocalShard;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * ShardController serves the shard operations of this node to the other nodes, see HttpShardClient. Unlike the public
+ * endpoints it only ever touches the accounts stored on this node. It is only reachable on the internal port and with
+ * the node secret, see ShardEndpointConfiguration.
+ */
+@RestController
+@RequestMapping(HttpShardClient.BASE_PATH)
+@ConditionalOnProperty(prefix = "accounts.sharding", name = "enabled", havingValue = "true")
+public class ShardController {
+
+  private final LocalShard localShard;
+
+  @Autowired
+  public ShardController(LocalShard localShard) {
+    this.localShard = localShard;
+  }
+
+  @PostMapping(path = "/accounts", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<Object> createAccount(@RequestBody Account account) {
+    try {
+      this.localShard.createAccount(account);
+    } catch (DuplicateAccountIdException daie) {
+      return new ResponseEntity<>(daie.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+    return new ResponseEntity<>(HttpStatus.CREATED);
+  }
+
+  @GetMapping(path = "/accounts/{accountId}")
+  public ResponseEntity<Account> getAccount(@PathVariable String accountId) {
+    Account account = this.localShard.getAccount(accountId);
+    return account == null ? new ResponseEntity<>(HttpStatus.NOT_FOUND) : new ResponseEntity<>(account, HttpStatus.OK);
+  }
+
+  @DeleteMapping(path = "/accounts")
+  public void clearAccounts() {
+    this.localShard.clearAccounts();
+  }
+
+  @PostMapping(path = "/transfer")
+  public boolean moneyTransfer(@RequestParam String from, @RequestParam String to, @RequestParam long units,
+    @RequestParam int scale) {
+    return this.localShard.moneyTransfer(from, to, units, scale);
+  }
+
+  @PostMapping(path = "/transfer/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public List<TransferStatus> moneyTransferAll(@RequestBody List<MoneyTransfer> transfers) {
+    return this.localShard.moneyTransferAll(transfers);
+  }
+
+  @PostMapping(path = "/reservations/{reservationId}")
+  public boolean reserve(@PathVariable String reservationId, @RequestParam String account, @RequestParam String to,
+    @RequestParam long units, @RequestParam int scale) {
+    return this.localShard.reserve(reservationId, account, to, units, scale);
+  }
+
+  @PostMapping(path = "/reservations/{reservationId}/settle")
+  public void settle(@PathVariable String reservationId) {
+    this.localShard.settle(reservationId);
+  }
+
+  @DeleteMapping(path = "/reservations/{reservationId}")
+  public void release(@PathVariable String reservationId) {
+    this.localShard.release(reservationId);
+  }
+
+  @PostMapping(path = "/credits/{reservationId}")
+  public boolean credit(@PathVariable String reservationId, @RequestParam String account, @RequestParam long units,
+    @RequestParam int scale) {
+    return this.localShard.credit(reservationId, account, units, scale);
+  }
+}
@@ -0,0 +1,111 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.repository.HttpShardClient;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.catalina.connector.Connector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * ShardEndpointConfiguration keeps the shard endpoints of ShardController apart from the public ones. They are served
+ * on a second connector listening on the address and port of this node's entry in accounts.sharding.nodes, which is
+ * meant to be on the internal network, and nothing else is served there. Every call must carry the node secret.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(prefix = "accounts.sharding", name = "enabled", havingValue = "true")
+public class ShardEndpointConfiguration {
+
+  private final URI internalUrl;
+
+  private final byte[] secret;
+
+  public ShardEndpointConfiguration(@Value("${accounts.sharding.nodes}") String[] nodes,
+    @Value("${accounts.sharding.self}") int self,
+    @Value("${accounts.sharding.secret:}") String secret,
+    @Value("${server.port:8080}") int serverPort) {
+    if (self < 0 || self >= nodes.length) {
+      throw new IllegalStateException(
+        "accounts.sharding.self must be the index of this node in accounts.sharding.nodes");
+    }
+    this.internalUrl = URI.create(nodes[self]);
+    if (this.internalUrl.getPort() < 0 || this.internalUrl.getPort() == serverPort) {
+      throw new IllegalStateException("The url of this node in accounts.sharding.nodes needs a port of its own, "
+        + "the shard endpoints are not served on server.port");
+    }
+    if (secret.isEmpty()) {
+      throw new IllegalStateException("accounts.sharding.secret must be set to the same value on all nodes");
+    }
+    this.secret = secret.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Bean
+  public EmbeddedServletContainerCustomizer shardConnectorCustomizer() {
+    return container -> {
+      if (!(container instanceof TomcatEmbeddedServletContainerFactory)) {
+        throw new IllegalStateException("The shard endpoints need the embedded Tomcat");
+      }
+      Connector connector = new Connector(TomcatEmbeddedServletContainerFactory.DEFAULT_PROTOCOL);
+      connector.setPort(this.internalUrl.getPort());
+      connector.setAttribute("address", this.internalUrl.getHost());
+      ((TomcatEmbeddedServletContainerFactory) container).addAdditionalTomcatConnectors(connector);
+      log.info("Shard endpoints are served on {}:{}", this.internalUrl.getHost(), this.internalUrl.getPort());
+    };
+  }
+
+  @Bean
+  public FilterRegistrationBean shardEndpointFilter() {
+    return new FilterRegistrationBean(new ShardEndpointFilter(this.internalUrl.getPort(), this.secret));
+  }
+
+  /**
+   * ShardEndpointFilter answers 404 to shard calls on the public port and to other calls on the internal port, and 403
+   * to shard calls without the node secret.
+   */
+  static final class ShardEndpointFilter extends OncePerRequestFilter {
+
+    private final int internalPort;
+
+    private final byte[] secret;
+
+    ShardEndpointFilter(int internalPort, byte[] secret) {
+      this.internalPort = internalPort;
+      this.secret = secret;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+      throws ServletException, IOException {
+      boolean shardCall = request.getRequestURI().startsWith(HttpShardClient.BASE_PATH + "/");
+      if (shardCall != (request.getLocalPort() == this.internalPort)) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        return;
+      }
+      if (shardCall && !hasSecret(request)) {
+        response.sendError(HttpServletResponse.SC_FORBIDDEN);
+        return;
+      }
+      chain.doFilter(request, response);
+    }
+
+    private boolean hasSecret(HttpServletRequest request) {
+      String header = request.getHeader(HttpShardClient.SECRET_HEADER);
+      // compares in constant time, the time taken tells nothing about how much of the secret was guessed
+      return header != null && MessageDigest.isEqual(header.getBytes(StandardCharsets.UTF_8), this.secret);
+    }
+  }
+}
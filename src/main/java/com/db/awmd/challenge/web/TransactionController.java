@@ -1,12 +1,23 @@
 package com.db.awmd.challenge.web;
 
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.Hold;
+import com.db.awmd.challenge.domain.HoldCapture;
 import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.MultiLegTransfer;
+import com.db.awmd.challenge.domain.ScheduledTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
 import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.service.AdmissionController;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.BatchTransferService;
+import com.db.awmd.challenge.service.HoldService;
+import com.db.awmd.challenge.service.ScheduledTransferService;
 import com.db.awmd.challenge.service.TransactionService;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -14,16 +25,46 @@ import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/v1/transaction")
 @Slf4j
 public class TransactionController {
 
+    private static final ResponseEntity<Object> TRANSFERRED = new ResponseEntity<>(HttpStatus.OK);
+
+    /**
+     * Responses to rejected transfers, one per status. They are built and encoded once, a rejected transfer is
+     * answered without formatting a message.
+     */
+    private static final Map<TransferStatus, ResponseEntity<Object>> REJECTIONS = rejections();
+
     private final TransactionService transactionService;
 
-    public TransactionController(TransactionService transactionService) {
+    private final BatchTransferService batchTransferService;
+
+    private final ScheduledTransferService scheduledTransferService;
+
+    private final HoldService holdService;
+
+    /**
+     * Response to a transfer turned away by admission control.
+     */
+    private final ResponseEntity<Object> overloaded;
+
+    public TransactionController(TransactionService transactionService, BatchTransferService batchTransferService,
+                                 ScheduledTransferService scheduledTransferService, HoldService holdService,
+                                 Optional<AdmissionController> admissionController) {
         this.transactionService = transactionService;
+        this.batchTransferService = batchTransferService;
+        this.scheduledTransferService = scheduledTransferService;
+        this.holdService = holdService;
+        this.overloaded = overloaded(admissionController.map(AdmissionController::getRetryAfterSeconds).orElse(1L));
     }
 
     /**
@@ -38,12 +79,176 @@ public class TransactionController {
 
         log.info("Initiating transfer :{} ", transferObj);
 
+        TransferStatus status;
         try {
-            this.transactionService.transferAmount(transferObj.getAccountFrom(),transferObj.getAccountTo(),transferObj.getAmount());
+            status = this.transactionService.tryTransfer(transferObj.getAccountFrom(), transferObj.getAccountTo(),
+                    transferObj.getAmount(), transferObj.getRequestId());
         } catch (Exception ex) {
             return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
         }
-        return new ResponseEntity<>(HttpStatus.OK);
+        if (status == TransferStatus.OVERLOADED) {
+            return this.overloaded;
+        }
+        return status == TransferStatus.OK ? TRANSFERRED : REJECTIONS.get(status);
+    }
+
+    /**
+     * transferBatch method applies an array of transfers in one request and returns the status of each transfer in
+     * request order. An ATOMIC batch that could not be applied is answered with 400, or with 429 if it was turned away
+     * by admission control. The transfers of a BEST_EFFORT batch are admitted one by one and may carry request ids, an
+     * ATOMIC batch with a request id is rejected as INVALID_REQUEST since it could not be retried safely.
+     * @param transfers
+     * @param mode ATOMIC or BEST_EFFORT, defaults to BEST_EFFORT.
+     * @return
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, path = "/transfer/batch")
+    public ResponseEntity<Object> transferBatch(@RequestBody List<MoneyTransfer> transfers,
+                                                @RequestParam(defaultValue = "BEST_EFFORT") BatchMode mode) {
+
+        log.info("Initiating {} batch of {} transfers", mode, transfers.size());
+
+        List<TransferStatus> statuses = this.batchTransferService.transferBatch(transfers, mode);
+        if (mode == BatchMode.ATOMIC && !statuses.isEmpty() && statuses.get(0) == TransferStatus.OVERLOADED) {
+            return this.overloaded;
+        }
+        if (mode == BatchMode.ATOMIC && statuses.stream().anyMatch(status -> status != TransferStatus.OK)) {
+            return new ResponseEntity<>(statuses, HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(statuses, HttpStatus.OK);
+    }
+
+    /**
+     * transferLegs method debits one account and credits every leg in one atomic operation, such as a payroll. It
+     * returns the status of each leg in request order and is answered with 400 unless all legs were applied, or with
+     * 429 if it was turned away by admission control.
+     * @param multiLegTransfer
+     * @return
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, path = "/transfer/legs")
+    public ResponseEntity<Object> transferLegs(@RequestBody @Valid MultiLegTransfer multiLegTransfer) {
+
+        log.info("Initiating transfer of {} legs from {}", multiLegTransfer.getLegs().size(),
+                multiLegTransfer.getAccountFrom());
+
+        List<TransferStatus> statuses = this.transactionService.transferLegs(multiLegTransfer.getAccountFrom(),
+                multiLegTransfer.getLegs());
+        if (!statuses.isEmpty() && statuses.get(0) == TransferStatus.OVERLOADED) {
+            return this.overloaded;
+        }
+        if (statuses.stream().anyMatch(status -> status != TransferStatus.OK)) {
+            return new ResponseEntity<>(statuses, HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(statuses, HttpStatus.OK);
+    }
+
+    /**
+     * scheduleTransfer schedules a transfer executed at executeAt and then every intervalSeconds, if set.
+     * @param scheduledTransfer
+     * @return the scheduled transfer with its id.
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, path = "/scheduled")
+    public ResponseEntity<Object> scheduleTransfer(@RequestBody @Valid ScheduledTransfer scheduledTransfer) {
+
+        log.info("Scheduling transfer :{} ", scheduledTransfer);
+
+        try {
+            return new ResponseEntity<>(this.scheduledTransferService.schedule(scheduledTransfer), HttpStatus.CREATED);
+        } catch (IllegalArgumentException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @GetMapping(path = "/scheduled/{id}")
+    public ResponseEntity<Object> getScheduledTransfer(@PathVariable long id) {
+        ScheduledTransfer scheduledTransfer = this.scheduledTransferService.get(id);
+        if (scheduledTransfer == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(scheduledTransfer, HttpStatus.OK);
+    }
+
+    @DeleteMapping(path = "/scheduled/{id}")
+    public ResponseEntity<Object> cancelScheduledTransfer(@PathVariable long id) {
+        return new ResponseEntity<>(this.scheduledTransferService.cancel(id) ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND);
+    }
+
+    /**
+     * placeHold reserves an amount of the available balance of an account until it is captured, released or expires.
+     * @param hold
+     * @return the hold with its id and expiry.
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, path = "/holds")
+    public ResponseEntity<Object> placeHold(@RequestBody @Valid Hold hold) {
+
+        log.info("Placing hold :{} ", hold);
+
+        try {
+            return new ResponseEntity<>(this.holdService.place(hold), HttpStatus.CREATED);
+        } catch (TransactionException ex) {
+            return REJECTIONS.get(ex.getStatus());
+        }
     }
 
+    @GetMapping(path = "/holds/{id}")
+    public ResponseEntity<Object> getHold(@PathVariable long id) {
+        Hold hold = this.holdService.get(id);
+        if (hold == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(hold, HttpStatus.OK);
+    }
+
+    /**
+     * captureHold transfers the held amount, or a part of it, and releases the rest of the hold.
+     * @param id
+     * @param capture
+     * @return
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, path = "/holds/{id}/capture")
+    public ResponseEntity<Object> captureHold(@PathVariable long id, @RequestBody @Valid HoldCapture capture) {
+
+        log.info("Capturing hold {} :{} ", id, capture);
+
+        TransferStatus status = this.holdService.capture(id, capture);
+        if (status == TransferStatus.HOLD_NOT_FOUND) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        if (status == TransferStatus.OVERLOADED) {
+            return this.overloaded;
+        }
+        return status == TransferStatus.OK ? TRANSFERRED : REJECTIONS.get(status);
+    }
+
+    @DeleteMapping(path = "/holds/{id}")
+    public ResponseEntity<Object> releaseHold(@PathVariable long id) {
+        return new ResponseEntity<>(this.holdService.release(id) ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND);
+    }
+
+    private static Map<TransferStatus, ResponseEntity<Object>> rejections() {
+        Map<TransferStatus, ResponseEntity<Object>> rejections = new EnumMap<>(TransferStatus.class);
+        rejections.put(TransferStatus.INVALID_REQUEST, rejection("Invalid transfer request"));
+        rejections.put(TransferStatus.ACCOUNT_NOT_FOUND, rejection("From or To account not found"));
+        rejections.put(TransferStatus.SAME_ACCOUNT, rejection("Both From and To account cannot be same"));
+        rejections.put(TransferStatus.INSUFFICIENT_FUNDS, rejection("No sufficient balance to make the transfer"));
+        rejections.put(TransferStatus.REQUEST_ID_REUSED, rejection("Request id was already used for another transfer"));
+        rejections.put(TransferStatus.ABORTED, rejection("Transfer failed, please retry"));
+        rejections.put(TransferStatus.HOLD_NOT_FOUND, rejection("Hold not found or already settled"));
+        rejections.put(TransferStatus.VELOCITY_LIMIT_EXCEEDED,
+                rejection("Transfer limit of the From account reached, please retry later"));
+        return rejections;
+    }
+
+    private static ResponseEntity<Object> overloaded(long retryAfterSeconds) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8));
+        headers.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        return new ResponseEntity<>("Too many transfers in progress, please retry".getBytes(StandardCharsets.UTF_8),
+                headers, HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    private static ResponseEntity<Object> rejection(String message) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8));
+        return new ResponseEntity<>(message.getBytes(StandardCharsets.UTF_8), headers, HttpStatus.BAD_REQUEST);
+    }
 }
@@ -0,0 +1,59 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.domain.Account;
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class AccountBalanceReadTest {
+
+  @Test
+  public void readsNeverMixTwoChanges() throws Exception {
+    Account account = new Account("Id-1", new BigDecimal(100));
+    AtomicBoolean done = new AtomicBoolean();
+    // the same balance at two scales, a torn read would give 1.00 or 10000
+    Thread writer = new Thread(() -> {
+      while (!done.get()) {
+        account.restoreBalance(10000L, 2);
+        account.restoreBalance(100L, 0);
+      }
+    });
+    writer.start();
+    try {
+      for (int i = 0; i < 2_000_000; i++) {
+        assertThat(account.getBalance()).isEqualByComparingTo("100");
+      }
+    } finally {
+      done.set(true);
+      writer.join();
+    }
+  }
+
+  @Test
+  public void readsSeeCreditsWhileTheyAreFolded() throws Exception {
+    Account account = new Account("Id-1", new BigDecimal(0));
+    account.enableCreditAggregation(4);
+    AtomicBoolean done = new AtomicBoolean();
+    // the balance only grows, a read missing credits taken out of the accumulator but not yet folded would shrink
+    Thread writer = new Thread(() -> {
+      while (!done.get()) {
+        account.getCreditAccumulator().add(5L, 0);
+        account.foldCredits();
+      }
+    });
+    writer.start();
+    try {
+      BigDecimal last = BigDecimal.ZERO;
+      for (int i = 0; i < 2_000_000; i++) {
+        BigDecimal balance = account.getBalance();
+        assertThat(balance).isGreaterThanOrEqualTo(last);
+        last = balance;
+      }
+    } finally {
+      done.set(true);
+      writer.join();
+    }
+  }
+}
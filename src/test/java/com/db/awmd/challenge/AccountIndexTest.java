@@ -0,0 +1,76 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountIndex;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class AccountIndexTest {
+
+  @Test
+  public void addsFindsAndRemovesAccounts() {
+    AccountIndex index = new AccountIndex();
+    for (int i = 0; i < 10000; i++) {
+      assertThat(index.putIfAbsent(new Account("Id-" + i))).isNull();
+    }
+    Account duplicate = new Account("Id-42");
+    assertThat(index.putIfAbsent(duplicate)).isNotSameAs(duplicate);
+
+    assertThat(index.remove("Id-42")).isNotNull();
+    assertThat(index.remove("Id-42")).isNull();
+    assertThat(index.get("Id-42")).isNull();
+    assertThat(index.putIfAbsent(duplicate)).isNull();
+    assertThat(index.get("Id-42")).isSameAs(duplicate);
+
+    assertThat(index.size()).isEqualTo(10000);
+    assertThat(index.get("Id-9999").getAccountId()).isEqualTo("Id-9999");
+    assertThat(index.get("Id-10000")).isNull();
+    int iterated = 0;
+    for (Account account : index) {
+      assertThat(index.get(account.getAccountId())).isSameAs(account);
+      iterated++;
+    }
+    assertThat(iterated).isEqualTo(10000);
+
+    index.clear();
+    assertThat(index.size()).isEqualTo(0);
+    assertThat(index.get("Id-1")).isNull();
+    assertThat(index.iterator().hasNext()).isFalse();
+  }
+
+  @Test
+  public void readersSeeAccountsAddedConcurrently() throws Exception {
+    AccountIndex index = new AccountIndex();
+    int count = 100000;
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    Future<?> writer = executor.submit(() -> {
+      for (int i = 0; i < count; i++) {
+        index.putIfAbsent(new Account("Id-" + i));
+      }
+    });
+    List<Future<?>> readers = new ArrayList<>();
+    for (int r = 0; r < 2; r++) {
+      readers.add(executor.submit(() -> {
+        // every id is seen once it was added and never lost afterwards
+        for (int i = 0; i < count; i++) {
+          String id = "Id-" + i;
+          while (index.get(id) == null) {
+            Thread.yield();
+          }
+          assertThat(index.get("Id-" + (i / 2)).getAccountId()).isEqualTo("Id-" + (i / 2));
+        }
+      }));
+    }
+    writer.get();
+    for (Future<?> reader : readers) {
+      reader.get();
+    }
+    executor.shutdown();
+  }
+}
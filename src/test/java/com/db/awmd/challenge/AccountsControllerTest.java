@@ -4,6 +4,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
@@ -108,4 +109,85 @@ public class AccountsControllerTest {
       .andExpect(
         content().string("{\"accountId\":\"" + uniqueAccountId + "\",\"balance\":123.45}"));
   }
+
+  @Test
+  public void getStatementPages() throws Exception {
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal(100)));
+    this.accountsService.createAccount(new Account("Id-2", new BigDecimal(100)));
+    this.accountsService.getAccountsRepository().moneyTransfer("Id-1", "Id-2", 1050L, 2);
+    this.accountsService.getAccountsRepository().moneyTransfer("Id-2", "Id-1", 3L, 0);
+    this.accountsService.getAccountsRepository().moneyTransfer("Id-1", "Id-2", 1L, 0);
+
+    this.mockMvc.perform(get("/v1/accounts/Id-1/statement?limit=2"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.accountId").value("Id-1"))
+      .andExpect(jsonPath("$.entries.length()").value(2))
+      .andExpect(jsonPath("$.entries[0].counterparty").value("Id-2"))
+      .andExpect(jsonPath("$.entries[0].amount").value(-10.5))
+      .andExpect(jsonPath("$.entries[1].amount").value(3))
+      .andExpect(jsonPath("$.nextCursor").value(2));
+
+    this.mockMvc.perform(get("/v1/accounts/Id-1/statement?limit=2&cursor=2"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.entries.length()").value(1))
+      .andExpect(jsonPath("$.entries[0].sequence").value(2))
+      .andExpect(jsonPath("$.entries[0].amount").value(-1))
+      .andExpect(jsonPath("$.nextCursor").doesNotExist());
+
+    this.mockMvc.perform(get("/v1/accounts/Id-1/statement?to=0"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.entries.length()").value(0));
+  }
+
+  @Test
+  public void getStatementUnknownAccount() throws Exception {
+    this.mockMvc.perform(get("/v1/accounts/Id-404/statement")).andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void getStatementInvalidLimit() throws Exception {
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal(100)));
+
+    this.mockMvc.perform(get("/v1/accounts/Id-1/statement?limit=0")).andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void createAccountsInBulk() throws Exception {
+    this.accountsService.createAccount(new Account("Id-2", new BigDecimal(5)));
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      body.append("{\"accountId\":\"Id-").append(i).append("\",\"balance\":").append(i).append("}\n");
+    }
+    body.append("\n{\"accountId\":\"Id-x\",\"balance\":-1}\nnot json\n");
+
+    this.mockMvc.perform(post("/v1/accounts/bulk").contentType("application/x-ndjson").content(body.toString()))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.created").value(2999))
+      .andExpect(jsonPath("$.failed").value(3))
+      .andExpect(jsonPath("$.errors[0].line").value(3))
+      .andExpect(jsonPath("$.errors[0].error").value("Account id Id-2 already exists!"))
+      .andExpect(jsonPath("$.errors[1].line").value(3002))
+      .andExpect(jsonPath("$.errors[1].error").value("balance Initial balance must be positive."))
+      .andExpect(jsonPath("$.errors[2].line").value(3003));
+
+    assertThat(this.accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("5");
+    assertThat(this.accountsService.getAccount("Id-2999").getBalance()).isEqualByComparingTo("2999");
+  }
+
+  @Test
+  public void getBalancesInBulk() throws Exception {
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal("1.50")));
+    this.accountsService.createAccount(new Account("Id-2", new BigDecimal(2)));
+
+    String[] lines = this.mockMvc.perform(post("/v1/accounts/balances").contentType("application/x-ndjson")
+      .content("\"Id-2\"\n\"Id-3\"\nId-1\n\"Id-1\"\n"))
+      .andExpect(status().isOk())
+      .andReturn().getResponse().getContentAsString().split("\n");
+
+    assertThat(lines).hasSize(4);
+    assertThat(lines[0]).isEqualTo("{\"accountId\":\"Id-2\",\"balance\":2}");
+    assertThat(lines[1]).isEqualTo("{\"accountId\":\"Id-3\",\"error\":\"Account id Id-3 not found\"}");
+    assertThat(lines[2]).startsWith("{\"line\":3,\"error\":\"Unrecognized token 'Id'");
+    assertThat(lines[3]).isEqualTo("{\"accountId\":\"Id-1\",\"balance\":1.50}");
+  }
 }
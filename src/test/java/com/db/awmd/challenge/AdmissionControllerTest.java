@@ -0,0 +1,116 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.service.AdmissionController;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AdmissionControllerTest {
+
+  private static final long MILLI = 1_000_000L;
+
+  /**
+   * acquireAll takes permits for distinct accounts until one is rejected.
+   */
+  private static List<Integer> acquireAll(AdmissionController admission) {
+    List<Integer> permits = new ArrayList<>();
+    while (true) {
+      int permit = admission.acquire("Id-" + permits.size());
+      if (permit == AdmissionController.REJECTED) {
+        return permits;
+      }
+      permits.add(permit);
+    }
+  }
+
+  private static void releaseAll(AdmissionController admission, List<Integer> permits, long latencyNanos) {
+    for (int permit : permits) {
+      admission.release(permit, latencyNanos);
+    }
+  }
+
+  @Test
+  public void rejectsOverTheLimit() {
+    AdmissionController admission = new AdmissionController(16, 1, 100, 1000L, 0L, 8, 1.0, 1L);
+
+    List<Integer> permits = acquireAll(admission);
+
+    assertThat(permits).hasSize(16);
+    assertThat(admission.getInFlight()).isEqualTo(16);
+    admission.release(permits.remove(0), MILLI);
+    assertThat(admission.acquire("Id-x")).isNotEqualTo(AdmissionController.REJECTED);
+    assertThat(admission.acquire("Id-y")).isEqualTo(AdmissionController.REJECTED);
+  }
+
+  @Test
+  public void oneAccountGetsItsShareOnly() {
+    AdmissionController admission = new AdmissionController(16, 1, 100, 1000L, 0L, 8, 0.25, 1L);
+
+    for (int i = 0; i < 4; i++) {
+      assertThat(admission.acquire("Id-hot")).isNotEqualTo(AdmissionController.REJECTED);
+    }
+    assertThat(admission.acquire("Id-hot")).isEqualTo(AdmissionController.REJECTED);
+    assertThat(admission.acquire("Id-other")).isNotEqualTo(AdmissionController.REJECTED);
+    assertThat(admission.getInFlight()).isEqualTo(5);
+  }
+
+  @Test
+  public void waitsForAReleasedPermit() throws Exception {
+    AdmissionController admission = new AdmissionController(2, 1, 100, 1000L, 5000L, 8, 1.0, 1L);
+    int first = admission.acquire("Id-1");
+    admission.acquire("Id-2");
+
+    CompletableFuture<Integer> waiting = CompletableFuture.supplyAsync(() -> admission.acquire("Id-3"));
+    Thread.sleep(50L);
+    assertThat(waiting.isDone()).isFalse();
+    admission.release(first, MILLI);
+
+    assertThat(waiting.get(5, TimeUnit.SECONDS)).isNotEqualTo(AdmissionController.REJECTED);
+    assertThat(admission.getInFlight()).isEqualTo(2);
+  }
+
+  @Test
+  public void rejectsAtOnceWithoutWaiting() {
+    AdmissionController admission = new AdmissionController(1, 1, 100, 1000L, 5000L, 8, 1.0, 1L);
+    int first = admission.acquire("Id-1", false);
+    assertThat(first).isNotEqualTo(AdmissionController.REJECTED);
+
+    long start = System.nanoTime();
+    assertThat(admission.acquire("Id-2", false)).isEqualTo(AdmissionController.REJECTED);
+    assertThat(System.nanoTime() - start).isLessThan(1000L * MILLI);
+    admission.release(first, MILLI);
+    assertThat(admission.acquire("Id-2", false)).isNotEqualTo(AdmissionController.REJECTED);
+  }
+
+  @Test
+  public void limitFollowsLatency() {
+    AdmissionController admission = new AdmissionController(20, 2, 100, 0L, 0L, 8, 1.0, 1L);
+
+    for (int round = 0; round < 10; round++) {
+      releaseAll(admission, acquireAll(admission), MILLI);
+    }
+    int grown = admission.getLimit();
+    assertThat(grown).isGreaterThan(20);
+
+    for (int round = 0; round < 10; round++) {
+      releaseAll(admission, acquireAll(admission), 10 * MILLI);
+    }
+    assertThat(admission.getLimit()).isLessThan(grown / 2);
+  }
+
+  @Test
+  public void idleWindowsKeepTheLimit() {
+    AdmissionController admission = new AdmissionController(20, 2, 100, 0L, 0L, 8, 1.0, 1L);
+
+    for (int i = 0; i < 100; i++) {
+      int permit = admission.acquire("Id-1");
+      admission.release(permit, i < 50 ? MILLI : 10 * MILLI);
+    }
+
+    assertThat(admission.getLimit()).isEqualTo(20);
+  }
+}
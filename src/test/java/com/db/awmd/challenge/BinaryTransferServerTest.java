@@ -0,0 +1,111 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransactionService;
+import com.db.awmd.challenge.web.BinaryTransferServer;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class BinaryTransferServerTest {
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Autowired
+  private TransactionService transactionService;
+
+  private BinaryTransferServer server;
+
+  @Before
+  public void startServer() throws IOException {
+    this.accountsService.getAccountsRepository().clearAccounts();
+    this.server = new BinaryTransferServer(this.transactionService, 0, 2);
+  }
+
+  @After
+  public void stopServer() {
+    this.server.shutdown();
+  }
+
+  private static byte[] frame(long correlationId, String from, String to, long amountUnits, int amountScale,
+    String requestId) {
+    byte[] fromBytes = from.getBytes(StandardCharsets.UTF_8);
+    byte[] toBytes = to.getBytes(StandardCharsets.UTF_8);
+    byte[] requestIdBytes = requestId == null ? new byte[0] : requestId.getBytes(StandardCharsets.UTF_8);
+    int length = 8 + 2 + fromBytes.length + 2 + toBytes.length + 9 + 2 + requestIdBytes.length;
+    ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+    buffer.putInt(length).putLong(correlationId)
+      .putShort((short) fromBytes.length).put(fromBytes).putShort((short) toBytes.length).put(toBytes)
+      .putLong(amountUnits).put((byte) amountScale).putShort((short) requestIdBytes.length).put(requestIdBytes);
+    return buffer.array();
+  }
+
+  @Test
+  public void pipelinedTransfersMatchTheRestResults() throws Exception {
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal("1000")));
+    this.accountsService.createAccount(new Account("Id-2", new BigDecimal("0")));
+
+    try (Socket socket = new Socket("localhost", this.server.getPort())) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      // all frames are sent before any response is read
+      for (int i = 0; i < 900; i++) {
+        out.write(frame(i, "Id-1", "Id-2", 101, 2, null));
+      }
+      out.write(frame(900, "Id-1", "Id-9", 1, 0, null));
+      out.write(frame(901, "Id-1", "Id-1", 1, 0, null));
+      out.write(frame(902, "Id-2", "Id-1", 5000, 0, null));
+      // below the minimum amount of 1 the REST path rejects too
+      out.write(frame(903, "Id-1", "Id-2", 50, 2, null));
+      out.write(frame(904, "Id-1", "Id-2", 1, 0, "retry-1"));
+      out.write(frame(905, "Id-1", "Id-2", 1, 0, "retry-1"));
+      out.write(frame(906, "Id-1", "Id-2", 2, 0, "retry-1"));
+      out.flush();
+
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      byte[] expected = new byte[907];
+      expected[900] = 2;
+      expected[901] = 3;
+      expected[902] = 4;
+      expected[903] = 1;
+      expected[906] = 5;
+      for (int i = 0; i < expected.length; i++) {
+        assertThat(in.readInt()).isEqualTo(9);
+        assertThat(in.readLong()).isEqualTo(i);
+        assertThat(in.readByte()).as("status of request %d", i).isEqualTo(expected[i]);
+      }
+    }
+    assertThat(this.accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("90.00");
+    assertThat(this.accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("910.00");
+  }
+
+  @Test(expected = EOFException.class)
+  public void malformedFrameClosesTheConnection() throws Exception {
+    try (Socket socket = new Socket("localhost", this.server.getPort())) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      byte[] frame = frame(1, "Id-1", "Id-2", 1, 0, null);
+      // the from id claims more bytes than the frame holds
+      frame[13] = 100;
+      out.write(frame);
+      out.flush();
+      new DataInputStream(socket.getInputStream()).readInt();
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountBalances;
+import com.db.awmd.challenge.domain.Hold;
+import com.db.awmd.challenge.domain.HoldCapture;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.HoldService;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+import com.db.awmd.challenge.service.TransactionService;
+import java.math.BigDecimal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class HoldServiceTest {
+
+  private static final long HOUR = 3600_000L;
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Autowired
+  private TransactionService transactionService;
+
+  @Autowired
+  private NotificationDispatcher notificationDispatcher;
+
+  private HoldService holdService;
+
+  @Before
+  public void createAccounts() {
+    this.accountsService.getAccountsRepository().clearAccounts();
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal(100)));
+    this.accountsService.createAccount(new Account("Id-2", new BigDecimal(100)));
+    this.holdService = new HoldService(this.accountsService.getAccountsRepository(), this.notificationDispatcher,
+      this.transactionService, HOUR, 3 * 3600L);
+  }
+
+  @After
+  public void shutdown() {
+    this.holdService.shutdown();
+  }
+
+  private static Hold hold(String accountId, String amount) {
+    Hold hold = new Hold();
+    hold.setAccountId(accountId);
+    hold.setAmount(new BigDecimal(amount));
+    return hold;
+  }
+
+  private static HoldCapture capture(String accountTo, String amount) {
+    HoldCapture capture = new HoldCapture();
+    capture.setAccountTo(accountTo);
+    capture.setAmount(amount == null ? null : new BigDecimal(amount));
+    return capture;
+  }
+
+  private AccountBalances balances(String accountId) {
+    return this.accountsService.getBalances(accountId);
+  }
+
+  @Test
+  public void holdReducesAvailableBalanceOnly() {
+    Hold hold = this.holdService.place(hold("Id-1", "60.25"));
+
+    assertThat(hold.getId()).isNotNull();
+    assertThat(this.holdService.get(hold.getId()).getAmount()).isEqualByComparingTo("60.25");
+    AccountBalances balances = balances("Id-1");
+    assertThat(balances.getLedgerBalance()).isEqualByComparingTo("100");
+    assertThat(balances.getHeldBalance()).isEqualByComparingTo("60.25");
+    assertThat(balances.getAvailableBalance()).isEqualByComparingTo("39.75");
+
+    assertThat(this.transactionService.tryTransfer("Id-1", "Id-2", new BigDecimal(40), null))
+      .isEqualTo(TransferStatus.INSUFFICIENT_FUNDS);
+    assertThat(this.transactionService.tryTransfer("Id-1", "Id-2", new BigDecimal("39.75"), null))
+      .isEqualTo(TransferStatus.OK);
+    assertThat(balances("Id-1").getAvailableBalance()).isEqualByComparingTo("0");
+  }
+
+  @Test
+  public void holdBeyondAvailableBalanceIsRejected() {
+    this.holdService.place(hold("Id-1", "70"));
+    try {
+      this.holdService.place(hold("Id-1", "31"));
+      fail("Hold beyond the available balance was placed");
+    } catch (TransactionException ex) {
+      assertThat(ex.getStatus()).isEqualTo(TransferStatus.INSUFFICIENT_FUNDS);
+    }
+    try {
+      this.holdService.place(hold("Id-3", "1"));
+      fail("Hold on an unknown account was placed");
+    } catch (TransactionException ex) {
+      assertThat(ex.getStatus()).isEqualTo(TransferStatus.ACCOUNT_NOT_FOUND);
+    }
+    assertThat(balances("Id-1").getHeldBalance()).isEqualByComparingTo("70");
+  }
+
+  @Test
+  public void partialCaptureReleasesTheRest() {
+    long id = this.holdService.place(hold("Id-1", "50")).getId();
+
+    assertThat(this.holdService.capture(id, capture("Id-2", "60"))).isEqualTo(TransferStatus.INVALID_REQUEST);
+    assertThat(this.holdService.capture(id, capture("Id-1", "20"))).isEqualTo(TransferStatus.SAME_ACCOUNT);
+    assertThat(this.holdService.capture(id, capture("Id-2", "20.5"))).isEqualTo(TransferStatus.OK);
+
+    assertThat(this.holdService.get(id)).isNull();
+    assertThat(this.holdService.capture(id, capture("Id-2", null))).isEqualTo(TransferStatus.HOLD_NOT_FOUND);
+    AccountBalances balances = balances("Id-1");
+    assertThat(balances.getLedgerBalance()).isEqualByComparingTo("79.5");
+    assertThat(balances.getHeldBalance()).isEqualByComparingTo("0");
+    assertThat(balances.getAvailableBalance()).isEqualByComparingTo("79.5");
+    assertThat(balances("Id-2").getLedgerBalance()).isEqualByComparingTo("120.5");
+  }
+
+  @Test
+  public void fullCaptureWithoutAmount() {
+    long first = this.holdService.place(hold("Id-1", "30")).getId();
+    long second = this.holdService.place(hold("Id-1", "40")).getId();
+
+    assertThat(this.holdService.capture(first, capture("Id-2", null))).isEqualTo(TransferStatus.OK);
+
+    AccountBalances balances = balances("Id-1");
+    assertThat(balances.getLedgerBalance()).isEqualByComparingTo("70");
+    assertThat(balances.getHeldBalance()).isEqualByComparingTo("40");
+    assertThat(balances.getAvailableBalance()).isEqualByComparingTo("30");
+    assertThat(this.holdService.get(second)).isNotNull();
+  }
+
+  @Test
+  public void releaseOnce() {
+    long id = this.holdService.place(hold("Id-1", "100")).getId();
+
+    assertThat(this.holdService.release(id)).isTrue();
+    assertThat(this.holdService.release(id)).isFalse();
+    assertThat(this.holdService.getHoldCount()).isEqualTo(0);
+    assertThat(balances("Id-1").getAvailableBalance()).isEqualByComparingTo("100");
+  }
+
+  @Test
+  public void expiredHoldsAreReleased() {
+    Hold request = hold("Id-1", "10");
+    request.setTtlSeconds(60L);
+    long shortLived = this.holdService.place(request).getId();
+    long defaultTtl = this.holdService.place(hold("Id-1", "20")).getId();
+    long now = System.currentTimeMillis();
+
+    assertThat(this.holdService.expire(now + 1000L)).isEqualTo(0);
+    assertThat(this.holdService.expire(now + 2 * HOUR)).isEqualTo(1);
+    assertThat(this.holdService.get(shortLived)).isNull();
+    assertThat(this.holdService.get(defaultTtl)).isNotNull();
+    assertThat(balances("Id-1").getHeldBalance()).isEqualByComparingTo("20");
+
+    assertThat(this.holdService.expire(now + 5 * HOUR)).isEqualTo(1);
+    assertThat(this.holdService.getHoldCount()).isEqualTo(0);
+    assertThat(balances("Id-1").getAvailableBalance()).isEqualByComparingTo("100");
+  }
+}
@@ -0,0 +1,90 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.StripedLockTransferEngine;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HotAccountTransferTest {
+
+  private AccountsRepositoryInMemory repository;
+
+  @Before
+  public void createRepository() {
+    this.repository = new AccountsRepositoryInMemory(
+      new StripedLockTransferEngine(64, TransferMetrics.disabled(), new String[] {"Id-hot"}, 0));
+  }
+
+  @Test
+  public void creditsAreAccumulatedAndDebitsSeeThem() {
+    this.repository.createAccount(new Account("Id-hot", new BigDecimal("10.00")));
+    this.repository.createAccount(new Account("Id-1", new BigDecimal(100)));
+
+    // the first credit makes the account hot, the next ones are accumulated
+    assertThat(this.repository.moneyTransfer("Id-1", "Id-hot", 10L, 0)).isTrue();
+    assertThat(this.repository.getAccount("Id-hot").getCreditAccumulator()).isNotNull();
+    assertThat(this.repository.moneyTransfer("Id-1", "Id-hot", 2050L, 2)).isTrue();
+    assertThat(this.repository.getAccount("Id-hot").getBalanceUnits()).isEqualTo(2000L);
+    assertThat(this.repository.getAccount("Id-hot").getBalance()).isEqualByComparingTo("40.50");
+
+    // a finer scale than the accumulator is credited to the balance directly
+    assertThat(this.repository.moneyTransfer("Id-1", "Id-hot", 5L, 3)).isTrue();
+    assertThat(this.repository.getAccount("Id-hot").getBalance()).isEqualByComparingTo("40.505");
+
+    // the debit is checked against the folded balance
+    assertThat(this.repository.moneyTransfer("Id-hot", "Id-1", 40506L, 3)).isFalse();
+    assertThat(this.repository.moneyTransfer("Id-hot", "Id-1", 40505L, 3)).isTrue();
+    assertThat(this.repository.getAccount("Id-hot").getBalance()).isEqualByComparingTo("0");
+    assertThat(this.repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("110");
+  }
+
+  @Test
+  public void fanInTransfersKeepTotal() throws Exception {
+    int accounts = 16;
+    this.repository.createAccount(new Account("Id-hot", new BigDecimal(0)));
+    for (int i = 0; i < accounts; i++) {
+      this.repository.createAccount(new Account("Id-" + i, new BigDecimal(1000)));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      int seed = t;
+      futures.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < 5000; i++) {
+          String other = "Id-" + random.nextInt(accounts);
+          if (random.nextInt(4) == 0) {
+            this.repository.moneyTransfer("Id-hot", other, 1 + random.nextInt(20), 0);
+          } else {
+            this.repository.moneyTransfer(other, "Id-hot", 1 + random.nextInt(5), 0);
+          }
+        }
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    BigDecimal total = this.repository.getAccount("Id-hot").getBalance();
+    assertThat(total.signum()).isGreaterThanOrEqualTo(0);
+    for (int i = 0; i < accounts; i++) {
+      BigDecimal balance = this.repository.getAccount("Id-" + i).getBalance();
+      assertThat(balance.signum()).isGreaterThanOrEqualTo(0);
+      total = total.add(balance);
+    }
+    assertThat(total).isEqualByComparingTo(new BigDecimal(1000 * accounts));
+  }
+}
@@ -0,0 +1,77 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+import com.db.awmd.challenge.service.NotificationDispatcher.OverflowPolicy;
+import com.db.awmd.challenge.service.NotificationService;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NotificationDispatcherTest {
+
+    /**
+     * coalesceTest checks that notifications queued while the worker is busy are delivered as one notification per
+     * account.
+     */
+    @Test
+    public void coalesceTest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> delivered = new CopyOnWriteArrayList<>();
+        NotificationService blockingService = (account, description) -> {
+            awaitQuietly(release);
+            delivered.add(account.getAccountId() + "|" + description);
+        };
+        NotificationDispatcher dispatcher = new NotificationDispatcher(blockingService, 16, 1, 16, OverflowPolicy.BLOCK, 10);
+        Account merchant = new Account("Id-m");
+        Account first = new Account("Id-1");
+        Account second = new Account("Id-2");
+
+        // the first transfer keeps the worker busy, the others are queued behind it
+        dispatcher.transferCompleted(first, merchant, new BigDecimal(10));
+        Thread.sleep(100);
+        dispatcher.transferCompleted(second, merchant, new BigDecimal(20));
+        dispatcher.transferCompleted(first, merchant, new BigDecimal(30));
+        release.countDown();
+        dispatcher.shutdown();
+
+        assertThat(delivered).contains(
+                "Id-m|Amount 20 has been credited to your account. Money transfer from account: Id-2\n"
+                        + "Amount 30 has been credited to your account. Money transfer from account: Id-1");
+        assertThat(dispatcher.getDroppedCount()).isZero();
+    }
+
+    /**
+     * dropNewestTest checks that a full queue drops notifications instead of blocking the transfer.
+     */
+    @Test
+    public void dropNewestTest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        NotificationService blockingService = (account, description) -> awaitQuietly(release);
+        NotificationDispatcher dispatcher = new NotificationDispatcher(blockingService, 2, 1, 1, OverflowPolicy.DROP_NEWEST, 10);
+        Account from = new Account("Id-1");
+        Account to = new Account("Id-2");
+
+        for (int i = 0; i < 10; i++) {
+            dispatcher.transferCompleted(from, to, BigDecimal.ONE);
+        }
+        assertThat(dispatcher.getDroppedCount()).isGreaterThanOrEqualTo(16);
+        release.countDown();
+        dispatcher.shutdown();
+        assertThat(dispatcher.getQueuedCount()).isZero();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.PartitionedTransferEngine;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartitionedTransferEngineTest {
+
+  private PartitionedTransferEngine engine;
+
+  private AccountsRepositoryInMemory repository;
+
+  @Before
+  public void createRepository() {
+    this.engine = new PartitionedTransferEngine(4);
+    this.repository = new AccountsRepositoryInMemory(this.engine);
+  }
+
+  @After
+  public void stopEngine() {
+    this.engine.shutdown();
+  }
+
+  @Test
+  public void transfersAcrossPartitions() {
+    this.repository.createAccount(new Account("Id-1", new BigDecimal(100)));
+    this.repository.createAccount(new Account("Id-2", new BigDecimal(100)));
+
+    assertThat(this.repository.moneyTransfer("Id-1", "Id-2", 2550L, 2)).isTrue();
+    assertThat(this.repository.moneyTransfer("Id-1", "Id-2", 100L, 0)).isFalse();
+
+    assertThat(this.repository.getAccount("Id-1").getBalance()).isEqualTo(new BigDecimal("74.50"));
+    assertThat(this.repository.getAccount("Id-2").getBalance()).isEqualTo(new BigDecimal("125.50"));
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void overflowingCreditIsRefunded() {
+    this.repository.createAccount(new Account("Id-1", new BigDecimal(Long.MAX_VALUE)));
+    this.repository.createAccount(new Account("Id-2", new BigDecimal(Long.MAX_VALUE)));
+    try {
+      this.repository.moneyTransfer("Id-1", "Id-2", 1L, 0);
+    } finally {
+      assertThat(this.repository.getAccount("Id-1").getBalance()).isEqualTo(new BigDecimal(Long.MAX_VALUE));
+      assertThat(this.repository.getAccount("Id-2").getBalance()).isEqualTo(new BigDecimal(Long.MAX_VALUE));
+    }
+  }
+
+  @Test
+  public void listenerRunsBeforeTheBalancesChange() {
+    Account first = new Account("Id-1", new BigDecimal(100));
+    Account second = new Account("Id-2", new BigDecimal(100));
+    List<BigDecimal> seen = new ArrayList<>();
+    assertThat(this.engine.transfer(first, second, 30L, 0,
+      (fromAccount, toAccount, amountUnits, amountScale) -> seen.add(fromAccount.getBalance()))).isTrue();
+    assertThat(seen).containsExactly(new BigDecimal(100));
+
+    // a failing listener leaves the balances as they were
+    assertThatThrownBy(() -> this.engine.transfer(first, second, 30L, 0,
+      (fromAccount, toAccount, amountUnits, amountScale) -> {
+        throw new IllegalStateException("Journal full");
+      })).isInstanceOf(IllegalStateException.class);
+    assertThat(first.getBalance()).isEqualTo(new BigDecimal(70));
+    assertThat(second.getBalance()).isEqualTo(new BigDecimal(130));
+  }
+
+  @Test
+  public void concurrentTransfersAndBatchesKeepTotal() throws Exception {
+    int accounts = 16;
+    for (int i = 0; i < accounts; i++) {
+      this.repository.createAccount(new Account("Id-" + i, new BigDecimal(1000)));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(6);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 6; t++) {
+      int seed = t;
+      boolean batches = t % 3 == 0;
+      futures.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < 2000; i++) {
+          int from = random.nextInt(accounts);
+          int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+          if (batches) {
+            List<TransferStatus> statuses = this.repository.moneyTransferAll(Arrays.asList(
+              new MoneyTransfer("Id-" + from, "Id-" + to, new BigDecimal(1 + random.nextInt(50))),
+              new MoneyTransfer("Id-" + to, "Id-" + from, new BigDecimal(1 + random.nextInt(50)))));
+            assertThat(statuses).doesNotContain(TransferStatus.INVALID_REQUEST);
+          } else {
+            this.repository.moneyTransfer("Id-" + from, "Id-" + to, 1 + random.nextInt(50), 0);
+          }
+        }
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < accounts; i++) {
+      BigDecimal balance = this.repository.getAccount("Id-" + i).getBalance();
+      assertThat(balance.signum()).isGreaterThanOrEqualTo(0);
+      total = total.add(balance);
+    }
+    assertThat(total).isEqualTo(new BigDecimal(1000 * accounts));
+  }
+}
@@ -0,0 +1,180 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.ScheduledTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.BatchTransferService;
+import com.db.awmd.challenge.service.ScheduledTransferService;
+import com.db.awmd.challenge.service.ScheduledTransferStore;
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class ScheduledTransferServiceTest {
+
+  private static final long HOUR = 3600_000L;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Autowired
+  private BatchTransferService batchTransferService;
+
+  @Before
+  public void createAccounts() {
+    this.accountsService.getAccountsRepository().clearAccounts();
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal(100)));
+    this.accountsService.createAccount(new Account("Id-2", new BigDecimal(100)));
+  }
+
+  /**
+   * @return a time an hour ahead on a tick boundary, deadlines are rounded up to the next tick.
+   */
+  private static long nextHour() {
+    return (System.currentTimeMillis() / HOUR + 2) * HOUR;
+  }
+
+  private static ScheduledTransfer transfer(long executeAt, long intervalSeconds) {
+    ScheduledTransfer transfer = new ScheduledTransfer();
+    transfer.setAccountFrom("Id-1");
+    transfer.setAccountTo("Id-2");
+    transfer.setAmount(new BigDecimal("10.5"));
+    transfer.setExecuteAt(executeAt);
+    transfer.setIntervalSeconds(intervalSeconds);
+    return transfer;
+  }
+
+  @Test
+  public void executesWhenDueAndRepeats() {
+    ScheduledTransferService service = new ScheduledTransferService(this.batchTransferService, Optional.empty(),
+      100L, 16);
+    try {
+      long start = nextHour();
+      long once = service.schedule(transfer(start, 0)).getId();
+      long recurring = service.schedule(transfer(start + HOUR, 60)).getId();
+
+      assertThat(service.tick(start - 1)).isEqualTo(0);
+      assertThat(service.tick(start)).isEqualTo(1);
+      assertThat(service.get(once)).isNull();
+      assertThat(this.accountsService.getAccount("Id-1").getBalance()).isEqualTo(new BigDecimal("89.5"));
+
+      // an execution due at the time ticked to is missed as well, only the one after it is kept
+      assertThat(service.tick(start + HOUR + 60_000L)).isEqualTo(1);
+      assertThat(service.get(recurring).getExecuteAt()).isEqualTo(start + HOUR + 120_000L);
+      assertThat(service.tick(start + HOUR + 600_000L)).isEqualTo(1);
+      assertThat(service.get(recurring).getExecuteAt()).isEqualTo(start + HOUR + 660_000L);
+
+      assertThat(service.cancel(recurring)).isTrue();
+      assertThat(service.cancel(recurring)).isFalse();
+      assertThat(service.tick(start + 2 * HOUR)).isEqualTo(0);
+      assertThat(this.accountsService.getAccount("Id-1").getBalance()).isEqualTo(new BigDecimal("68.5"));
+      assertThat(this.accountsService.getAccount("Id-2").getBalance()).isEqualTo(new BigDecimal("131.5"));
+    } finally {
+      service.shutdown();
+    }
+  }
+
+  @Test
+  public void survivesRestart() throws Exception {
+    File directory = this.folder.newFolder();
+    long start = nextHour();
+    ScheduledTransferService service = new ScheduledTransferService(this.batchTransferService,
+      Optional.of(new ScheduledTransferStore(directory, true)), 100L, 16);
+    long cancelled = service.schedule(transfer(start, 0)).getId();
+    long recurring = service.schedule(transfer(start, 30)).getId();
+    service.cancel(cancelled);
+    service.tick(start);
+    service.shutdown();
+
+    ScheduledTransferService restarted = new ScheduledTransferService(this.batchTransferService,
+      Optional.of(new ScheduledTransferStore(directory, true)), 100L, 16);
+    try {
+      assertThat(restarted.getPendingCount()).isEqualTo(1);
+      assertThat(restarted.get(cancelled)).isNull();
+      assertThat(restarted.get(recurring).getExecuteAt()).isEqualTo(start + 30_000L);
+      assertThat(restarted.get(recurring).getAmount()).isEqualTo(new BigDecimal("10.5"));
+      assertThat(restarted.schedule(transfer(start, 0)).getId()).isEqualTo(recurring + 1);
+    } finally {
+      restarted.shutdown();
+    }
+    assertThat(this.accountsService.getAccount("Id-2").getBalance()).isEqualTo(new BigDecimal("110.5"));
+  }
+
+  @Test
+  public void executionIsNotDispatchedAgainAfterRestart() throws Exception {
+    File directory = this.folder.newFolder();
+    long start = nextHour();
+    BatchTransferService crashing = Mockito.mock(BatchTransferService.class);
+    Mockito.when(crashing.transferBatch(Mockito.anyList(), Mockito.any(BatchMode.class)))
+      .thenThrow(new IllegalStateException("Crashed while dispatching"));
+    ScheduledTransferService service = new ScheduledTransferService(crashing,
+      Optional.of(new ScheduledTransferStore(directory, true)), 100L, 16);
+    long once = service.schedule(transfer(start, 0)).getId();
+    assertThat(service.tick(start)).isEqualTo(1);
+    service.shutdown();
+
+    // the execution was logged as done before it was dispatched, it may have been applied
+    ScheduledTransferService restarted = new ScheduledTransferService(this.batchTransferService,
+      Optional.of(new ScheduledTransferStore(directory, true)), 100L, 16);
+    try {
+      assertThat(restarted.get(once)).isNull();
+      assertThat(restarted.tick(start + 100L)).isEqualTo(0);
+    } finally {
+      restarted.shutdown();
+    }
+    assertThat(this.accountsService.getAccount("Id-2").getBalance()).isEqualTo(new BigDecimal("100"));
+  }
+
+  @Test
+  public void overloadedExecutionIsKeptAcrossRestart() throws Exception {
+    File directory = this.folder.newFolder();
+    long start = nextHour();
+    BatchTransferService overloaded = Mockito.mock(BatchTransferService.class);
+    Mockito.when(overloaded.transferBatch(Mockito.anyList(), Mockito.any(BatchMode.class)))
+      .thenReturn(Collections.singletonList(TransferStatus.OVERLOADED));
+    ScheduledTransferService service = new ScheduledTransferService(overloaded,
+      Optional.of(new ScheduledTransferStore(directory, true)), 100L, 16);
+    long once = service.schedule(transfer(start, 0)).getId();
+    assertThat(service.tick(start)).isEqualTo(1);
+    assertThat(service.tick(start + 100L)).isEqualTo(1);
+    assertThat(service.get(once)).isNull();
+    service.shutdown();
+
+    ScheduledTransferService restarted = new ScheduledTransferService(this.batchTransferService,
+      Optional.of(new ScheduledTransferStore(directory, true)), 100L, 16);
+    try {
+      assertThat(restarted.tick(start + 200L)).isEqualTo(1);
+      assertThat(restarted.tick(start + 300L)).isEqualTo(0);
+    } finally {
+      restarted.shutdown();
+    }
+    assertThat(this.accountsService.getAccount("Id-2").getBalance()).isEqualTo(new BigDecimal("110.5"));
+
+    ScheduledTransferService settled = new ScheduledTransferService(this.batchTransferService,
+      Optional.of(new ScheduledTransferStore(directory, true)), 100L, 16);
+    try {
+      assertThat(settled.tick(start + 400L)).isEqualTo(0);
+    } finally {
+      settled.shutdown();
+    }
+  }
+}
@@ -0,0 +1,241 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.ConsistentHashRing;
+import com.db.awmd.challenge.repository.HttpShardClient;
+import com.db.awmd.challenge.repository.LocalShard;
+import com.db.awmd.challenge.repository.ShardClient;
+import com.db.awmd.challenge.repository.ShardedAccountsRepository;
+import com.db.awmd.challenge.repository.StripedLockTransferEngine;
+import com.db.awmd.challenge.service.TransactionService;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+public class ShardedAccountsRepositoryTest {
+
+  private static final List<String> NAMES = Arrays.asList("shard-0", "shard-1", "shard-2");
+
+  private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+  @After
+  public void stopNodes() {
+    for (ConfigurableApplicationContext node : this.nodes) {
+      node.close();
+    }
+  }
+
+  private static LocalShard localShard() {
+    StripedLockTransferEngine engine = new StripedLockTransferEngine(64);
+    return new LocalShard(new AccountsRepositoryInMemory(engine), engine);
+  }
+
+  /**
+   * Id of the first account owned by the given shard.
+   */
+  private static String idOnShard(ConsistentHashRing ring, int shard, int start) {
+    for (int i = start; ; i++) {
+      if (ring.shardOf("Id-" + i) == shard) {
+        return "Id-" + i;
+      }
+    }
+  }
+
+  @Test
+  public void ringMovesFewIdsWhenAShardIsAdded() {
+    ConsistentHashRing three = new ConsistentHashRing(NAMES, 128);
+    ConsistentHashRing four = new ConsistentHashRing(Arrays.asList("shard-0", "shard-1", "shard-2", "shard-3"), 128);
+    int[] owned = new int[3];
+    int moved = 0;
+    for (int i = 0; i < 30000; i++) {
+      int before = three.shardOf("Id-" + i);
+      owned[before]++;
+      int after = four.shardOf("Id-" + i);
+      if (before != after) {
+        assertThat(after).isEqualTo(3);
+        moved++;
+      }
+    }
+    for (int count : owned) {
+      assertThat(count).isBetween(7000, 13000);
+    }
+    assertThat(moved).isBetween(5000, 10000);
+  }
+
+  @Test
+  public void crossShardTransfers() throws Exception {
+    List<LocalShard> shards = Arrays.asList(localShard(), localShard(), localShard());
+    ShardedAccountsRepository repository = new ShardedAccountsRepository(new ArrayList<ShardClient>(shards), NAMES,
+      128, "test");
+    ConsistentHashRing ring = new ConsistentHashRing(NAMES, 128);
+    String first = idOnShard(ring, 0, 0);
+    String second = idOnShard(ring, 1, 0);
+    repository.createAccount(new Account(first, new BigDecimal("100.00")));
+    repository.createAccount(new Account(second, new BigDecimal(10)));
+    assertThat(shards.get(0).getAccount(first)).isNotNull();
+    assertThat(shards.get(1).getAccount(second)).isNotNull();
+
+    assertThat(repository.moneyTransfer(first, second, 2550L, 2)).isTrue();
+    assertThat(repository.moneyTransfer(first, second, 10000L, 2)).isFalse();
+    // the credit overflows, the reservation is released
+    assertThat(repository.moneyTransfer(first, second, Long.MAX_VALUE, 2)).isFalse();
+
+    assertThat(repository.getAccount(first).getBalance()).isEqualTo(new BigDecimal("74.50"));
+    assertThat(repository.getAccount(second).getBalance()).isEqualTo(new BigDecimal("35.50"));
+    assertThat(shards.get(0).getPendingReservations()).isEqualTo(0);
+    // holds are not supported across shards
+    assertThat(repository.hold(first, 100L, 2)).isEqualTo(TransferStatus.INVALID_REQUEST);
+  }
+
+  @Test
+  public void pendingReservationIsResolvedByRetriedCredit() {
+    // the credit of the second shard is applied but its answer is lost once
+    AtomicBoolean loseAnswer = new AtomicBoolean(true);
+    StripedLockTransferEngine engine = new StripedLockTransferEngine(64);
+    LocalShard lossy = new LocalShard(new AccountsRepositoryInMemory(engine), engine) {
+      @Override
+      public boolean credit(String reservationId, String accountId, long amountUnits, int amountScale) {
+        boolean credited = super.credit(reservationId, accountId, amountUnits, amountScale);
+        if (loseAnswer.getAndSet(false)) {
+          throw new IllegalStateException("Read timed out");
+        }
+        return credited;
+      }
+    };
+    List<LocalShard> shards = Arrays.asList(localShard(), lossy, localShard());
+    ShardedAccountsRepository repository = new ShardedAccountsRepository(new ArrayList<ShardClient>(shards), NAMES,
+      128, "test");
+    ConsistentHashRing ring = new ConsistentHashRing(NAMES, 128);
+    String first = idOnShard(ring, 0, 0);
+    String second = idOnShard(ring, 1, 0);
+    repository.createAccount(new Account(first, new BigDecimal(100)));
+    repository.createAccount(new Account(second, new BigDecimal(10)));
+
+    assertThatThrownBy(() -> repository.moneyTransfer(first, second, 30L, 0))
+      .isInstanceOf(IllegalStateException.class);
+    assertThat(shards.get(0).getPendingReservations()).isEqualTo(1);
+    assertThat(repository.resolvePendingReservations(shards.get(0), System.currentTimeMillis() - 60000L)).isZero();
+
+    assertThat(repository.resolvePendingReservations(shards.get(0), System.currentTimeMillis() + 1L)).isEqualTo(1);
+    assertThat(shards.get(0).getPendingReservations()).isEqualTo(0);
+    // the credit sent again was recognised, the amount arrived once
+    assertThat(repository.getAccount(first).getBalance()).isEqualTo(new BigDecimal(70));
+    assertThat(repository.getAccount(second).getBalance()).isEqualTo(new BigDecimal(40));
+  }
+
+  @Test(expected = DuplicateAccountIdException.class)
+  public void duplicateIdOnOwningShard() {
+    ShardedAccountsRepository repository = new ShardedAccountsRepository(
+      Arrays.asList(localShard(), localShard(), localShard()), NAMES, 128, "test");
+    repository.createAccount(new Account("Id-1", BigDecimal.ONE));
+    repository.createAccount(new Account("Id-1", BigDecimal.ONE));
+  }
+
+  @Test
+  public void concurrentTransfersKeepTotal() throws Exception {
+    ShardedAccountsRepository repository = new ShardedAccountsRepository(
+      Arrays.asList(localShard(), localShard(), localShard()), NAMES, 128, "test");
+    int accounts = 30;
+    for (int i = 0; i < accounts; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal(1000)));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      int seed = t;
+      futures.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < 2000; i++) {
+          int from = random.nextInt(accounts);
+          int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+          repository.moneyTransfer("Id-" + from, "Id-" + to, 1 + random.nextInt(50), 0);
+        }
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < accounts; i++) {
+      Account account = repository.getAccount("Id-" + i);
+      assertThat(account.getBalance().signum()).isGreaterThanOrEqualTo(0);
+      total = total.add(account.getBalance());
+    }
+    assertThat(total).isEqualTo(new BigDecimal(1000 * accounts));
+  }
+
+  @Test
+  public void transfersBetweenNodesOnLocalhost() throws Exception {
+    int[] ports = {freePort(), freePort()};
+    int[] internalPorts = {freePort(), freePort()};
+    String nodeList = "http://localhost:" + internalPorts[0] + ",http://localhost:" + internalPorts[1];
+    for (int i = 0; i < ports.length; i++) {
+      this.nodes.add(new SpringApplicationBuilder(DevChallengeApplication.class).run(
+        "--server.port=" + ports[i], "--accounts.sharding.enabled=true", "--accounts.sharding.nodes=" + nodeList,
+        "--accounts.sharding.self=" + i, "--accounts.sharding.secret=test-secret"));
+    }
+    AccountsRepository firstNode = this.nodes.get(0).getBean(AccountsRepository.class);
+    AccountsRepository secondNode = this.nodes.get(1).getBean(AccountsRepository.class);
+    TransactionService transactionService = this.nodes.get(0).getBean(TransactionService.class);
+
+    ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList(nodeList.split(",")), 128);
+    String local = idOnShard(ring, 0, 0);
+    String remote = idOnShard(ring, 1, 0);
+    firstNode.createAccount(new Account(local, new BigDecimal(100)));
+    secondNode.createAccount(new Account(remote, new BigDecimal(100)));
+
+    transactionService.transferAmount(local, remote, new BigDecimal(30));
+    transactionService.transferAmount(remote, local, new BigDecimal("5.5"));
+
+    // each node answers for both accounts, the remote one through the other node
+    assertThat(secondNode.getAccount(local).getBalance()).isEqualTo(new BigDecimal("75.5"));
+    assertThat(firstNode.getAccount(remote).getBalance()).isEqualTo(new BigDecimal("124.5"));
+    assertThat(this.nodes.get(0).getBean(AccountsRepositoryInMemory.class).getAccount(remote)).isNull();
+
+    // the shard endpoints are neither on the public port nor open without the secret
+    String path = HttpShardClient.BASE_PATH + "/accounts/" + remote;
+    assertThat(statusOf("http://localhost:" + ports[1] + path)).isEqualTo(HttpStatus.NOT_FOUND);
+    assertThat(statusOf("http://localhost:" + internalPorts[1] + path)).isEqualTo(HttpStatus.FORBIDDEN);
+    assertThat(statusOf("http://localhost:" + internalPorts[1] + "/v1/accounts/" + remote))
+      .isEqualTo(HttpStatus.NOT_FOUND);
+  }
+
+  private static HttpStatus statusOf(String url) {
+    try {
+      return new RestTemplate().getForEntity(url, String.class).getStatusCode();
+    } catch (HttpClientErrorException ex) {
+      return ex.getStatusCode();
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
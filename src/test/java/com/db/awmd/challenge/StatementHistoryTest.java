@@ -0,0 +1,46 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.domain.StatementEntry;
+import com.db.awmd.challenge.domain.StatementHistory;
+import java.math.BigDecimal;
+import org.junit.Test;
+
+public class StatementHistoryTest {
+
+  @Test
+  public void findsEntriesAcrossChunks() {
+    StatementHistory history = new StatementHistory();
+    for (int i = 0; i < 1000; i++) {
+      // ten entries per millisecond
+      history.append(1000L + i / 10, i % 2 == 0 ? -i : i, 2, "Id-" + i);
+    }
+
+    assertThat(history.size()).isEqualTo(1000);
+    assertThat(history.firstAtOrAfter(0L)).isEqualTo(0);
+    assertThat(history.firstAtOrAfter(1026L)).isEqualTo(260);
+    assertThat(history.firstAtOrAfter(1100L)).isEqualTo(1000);
+
+    StatementEntry entry = history.get(301);
+    assertThat(entry.getSequence()).isEqualTo(301L);
+    assertThat(entry.getTimestamp()).isEqualTo(1030L);
+    assertThat(entry.getCounterparty()).isEqualTo("Id-301");
+    assertThat(entry.getAmount()).isEqualTo(new BigDecimal("3.01"));
+    // the chunks grow from 8 entries to 256, every entry is found in its own
+    for (int i = 0; i < 1000; i++) {
+      assertThat(history.get(i).getCounterparty()).isEqualTo("Id-" + i);
+      assertThat(history.firstAtOrAfter(1000L + i / 10)).isEqualTo(i / 10 * 10);
+    }
+  }
+
+  @Test
+  public void keepsTimestampsOrderedWhenTheClockGoesBack() {
+    StatementHistory history = new StatementHistory();
+    history.append(2000L, 1L, 0, "Id-1");
+    history.append(1500L, 1L, 0, "Id-1");
+
+    assertThat(history.get(1).getTimestamp()).isEqualTo(2000L);
+    assertThat(history.firstAtOrAfter(1600L)).isEqualTo(0);
+  }
+}
@@ -0,0 +1,57 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.service.TimingWheel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+  @Test
+  public void expiresEveryTimerAtItsDeadline() {
+    TimingWheel<Long> wheel = new TimingWheel<>(1000L);
+    Random random = new Random(7);
+    List<TimingWheel.Timer<Long>> cancelled = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      // deadlines spread over all levels, some already passed
+      long deadline = 990L + (long) Math.pow(2, random.nextDouble() * 30);
+      TimingWheel.Timer<Long> timer = wheel.schedule(Math.max(deadline, 1001L), deadline);
+      if (i % 10 == 0) {
+        cancelled.add(timer);
+      }
+    }
+    for (TimingWheel.Timer<Long> timer : cancelled) {
+      assertThat(wheel.cancel(timer)).isTrue();
+      assertThat(wheel.cancel(timer)).isFalse();
+    }
+    assertThat(wheel.size()).isEqualTo(18000);
+
+    long[] expired = new long[1];
+    long[] last = {0L};
+    wheel.advance(1000L + (1L << 31), timer -> {
+      assertThat(wheel.getNow()).isEqualTo(timer.getPayload());
+      assertThat(wheel.getNow()).isGreaterThanOrEqualTo(last[0]);
+      last[0] = wheel.getNow();
+      expired[0]++;
+    });
+    assertThat(expired[0]).isEqualTo(18000L);
+    assertThat(wheel.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void reschedulesFromTheConsumer() {
+    TimingWheel<String> wheel = new TimingWheel<>(0L);
+    wheel.schedule("recurring", 5L);
+    List<Long> ticks = new ArrayList<>();
+    wheel.advance(5000L, timer -> {
+      ticks.add(wheel.getNow());
+      if (ticks.size() < 4) {
+        wheel.reschedule(timer, timer.getDeadline() + 1000L);
+      }
+    });
+    assertThat(ticks).containsExactly(5L, 1005L, 2005L, 3005L);
+  }
+}
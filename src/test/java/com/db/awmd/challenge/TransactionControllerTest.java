@@ -1,8 +1,18 @@
 package com.db.awmd.challenge;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Hold;
+import com.db.awmd.challenge.metrics.TransferMetrics;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.AdmissionController;
+import com.db.awmd.challenge.service.BatchTransferService;
+import com.db.awmd.challenge.service.HoldService;
+import com.db.awmd.challenge.service.IdempotencyCache;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+import com.db.awmd.challenge.service.ScheduledTransferService;
 import com.db.awmd.challenge.service.TransactionService;
+import com.db.awmd.challenge.web.TransactionController;
+import com.jayway.jsonpath.JsonPath;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -14,13 +24,18 @@ import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.WebApplicationContext;
+import javax.validation.Validator;
 import java.math.BigDecimal;
+import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.standaloneSetup;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
 @RunWith(SpringRunner.class)
@@ -34,6 +49,27 @@ public class TransactionControllerTest {
     @Autowired
     private TransactionService transactionService;
 
+    @Autowired
+    private BatchTransferService batchTransferService;
+
+    @Autowired
+    private ScheduledTransferService scheduledTransferService;
+
+    @Autowired
+    private HoldService holdService;
+
+    @Autowired
+    private NotificationDispatcher notificationDispatcher;
+
+    @Autowired
+    private TransferMetrics transferMetrics;
+
+    @Autowired
+    private IdempotencyCache idempotencyCache;
+
+    @Autowired
+    private Validator validator;
+
     @Autowired
     private WebApplicationContext webApplicationContext;
 
@@ -168,4 +204,237 @@ public class TransactionControllerTest {
         t1.join();
         t2.join();
     }
+
+    /**
+     * transferBatch_bestEffortTest checks that a failing transfer of a best effort batch does not stop the others.
+     * @throws Exception
+     */
+    @Test
+    public void transferBatch_bestEffortTest() throws Exception {
+        this.accountsService.createAccount(new Account("Id-b1", new BigDecimal("500")));
+        this.accountsService.createAccount(new Account("Id-b2", new BigDecimal("100")));
+        this.accountsService.createAccount(new Account("Id-b3", new BigDecimal("0")));
+
+        this.mockMvc.perform(post("/v1/transaction/transfer/batch").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[{\"accountFrom\":\"Id-b1\",\"accountTo\":\"Id-b2\",\"amount\":100},"
+                        + "{\"accountFrom\":\"Id-b3\",\"accountTo\":\"Id-b2\",\"amount\":50},"
+                        + "{\"accountFrom\":\"Id-b2\",\"accountTo\":\"Id-b3\",\"amount\":150},"
+                        + "{\"accountFrom\":\"Id-b9\",\"accountTo\":\"Id-b1\",\"amount\":1},"
+                        + "{\"accountFrom\":\"Id-b1\",\"accountTo\":\"Id-b1\",\"amount\":1},"
+                        + "{\"accountFrom\":\"Id-b1\",\"accountTo\":\"Id-b2\",\"amount\":0}]"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("[\"OK\",\"INSUFFICIENT_FUNDS\",\"OK\",\"ACCOUNT_NOT_FOUND\","
+                        + "\"SAME_ACCOUNT\",\"INVALID_REQUEST\"]"));
+
+        assertThat(this.accountsService.getAccount("Id-b1").getBalance()).isEqualByComparingTo("400");
+        assertThat(this.accountsService.getAccount("Id-b2").getBalance()).isEqualByComparingTo("50");
+        assertThat(this.accountsService.getAccount("Id-b3").getBalance()).isEqualByComparingTo("150");
+    }
+
+    /**
+     * transferBatch_atomicTest checks that an atomic batch with a failing transfer leaves every balance unchanged.
+     * @throws Exception
+     */
+    @Test
+    public void transferBatch_atomicTest() throws Exception {
+        this.accountsService.createAccount(new Account("Id-a1", new BigDecimal("500")));
+        this.accountsService.createAccount(new Account("Id-a2", new BigDecimal("100")));
+
+        this.mockMvc.perform(post("/v1/transaction/transfer/batch?mode=ATOMIC").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[{\"accountFrom\":\"Id-a1\",\"accountTo\":\"Id-a2\",\"amount\":100.5},"
+                        + "{\"accountFrom\":\"Id-a2\",\"accountTo\":\"Id-a1\",\"amount\":300}]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("[\"ABORTED\",\"INSUFFICIENT_FUNDS\"]"));
+
+        this.mockMvc.perform(get("/v1/accounts/Id-a1"))
+                .andExpect(content().string("{\"accountId\":\"Id-a1\",\"balance\":500}"));
+        this.mockMvc.perform(get("/v1/accounts/Id-a2"))
+                .andExpect(content().string("{\"accountId\":\"Id-a2\",\"balance\":100}"));
+
+        this.mockMvc.perform(post("/v1/transaction/transfer/batch?mode=ATOMIC").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[{\"accountFrom\":\"Id-a1\",\"accountTo\":\"Id-a2\",\"amount\":300},"
+                        + "{\"accountFrom\":\"Id-a2\",\"accountTo\":\"Id-a1\",\"amount\":350}]"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("[\"OK\",\"OK\"]"));
+
+        // an atomic batch is not idempotent, a request id would suggest it is safe to retry
+        this.mockMvc.perform(post("/v1/transaction/transfer/batch?mode=ATOMIC").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[{\"accountFrom\":\"Id-a1\",\"accountTo\":\"Id-a2\",\"amount\":10,\"requestId\":\"atomic-1\"},"
+                        + "{\"accountFrom\":\"Id-a2\",\"accountTo\":\"Id-a1\",\"amount\":5}]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("[\"INVALID_REQUEST\",\"ABORTED\"]"));
+
+        assertThat(this.accountsService.getAccount("Id-a1").getBalance()).isEqualByComparingTo("550");
+        assertThat(this.accountsService.getAccount("Id-a2").getBalance()).isEqualByComparingTo("50");
+    }
+
+    /**
+     * transferLegs_test checks that a multi-leg transfer is applied in full and refused in full.
+     * @throws Exception
+     */
+    @Test
+    public void transferLegs_test() throws Exception {
+        this.accountsService.createAccount(new Account("Id-p1", new BigDecimal("1000")));
+        this.accountsService.createAccount(new Account("Id-p2", new BigDecimal("0")));
+        this.accountsService.createAccount(new Account("Id-p3", new BigDecimal("0")));
+
+        this.mockMvc.perform(post("/v1/transaction/transfer/legs").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountFrom\":\"Id-p1\",\"legs\":[{\"accountTo\":\"Id-p2\",\"amount\":400},"
+                        + "{\"accountTo\":\"Id-p3\",\"amount\":250.5}]}"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("[\"OK\",\"OK\"]"));
+
+        this.mockMvc.perform(post("/v1/transaction/transfer/legs").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountFrom\":\"Id-p1\",\"legs\":[{\"accountTo\":\"Id-p2\",\"amount\":200},"
+                        + "{\"accountTo\":\"Id-p3\",\"amount\":200}]}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("[\"INSUFFICIENT_FUNDS\",\"INSUFFICIENT_FUNDS\"]"));
+
+        this.mockMvc.perform(post("/v1/transaction/transfer/legs").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountFrom\":\"Id-p1\",\"legs\":[]}"))
+                .andExpect(status().isBadRequest());
+
+        assertThat(this.accountsService.getAccount("Id-p1").getBalance()).isEqualByComparingTo("349.5");
+        assertThat(this.accountsService.getAccount("Id-p2").getBalance()).isEqualByComparingTo("400");
+        assertThat(this.accountsService.getAccount("Id-p3").getBalance()).isEqualByComparingTo("250.5");
+    }
+
+    /**
+     * transferMoney_retryTest checks that a request retried with the same requestId is applied once.
+     * @throws Exception
+     */
+    @Test
+    public void transferMoney_retryTest() throws Exception {
+        this.accountsService.createAccount(new Account("Id-t1", new BigDecimal("500")));
+        this.accountsService.createAccount(new Account("Id-t2", new BigDecimal("100")));
+
+        for (int attempt = 0; attempt < 3; attempt++) {
+            this.mockMvc.perform(post("/v1/transaction/transfer").contentType(MediaType.APPLICATION_JSON_VALUE)
+                    .content("{\"accountFrom\":\"Id-t1\",\"accountTo\":\"Id-t2\",\"amount\":100,\"requestId\":\"req-t1\"}"))
+                    .andExpect(status().isOk());
+        }
+
+        assertThat(this.accountsService.getAccount("Id-t1").getBalance()).isEqualByComparingTo("400");
+        assertThat(this.accountsService.getAccount("Id-t2").getBalance()).isEqualByComparingTo("200");
+    }
+
+    /**
+     * transferMoney_rejectionTest checks the bodies of rejected transfers.
+     * @throws Exception
+     */
+    @Test
+    public void transferMoney_rejectionTest() throws Exception {
+        this.accountsService.createAccount(new Account("Id-j1", new BigDecimal("5")));
+        this.accountsService.createAccount(new Account("Id-j2", new BigDecimal("5")));
+
+        this.mockMvc.perform(post("/v1/transaction/transfer").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountFrom\":\"Id-j1\",\"accountTo\":\"Id-j2\",\"amount\":6}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("No sufficient balance to make the transfer"));
+        this.mockMvc.perform(post("/v1/transaction/transfer").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountFrom\":\"Id-j1\",\"accountTo\":\"Id-j1\",\"amount\":1}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Both From and To account cannot be same"));
+        this.mockMvc.perform(post("/v1/transaction/transfer").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountFrom\":\"Id-j9\",\"accountTo\":\"Id-j1\",\"amount\":1}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("From or To account not found"));
+
+        assertThat(this.accountsService.getAccount("Id-j1").getBalance()).isEqualByComparingTo("5");
+    }
+
+    /**
+     * holds_test checks that a hold is taken from the available balance and settled once.
+     * @throws Exception
+     */
+    @Test
+    public void holds_test() throws Exception {
+        this.accountsService.createAccount(new Account("Id-h1", new BigDecimal("100")));
+        this.accountsService.createAccount(new Account("Id-h2", new BigDecimal("0")));
+
+        String hold = this.mockMvc.perform(post("/v1/transaction/holds").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountId\":\"Id-h1\",\"amount\":80}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        long id = ((Number) JsonPath.read(hold, "$.id")).longValue();
+
+        this.mockMvc.perform(get("/v1/accounts/Id-h1/balances"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(
+                        "{\"accountId\":\"Id-h1\",\"ledgerBalance\":100,\"heldBalance\":80,\"availableBalance\":20}"));
+        this.mockMvc.perform(post("/v1/transaction/transfer").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountFrom\":\"Id-h1\",\"accountTo\":\"Id-h2\",\"amount\":21}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("No sufficient balance to make the transfer"));
+        this.mockMvc.perform(post("/v1/transaction/holds").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountId\":\"Id-h1\",\"amount\":21}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("No sufficient balance to make the transfer"));
+
+        this.mockMvc.perform(post("/v1/transaction/holds/" + id + "/capture")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountTo\":\"Id-h2\",\"amount\":75}"))
+                .andExpect(status().isOk());
+        this.mockMvc.perform(post("/v1/transaction/holds/" + id + "/capture")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountTo\":\"Id-h2\"}"))
+                .andExpect(status().isNotFound());
+        this.mockMvc.perform(get("/v1/transaction/holds/" + id))
+                .andExpect(status().isNotFound());
+        this.mockMvc.perform(delete("/v1/transaction/holds/" + id))
+                .andExpect(status().isNotFound());
+
+        assertThat(this.accountsService.getAccount("Id-h1").getAvailableBalance()).isEqualByComparingTo("25");
+        assertThat(this.accountsService.getAccount("Id-h2").getBalance()).isEqualByComparingTo("75");
+    }
+
+    /**
+     * transferMoney_overloadedTest checks that transfers over the admission limit are answered with 429, whichever
+     * endpoint they come through.
+     * @throws Exception
+     */
+    @Test
+    public void transferMoney_overloadedTest() throws Exception {
+        this.accountsService.createAccount(new Account("Id-o1", new BigDecimal("500")));
+        this.accountsService.createAccount(new Account("Id-o2", new BigDecimal("100")));
+        AdmissionController admission = new AdmissionController(1, 1, 1, 100L, 0L, 8, 1.0, 2L);
+        TransactionService limitedService = new TransactionService(this.accountsService.getAccountsRepository(),
+                this.notificationDispatcher, this.transferMetrics, this.idempotencyCache, Optional.of(admission));
+        BatchTransferService limitedBatches = new BatchTransferService(limitedService, this.validator, 1, 64);
+        HoldService limitedHolds = new HoldService(this.accountsService.getAccountsRepository(),
+                this.notificationDispatcher, limitedService, 1000L, 3600L);
+        MockMvc limited = standaloneSetup(new TransactionController(limitedService, limitedBatches,
+                this.scheduledTransferService, limitedHolds, Optional.of(admission))).build();
+        Hold hold = new Hold();
+        hold.setAccountId("Id-o1");
+        hold.setAmount(new BigDecimal("50"));
+        long holdId = limitedHolds.place(hold).getId();
+
+        limited.perform(post("/v1/transaction/transfer").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountFrom\":\"Id-o1\",\"accountTo\":\"Id-o2\",\"amount\":100}"))
+                .andExpect(status().isOk());
+        int permit = admission.acquire("Id-other");
+        limited.perform(post("/v1/transaction/transfer").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountFrom\":\"Id-o1\",\"accountTo\":\"Id-o2\",\"amount\":100}"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "2"));
+        limited.perform(post("/v1/transaction/transfer/batch?mode=ATOMIC").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[{\"accountFrom\":\"Id-o1\",\"accountTo\":\"Id-o2\",\"amount\":100}]"))
+                .andExpect(status().isTooManyRequests());
+        limited.perform(post("/v1/transaction/transfer/batch").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[{\"accountFrom\":\"Id-o1\",\"accountTo\":\"Id-o2\",\"amount\":100}]"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("[\"OVERLOADED\"]"));
+        limited.perform(post("/v1/transaction/transfer/legs").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountFrom\":\"Id-o1\",\"legs\":[{\"accountTo\":\"Id-o2\",\"amount\":100}]}"))
+                .andExpect(status().isTooManyRequests());
+        limited.perform(post("/v1/transaction/holds/" + holdId + "/capture").contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"accountTo\":\"Id-o2\"}"))
+                .andExpect(status().isTooManyRequests());
+        admission.release(permit, 1000L);
+        limitedHolds.shutdown();
+
+        assertThat(admission.getInFlight()).isEqualTo(0);
+        assertThat(this.accountsService.getAccount("Id-o1").getBalance()).isEqualByComparingTo("400");
+    }
 }
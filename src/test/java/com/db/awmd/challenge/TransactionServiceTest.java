@@ -1,6 +1,9 @@
 package com.db.awmd.challenge;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.repository.AccountsRepository;
 import com.db.awmd.challenge.service.AccountsService;
 import com.db.awmd.challenge.service.TransactionService;
 import org.junit.Before;
@@ -12,8 +15,16 @@ import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
 @RunWith(SpringRunner.class)
@@ -51,6 +62,21 @@ public class TransactionServiceTest {
         assertThat(this.accountsService.getAccount("Id-1234").getBalance()).isEqualTo(new BigDecimal(600));
     }
 
+    /**
+     * transferAmountTest_fractionalAmount method checks that balances kept in minor units follow the scale of the
+     * amounts like BigDecimal arithmetic does.
+     */
+    @Test
+    public void transferAmountTest_fractionalAmount() throws Exception {
+        this.accountsService.createAccount(new Account("Id-f1", new BigDecimal("500")));
+        this.accountsService.createAccount(new Account("Id-f2", new BigDecimal("10.5")));
+
+        this.transactionService.transferAmount("Id-f1", "Id-f2", new BigDecimal("0.25"));
+
+        assertThat(this.accountsService.getAccount("Id-f1").getBalance()).isEqualTo(new BigDecimal("499.75"));
+        assertThat(this.accountsService.getAccount("Id-f2").getBalance()).isEqualTo(new BigDecimal("10.75"));
+    }
+
     /**
      * transferAmountTest_ovrDraft method tests failure transaction when the transfering account does not have
      * enough balance to make a transfer.
@@ -109,4 +135,110 @@ public class TransactionServiceTest {
             assertThat(e.getMessage().contains("Both From and To account cannot be same"));
         }
     }
+
+    /**
+     * repositoryTransferTest_statuses method checks the result codes of the single pass repository transfer and that
+     * the callback only runs for an applied transfer.
+     */
+    @Test
+    public void repositoryTransferTest_statuses() {
+        this.accountsService.createAccount(new Account("Id-s1", new BigDecimal(10)));
+        this.accountsService.createAccount(new Account("Id-s2", new BigDecimal(10)));
+        AccountsRepository repository = this.accountsService.getAccountsRepository();
+        List<String> transferred = new ArrayList<>();
+        BiConsumer<Account, Account> callback = (from, to) -> transferred.add(from.getAccountId() + ">" + to.getAccountId());
+
+        assertThat(repository.transfer("Id-s1", "Id-s2", 400L, 2, callback)).isEqualTo(TransferStatus.OK);
+        assertThat(repository.transfer("Id-s1", "Id-s2", 7L, 0, callback)).isEqualTo(TransferStatus.INSUFFICIENT_FUNDS);
+        assertThat(repository.transfer("Id-s1", "Id-s1", 1L, 0, callback)).isEqualTo(TransferStatus.SAME_ACCOUNT);
+        assertThat(repository.transfer("Id-s9", "Id-s1", 1L, 0, callback)).isEqualTo(TransferStatus.ACCOUNT_NOT_FOUND);
+        assertThat(repository.transfer("Id-s1", "Id-s9", 1L, 0, callback)).isEqualTo(TransferStatus.ACCOUNT_NOT_FOUND);
+
+        assertThat(transferred).containsExactly("Id-s1>Id-s2");
+        assertThat(this.accountsService.getAccount("Id-s1").getBalance()).isEqualTo(new BigDecimal("6.00"));
+        assertThat(this.accountsService.getAccount("Id-s2").getBalance()).isEqualTo(new BigDecimal("14.00"));
+    }
+
+    /**
+     * transferAmountTest_concurrentTransfers method runs mutual transfers between a few accounts from several threads
+     * and checks that money is neither created nor lost and no account is overdrawn.
+     */
+    @Test
+    public void transferAmountTest_concurrentTransfers() throws Exception {
+        int accountCount = 8;
+        for (int i = 0; i < accountCount; i++) {
+            this.accountsService.createAccount(new Account("Id-c" + i, new BigDecimal(100)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int seed = t;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 2000; i++) {
+                    int from = random.nextInt(accountCount);
+                    int to = (from + 1 + random.nextInt(accountCount - 1)) % accountCount;
+                    try {
+                        this.transactionService.transferAmount("Id-c" + from, "Id-c" + to, new BigDecimal(1 + random.nextInt(30)));
+                    } catch (Exception e) {
+                        assertThat(e.getMessage()).contains("No sufficient balance");
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < accountCount; i++) {
+            BigDecimal balance = this.accountsService.getAccount("Id-c" + i).getBalance();
+            assertThat(balance).isGreaterThanOrEqualTo(BigDecimal.ZERO);
+            total = total.add(balance);
+        }
+        assertThat(total).isEqualByComparingTo(new BigDecimal(100 * accountCount));
+    }
+
+    /**
+     * transferAmountTest_retriedRequestId checks that a retried request id returns the original outcome and does not
+     * transfer again, also when the original transfer was rejected.
+     */
+    @Test
+    public void transferAmountTest_retriedRequestId() throws Exception {
+        this.accountsService.createAccount(new Account("Id-r1", new BigDecimal(100)));
+        this.accountsService.createAccount(new Account("Id-r2", new BigDecimal(100)));
+
+        this.transactionService.transferAmount("Id-r1", "Id-r2", new BigDecimal(60), "retry-ok");
+        this.transactionService.transferAmount("Id-r1", "Id-r2", new BigDecimal(60), "retry-ok");
+        assertThat(this.accountsService.getAccount("Id-r1").getBalance()).isEqualTo(new BigDecimal(40));
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                this.transactionService.transferAmount("Id-r1", "Id-r2", new BigDecimal(50), "retry-rejected");
+                fail("Transfer should be rejected");
+            } catch (TransactionException ex) {
+                assertThat(ex.getStatus()).isEqualTo(TransferStatus.INSUFFICIENT_FUNDS);
+            }
+        }
+        assertThat(this.accountsService.getAccount("Id-r2").getBalance()).isEqualTo(new BigDecimal(160));
+    }
+
+    /**
+     * transferAmountTest_reusedRequestId checks that a request id cannot be reused for a different transfer.
+     */
+    @Test
+    public void transferAmountTest_reusedRequestId() throws Exception {
+        this.accountsService.createAccount(new Account("Id-u1", new BigDecimal(100)));
+        this.accountsService.createAccount(new Account("Id-u2", new BigDecimal(100)));
+
+        this.transactionService.transferAmount("Id-u1", "Id-u2", new BigDecimal(10), "reused");
+        try {
+            this.transactionService.transferAmount("Id-u1", "Id-u2", new BigDecimal(20), "reused");
+            fail("Transfer should be rejected");
+        } catch (TransactionException ex) {
+            assertThat(ex.getMessage()).contains("already used");
+        }
+        assertThat(this.accountsService.getAccount("Id-u1").getBalance()).isEqualTo(new BigDecimal(90));
+    }
 }
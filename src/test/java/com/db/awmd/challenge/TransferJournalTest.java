@@ -0,0 +1,243 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.SnapshotStore;
+import com.db.awmd.challenge.repository.StripedLockTransferEngine;
+import com.db.awmd.challenge.repository.TransferJournal;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TransferJournalTest {
+
+  private static final long SEGMENT_SIZE = 4096;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private AccountsRepositoryInMemory openRepository(File directory) {
+    AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(new StripedLockTransferEngine(64),
+      Optional.of(new TransferJournal(directory, SEGMENT_SIZE, true)), Optional.empty(),
+      TransferMetrics.disabled());
+    repository.recover();
+    return repository;
+  }
+
+  private AccountsRepositoryInMemory openRepository(File directory, File snapshotDirectory) {
+    AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(new StripedLockTransferEngine(64),
+      Optional.of(new TransferJournal(directory, SEGMENT_SIZE, true)),
+      Optional.of(new SnapshotStore(snapshotDirectory, 2)), TransferMetrics.disabled());
+    repository.recover();
+    return repository;
+  }
+
+  @Test
+  public void replayRestoresAccounts() throws Exception {
+    File directory = folder.newFolder();
+    AccountsRepositoryInMemory repository = openRepository(directory);
+    repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+    repository.createAccount(new Account("Id-2", new BigDecimal("20.5")));
+    assertThat(repository.moneyTransfer("Id-1", "Id-2", 2525, 2)).isTrue();
+    assertThat(repository.moneyTransfer("Id-2", "Id-1", 1000, 0)).isFalse();
+    List<TransferStatus> statuses = repository.moneyTransferAll(Arrays.asList(
+      new MoneyTransfer("Id-2", "Id-1", new BigDecimal("40")),
+      new MoneyTransfer("Id-1", "Id-2", new BigDecimal("1"))));
+    assertThat(statuses).containsExactly(TransferStatus.OK, TransferStatus.OK);
+    // a rolled back batch must not be replayed
+    repository.moneyTransferAll(Arrays.asList(
+      new MoneyTransfer("Id-1", "Id-2", new BigDecimal("50")),
+      new MoneyTransfer("Id-2", "Id-1", new BigDecimal("500"))));
+
+    AccountsRepositoryInMemory recovered = openRepository(directory);
+    assertThat(recovered.getAccount("Id-1").getBalance()).isEqualTo(new BigDecimal("113.75"));
+    assertThat(recovered.getAccount("Id-2").getBalance()).isEqualTo(new BigDecimal("6.75"));
+  }
+
+  @Test
+  public void replayRestoresLegs() throws Exception {
+    File directory = folder.newFolder();
+    AccountsRepositoryInMemory repository = openRepository(directory);
+    repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+    repository.createAccount(new Account("Id-2", new BigDecimal("0")));
+    repository.createAccount(new Account("Id-3", new BigDecimal("0")));
+    assertThat(repository.moneyTransferLegs("Id-1", new String[] {"Id-2", "Id-3", "Id-2"},
+      new long[] {1050, 20, 5}, new int[] {2, 0, 0}))
+      .containsExactly(TransferStatus.OK, TransferStatus.OK, TransferStatus.OK);
+    // the sum is checked, not each leg
+    assertThat(repository.moneyTransferLegs("Id-1", new String[] {"Id-2", "Id-3"}, new long[] {40, 40},
+      new int[] {0, 0})).containsExactly(TransferStatus.INSUFFICIENT_FUNDS, TransferStatus.INSUFFICIENT_FUNDS);
+    assertThat(repository.moneyTransferLegs("Id-1", new String[] {"Id-2", "Id-9", "Id-1"}, new long[] {1, 1, 1},
+      new int[] {0, 0, 0}))
+      .containsExactly(TransferStatus.ABORTED, TransferStatus.ACCOUNT_NOT_FOUND, TransferStatus.SAME_ACCOUNT);
+    // a credit overflowing its balance rolls back the debit and the earlier legs
+    repository.createAccount(new Account("Id-full", new BigDecimal(Long.MAX_VALUE - 1)));
+    assertThat(repository.moneyTransferLegs("Id-1", new String[] {"Id-2", "Id-full"}, new long[] {1, 2},
+      new int[] {0, 0})).containsExactly(TransferStatus.ABORTED, TransferStatus.INVALID_REQUEST);
+    assertThat(repository.getAccount("Id-1").getBalance()).isEqualTo(new BigDecimal("64.50"));
+    assertThat(repository.getAccount("Id-2").getBalance()).isEqualTo(new BigDecimal("15.50"));
+    assertThat(repository.getAccount("Id-2").getHistory().size()).isEqualTo(2);
+
+    AccountsRepositoryInMemory recovered = openRepository(directory);
+    assertThat(recovered.getAccount("Id-1").getBalance()).isEqualTo(new BigDecimal("64.50"));
+    assertThat(recovered.getAccount("Id-2").getBalance()).isEqualTo(new BigDecimal("15.50"));
+    assertThat(recovered.getAccount("Id-3").getBalance()).isEqualTo(new BigDecimal("20"));
+    assertThat(recovered.getAccount("Id-full").getBalance()).isEqualTo(new BigDecimal(Long.MAX_VALUE - 1));
+  }
+
+  @Test
+  public void replayAcrossSegmentsAfterConcurrentTransfers() throws Exception {
+    File directory = folder.newFolder();
+    AccountsRepositoryInMemory repository = openRepository(directory);
+    int accountCount = 10;
+    for (int i = 0; i < accountCount; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal(1000)));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Random random = new Random(t);
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 500; i++) {
+          int from = random.nextInt(accountCount);
+          int to = (from + 1 + random.nextInt(accountCount - 1)) % accountCount;
+          repository.moneyTransfer("Id-" + from, "Id-" + to, 1 + random.nextInt(100), 0);
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    assertThat(directory.list().length).isGreaterThan(2);
+
+    AccountsRepositoryInMemory recovered = openRepository(directory);
+    for (int i = 0; i < accountCount; i++) {
+      assertThat(recovered.getAccount("Id-" + i).getBalance())
+        .isEqualTo(repository.getAccount("Id-" + i).getBalance());
+    }
+  }
+
+  @Test
+  public void tornRecordIsIgnored() throws Exception {
+    File directory = folder.newFolder();
+    AccountsRepositoryInMemory repository = openRepository(directory);
+    repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+    repository.createAccount(new Account("Id-2", new BigDecimal("0")));
+    repository.moneyTransfer("Id-1", "Id-2", 10, 0);
+
+    // corrupt the last byte of the transfer record, its checksum
+    TransferJournal probe = new TransferJournal(directory, SEGMENT_SIZE, true);
+    long[] lastPosition = new long[1];
+    probe.recover(0L, new TransferJournal.Visitor() {
+      @Override
+      public void accountCreated(long position, String accountId, long balanceUnits, int balanceScale) {
+      }
+
+      @Override
+      public void transferred(long position, String fromAccountId, String toAccountId, long amountUnits,
+        int amountScale) {
+        lastPosition[0] = position;
+      }
+
+      @Override
+      public void accountsCleared(long position) {
+      }
+    });
+    try (RandomAccessFile file = new RandomAccessFile(directory.listFiles()[0], "rw")) {
+      file.seek(lastPosition[0] - 1);
+      int checksumByte = file.read();
+      file.seek(lastPosition[0] - 1);
+      file.write(checksumByte ^ 0xFF);
+    }
+
+    AccountsRepositoryInMemory recovered = openRepository(directory);
+    assertThat(recovered.getAccount("Id-1").getBalance()).isEqualTo(new BigDecimal("100"));
+    assertThat(recovered.moneyTransfer("Id-1", "Id-2", 30, 0)).isTrue();
+
+    AccountsRepositoryInMemory recoveredAgain = openRepository(directory);
+    assertThat(recoveredAgain.getAccount("Id-2").getBalance()).isEqualTo(new BigDecimal("30"));
+  }
+
+  @Test
+  public void snapshotThenReplayTail() throws Exception {
+    File directory = folder.newFolder();
+    File snapshotDirectory = folder.newFolder();
+    AccountsRepositoryInMemory repository = openRepository(directory, snapshotDirectory);
+    for (int i = 0; i < 200; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal(100)));
+    }
+    for (int i = 0; i < 200; i++) {
+      repository.moneyTransfer("Id-" + i, "Id-" + ((i + 1) % 200), i % 7, 0);
+    }
+    long startPosition = repository.snapshot();
+    assertThat(startPosition).isGreaterThan(SEGMENT_SIZE);
+    // the segments before the snapshot are no longer needed
+    assertThat(new File(directory, "journal-0000000000000000.log").exists()).isFalse();
+    repository.moneyTransfer("Id-3", "Id-4", 50, 0);
+    repository.moneyTransferAll(Arrays.asList(
+      new MoneyTransfer("Id-4", "Id-5", new BigDecimal("25.5")),
+      new MoneyTransfer("Id-4", "Id-6", new BigDecimal("0.5"))));
+    repository.createAccount(new Account("Id-new", new BigDecimal("1")));
+    repository.moneyTransfer("Id-new", "Id-3", 1, 0);
+
+    AccountsRepositoryInMemory recovered = openRepository(directory, snapshotDirectory);
+    for (int i = 0; i < 200; i++) {
+      assertThat(recovered.getAccount("Id-" + i).getBalance())
+        .isEqualTo(repository.getAccount("Id-" + i).getBalance());
+    }
+    assertThat(recovered.getAccount("Id-new").getBalance()).isEqualTo(new BigDecimal("0"));
+  }
+
+  @Test
+  public void snapshotDuringConcurrentTransfers() throws Exception {
+    File directory = folder.newFolder();
+    File snapshotDirectory = folder.newFolder();
+    AccountsRepositoryInMemory repository = openRepository(directory, snapshotDirectory);
+    int accountCount = 50;
+    for (int i = 0; i < accountCount; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal(1000)));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Random random = new Random(t);
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 1000; i++) {
+          int from = random.nextInt(accountCount);
+          int to = (from + 1 + random.nextInt(accountCount - 1)) % accountCount;
+          repository.moneyTransfer("Id-" + from, "Id-" + to, 1 + random.nextInt(100), 0);
+        }
+      }));
+    }
+    for (int i = 0; i < 5; i++) {
+      repository.snapshot();
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    AccountsRepositoryInMemory recovered = openRepository(directory, snapshotDirectory);
+    for (int i = 0; i < accountCount; i++) {
+      assertThat(recovered.getAccount("Id-" + i).getBalance())
+        .isEqualTo(repository.getAccount("Id-" + i).getBalance());
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.TransactionException;
+import com.db.awmd.challenge.metrics.LatencyHistogram;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransactionService;
+import java.math.BigDecimal;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@WebAppConfiguration
+public class TransferMetricsTest {
+
+  private MockMvc mockMvc;
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Autowired
+  private TransactionService transactionService;
+
+  @Autowired
+  private TransferMetrics transferMetrics;
+
+  @Autowired
+  private WebApplicationContext webApplicationContext;
+
+  @Before
+  public void prepareMockMvc() {
+    this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+
+    // Reset the existing accounts before each test.
+    accountsService.getAccountsRepository().clearAccounts();
+  }
+
+  @Test
+  public void histogramPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 10000; value++) {
+      histogram.record(value);
+    }
+
+    Map<String, Object> snapshot = histogram.snapshot();
+    assertThat(snapshot.get("count")).isEqualTo(10000L);
+    assertThat((Long) snapshot.get("p50")).isBetween(5000L, 5000L * 33 / 32);
+    assertThat((Long) snapshot.get("p99")).isBetween(9900L, 10000L);
+    assertThat(snapshot.get("max")).isEqualTo(10000L);
+  }
+
+  @Test
+  public void transfersAreCounted() throws Exception {
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal(100)));
+    this.accountsService.createAccount(new Account("Id-2", new BigDecimal(100)));
+    long ok = outcome("OK");
+    long insufficient = outcome("INSUFFICIENT_FUNDS");
+    long notFound = outcome("ACCOUNT_NOT_FOUND");
+
+    this.transactionService.transferAmount("Id-1", "Id-2", new BigDecimal(50));
+    try {
+      this.transactionService.transferAmount("Id-1", "Id-2", new BigDecimal(500));
+    } catch (TransactionException ex) {
+      // expected
+    }
+    try {
+      this.transactionService.transferAmount("Id-1", "Id-3", new BigDecimal(5));
+    } catch (TransactionException ex) {
+      // expected
+    }
+
+    assertThat(outcome("OK")).isEqualTo(ok + 1);
+    assertThat(outcome("INSUFFICIENT_FUNDS")).isEqualTo(insufficient + 1);
+    assertThat(outcome("ACCOUNT_NOT_FOUND")).isEqualTo(notFound + 1);
+  }
+
+  @Test
+  public void metricsEndpoint() throws Exception {
+    this.mockMvc.perform(get("/v1/metrics")).andExpect(status().isOk())
+      .andExpect(jsonPath("$.enabled").value(true))
+      .andExpect(jsonPath("$.transfers.outcomes.OK").exists())
+      .andExpect(jsonPath("$.transfers.latencyNanos.p99").exists())
+      .andExpect(jsonPath("$.locks.retries").exists())
+      .andExpect(jsonPath("$.locks.waitNanos.max").exists());
+  }
+
+  @SuppressWarnings("unchecked")
+  private long outcome(String status) {
+    Map<String, Object> transfers = (Map<String, Object>) this.transferMetrics.snapshot().get("transfers");
+    return (Long) ((Map<String, Object>) transfers.get("outcomes")).get(status);
+  }
+}
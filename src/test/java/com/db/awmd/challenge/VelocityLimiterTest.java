@@ -0,0 +1,143 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MoneyTransfer;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.StripedLockTransferEngine;
+import com.db.awmd.challenge.repository.VelocityLimiter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class VelocityLimiterTest {
+
+  private static final long MINUTE = 60_000L;
+
+  /**
+   * A time on a bucket boundary of a one minute rule.
+   */
+  private static final long START = 1_000_000L * MINUTE;
+
+  private static VelocityLimiter limiter(String... rules) {
+    return new VelocityLimiter(rules, 2);
+  }
+
+  @Test
+  public void countSlidesWithTheWindow() {
+    VelocityLimiter limiter = limiter("60:3:0");
+    Account account = new Account("Id-1");
+
+    for (int i = 0; i < 3; i++) {
+      assertThat(limiter.tryRecord(account, 1L, 0, START)).isTrue();
+    }
+    assertThat(limiter.tryRecord(account, 1L, 0, START + 1000L)).isFalse();
+    // the window spans four buckets of 15 seconds, the first one leaves it a minute later
+    assertThat(limiter.tryRecord(account, 1L, 0, START + MINUTE - 1L)).isFalse();
+    assertThat(limiter.tryRecord(account, 1L, 0, START + MINUTE)).isTrue();
+  }
+
+  @Test
+  public void totalIsCountedRoundedUp() {
+    VelocityLimiter limiter = limiter("60:0:100");
+    Account account = new Account("Id-1");
+
+    assertThat(limiter.tryRecord(account, 60001L, 3, START)).isTrue();
+    assertThat(limiter.tryRecord(account, 4000L, 2, START)).isFalse();
+    assertThat(limiter.tryRecord(account, 3999L, 2, START)).isTrue();
+    assertThat(limiter.tryRecord(account, 1L, 18, START)).isFalse();
+    assertThat(limiter.tryRecord(account, Long.MAX_VALUE, 0, START + MINUTE)).isFalse();
+  }
+
+  @Test
+  public void rejectedTransferIsNotCounted() {
+    VelocityLimiter limiter = limiter("60:0:100", "3600:2:0");
+    Account account = new Account("Id-1");
+
+    assertThat(limiter.tryRecord(account, 90L, 0, START)).isTrue();
+    // the hourly rule passes, the minute rule does not and the hourly count is taken back
+    assertThat(limiter.tryRecord(account, 20L, 0, START)).isFalse();
+    assertThat(limiter.tryRecord(account, 10L, 0, START)).isTrue();
+    assertThat(limiter.tryRecord(account, 1L, 0, START + MINUTE)).isFalse();
+
+    limiter.unrecord(account, 10L, 0, START);
+    assertThat(limiter.tryRecord(account, 1L, 0, START + MINUTE)).isTrue();
+  }
+
+  @Test
+  public void concurrentTransfersStayWithinTheRule() throws Exception {
+    VelocityLimiter limiter = limiter("60:1000:0");
+    Account account = new Account("Id-1");
+    AtomicInteger recorded = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 500; i++) {
+          if (limiter.tryRecord(account, 1L, 0, START)) {
+            recorded.incrementAndGet();
+          }
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    assertThat(recorded.get()).isEqualTo(1000);
+  }
+
+  @Test
+  public void repositoryRejectsOverTheLimit() {
+    AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(new StripedLockTransferEngine(64),
+      Optional.empty(), Optional.empty(), TransferMetrics.disabled(), Optional.of(limiter("3600:2:0")));
+    repository.createAccount(new Account("Id-1", new BigDecimal(100)));
+    repository.createAccount(new Account("Id-2", new BigDecimal(0)));
+
+    assertThat(repository.transfer("Id-1", "Id-2", 101L, 0, null)).isEqualTo(TransferStatus.INSUFFICIENT_FUNDS);
+    assertThat(repository.transfer("Id-1", "Id-2", 10L, 0, null)).isEqualTo(TransferStatus.OK);
+    assertThat(repository.transfer("Id-1", "Id-2", 10L, 0, null)).isEqualTo(TransferStatus.OK);
+    assertThat(repository.transfer("Id-1", "Id-2", 10L, 0, null)).isEqualTo(TransferStatus.VELOCITY_LIMIT_EXCEEDED);
+    assertThat(repository.transfer("Id-2", "Id-1", 5L, 0, null)).isEqualTo(TransferStatus.OK);
+    assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("85");
+  }
+
+  @Test
+  public void repositoryCountsBatchesLegsAndCaptures() {
+    AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(new StripedLockTransferEngine(64),
+      Optional.empty(), Optional.empty(), TransferMetrics.disabled(), Optional.of(limiter("3600:4:0")));
+    repository.createAccount(new Account("Id-1", new BigDecimal(100)));
+    repository.createAccount(new Account("Id-2", new BigDecimal(0)));
+    repository.createAccount(new Account("Id-3", new BigDecimal(0)));
+
+    // the batch is rolled back by its second transfer, the first one is taken back from the counters
+    assertThat(repository.moneyTransferAll(Arrays.asList(new MoneyTransfer("Id-1", "Id-2", new BigDecimal(10)),
+      new MoneyTransfer("Id-1", "Id-3", new BigDecimal(200))))).containsExactly(TransferStatus.ABORTED,
+      TransferStatus.INSUFFICIENT_FUNDS);
+    assertThat(repository.moneyTransferAll(Arrays.asList(new MoneyTransfer("Id-1", "Id-2", new BigDecimal(10)),
+      new MoneyTransfer("Id-1", "Id-3", new BigDecimal(10))))).containsOnly(TransferStatus.OK);
+    assertThat(repository.moneyTransferLegs("Id-1", new String[] {"Id-2", "Id-3", "Id-2"}, new long[] {1L, 1L, 1L},
+      new int[] {0, 0, 0})).containsOnly(TransferStatus.VELOCITY_LIMIT_EXCEEDED);
+    assertThat(repository.moneyTransferLegs("Id-1", new String[] {"Id-2"}, new long[] {5L}, new int[] {0}))
+      .containsOnly(TransferStatus.OK);
+    assertThat(repository.hold("Id-1", 20L, 0)).isEqualTo(TransferStatus.OK);
+    assertThat(repository.captureHold("Id-1", 20L, 0, "Id-3", 15L, 0)).isEqualTo(TransferStatus.OK);
+    assertThat(repository.moneyTransferAll(Arrays.asList(new MoneyTransfer("Id-1", "Id-2", new BigDecimal(1)))))
+      .containsExactly(TransferStatus.VELOCITY_LIMIT_EXCEEDED);
+    assertThat(repository.hold("Id-1", 20L, 0)).isEqualTo(TransferStatus.OK);
+    assertThat(repository.captureHold("Id-1", 20L, 0, "Id-3", 15L, 0))
+      .isEqualTo(TransferStatus.VELOCITY_LIMIT_EXCEEDED);
+    assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("60");
+  }
+}